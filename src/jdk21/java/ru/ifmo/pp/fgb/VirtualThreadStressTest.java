@@ -0,0 +1,50 @@
+package ru.ifmo.pp.fgb;
+
+import jdk.jfr.consumer.RecordingStream;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Multi-threaded stress test for bank implementation with tens of thousands of virtual threads.
+ * The number of threads is set by system property {@code fgb.callers}.
+ * <p/>
+ * <p>It also checks that bank operations never pin virtual threads to their carriers,
+ * that is never block while holding a monitor.
+ *
+ * @author Markina Margarita
+ */
+public class VirtualThreadStressTest extends MTStressTest {
+    private static final int CALLERS = Integer.getInteger("fgb.callers", 10_000);
+
+    @Override
+    protected int getNumberOfThreads() {
+        return CALLERS;
+    }
+
+    @Override
+    protected Thread newThread(Runnable task, String name) {
+        return Thread.ofVirtual().name(name).unstarted(task);
+    }
+
+    @Override
+    protected boolean isYielding() {
+        return true;
+    }
+
+    @Override
+    public void testStress() throws InterruptedException {
+        AtomicInteger pinned = new AtomicInteger();
+        try (RecordingStream events = new RecordingStream()) {
+            events.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+            events.onEvent("jdk.VirtualThreadPinned", event -> {
+                if (pinned.getAndIncrement() == 0)
+                    System.out.println(event);
+            });
+            events.startAsync();
+            super.testStress();
+            events.stop();
+        }
+        assertEquals("Pinned virtual threads", 0, pinned.get());
+    }
+}
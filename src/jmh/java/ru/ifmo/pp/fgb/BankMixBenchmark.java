@@ -0,0 +1,86 @@
+package ru.ifmo.pp.fgb;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of a mix of bank operations. Use JMH option {@code -t} to set the number of threads.
+ * <p/>
+ * <p>Operation mix is given as percentages of getAmount/deposit/withdraw/transfer/getTotalAmount,
+ * for example "0/33/33/33/1" is the mix of {@code MTStressTest}.
+ *
+ * @author Markina Margarita
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BankMixBenchmark {
+    @Param({Banks.BANK_IMPL, Banks.PACKED, Banks.PADDED, Banks.OFF_HEAP, Banks.GLOBAL_LOCK})
+    public String implementation;
+
+    @Param({"100", "1000000"})
+    public int accounts;
+
+    @Param({AccountChooser.UNIFORM, AccountChooser.ZIPFIAN})
+    public String skew;
+
+    @Param({"0/33/33/33/1", "90/3/3/3/1", "98/1/1/0/0"})
+    public String mix;
+
+    private Bank bank;
+    private AccountChooser chooser;
+
+    /**
+     * Cumulative percentages of getAmount, deposit, withdraw and transfer.
+     */
+    private final int[] thresholds = new int[4];
+
+    @Setup
+    public void setUp() {
+        bank = Banks.create(implementation, accounts);
+        for (int i = 0; i < accounts; i++)
+            bank.deposit(i, BankOperationBenchmark.MEAN);
+        chooser = new AccountChooser(accounts, skew);
+        String[] parts = mix.split("/");
+        if (parts.length != 5)
+            throw new IllegalArgumentException("Invalid mix: " + mix);
+        int sum = 0;
+        for (int i = 0; i < 5; i++) {
+            sum += Integer.parseInt(parts[i]);
+            if (i < 4)
+                thresholds[i] = sum;
+        }
+        if (sum != 100)
+            throw new IllegalArgumentException("Mix percentages must add up to 100: " + mix);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Banks.close(bank);
+    }
+
+    @Benchmark
+    public long mixed() {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        int op = rnd.nextInt(100);
+        long amount = rnd.nextInt(BankOperationBenchmark.AMT) + 1;
+        if (op < thresholds[0])
+            return bank.getAmount(chooser.next());
+        if (op < thresholds[1])
+            return bank.deposit(chooser.next(), amount);
+        if (op < thresholds[2])
+            return bank.withdraw(chooser.next(), amount);
+        if (op < thresholds[3]) {
+            int from = chooser.next();
+            bank.transfer(from, chooser.nextOther(from), amount);
+            return 0;
+        }
+        return bank.getTotalAmount();
+    }
+}
@@ -0,0 +1,117 @@
+package ru.ifmo.pp.fgb;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of each bank operation. Use JMH option {@code -t} to set the number of threads.
+ *
+ * @author Markina Margarita
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BankOperationBenchmark {
+    static final long MEAN = 1_000_000_000_000L;
+    static final int AMT = 1_000; // AMT << MEAN, so that over/under flow does not happen
+    static final int BATCH = 100;
+
+    @Param({Banks.BANK_IMPL, Banks.PACKED, Banks.PADDED, Banks.OFF_HEAP, Banks.GLOBAL_LOCK})
+    public String implementation;
+
+    @Param({"100", "1000000"})
+    public int accounts;
+
+    @Param({AccountChooser.UNIFORM, AccountChooser.ZIPFIAN})
+    public String skew;
+
+    private Bank bank;
+    private AccountChooser chooser;
+
+    @Setup
+    public void setUp() {
+        bank = Banks.create(implementation, accounts);
+        for (int i = 0; i < accounts; i++)
+            bank.deposit(i, MEAN);
+        chooser = new AccountChooser(accounts, skew);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Banks.close(bank);
+    }
+
+    /**
+     * Preallocated per-thread batch of transfers.
+     */
+    @State(Scope.Thread)
+    public static class Batch {
+        final int[] fromIndices = new int[BATCH];
+        final int[] toIndices = new int[BATCH];
+        final long[] amounts = new long[BATCH];
+    }
+
+    @Benchmark
+    public long getAmount() {
+        return bank.getAmount(chooser.next());
+    }
+
+    @Benchmark
+    public long getTotalAmount() {
+        return bank.getTotalAmount();
+    }
+
+    @Benchmark
+    public long deposit() {
+        return bank.deposit(chooser.next(), nextAmount());
+    }
+
+    @Benchmark
+    public long withdraw() {
+        return bank.withdraw(chooser.next(), nextAmount());
+    }
+
+    @Benchmark
+    public void transfer() {
+        int from = chooser.next();
+        bank.transfer(from, chooser.nextOther(from), nextAmount());
+    }
+
+    @Benchmark
+    public long tryDeposit() {
+        return bank.tryDeposit(chooser.next(), nextAmount());
+    }
+
+    @Benchmark
+    public long tryWithdraw() {
+        return bank.tryWithdraw(chooser.next(), nextAmount());
+    }
+
+    @Benchmark
+    public int tryTransfer() {
+        int from = chooser.next();
+        return bank.tryTransfer(from, chooser.nextOther(from), nextAmount());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int[] transferBatch(Batch batch) {
+        for (int i = 0; i < BATCH; i++) {
+            int from = chooser.next();
+            batch.fromIndices[i] = from;
+            batch.toIndices[i] = chooser.nextOther(from);
+            batch.amounts[i] = nextAmount();
+        }
+        return bank.transferBatch(batch.fromIndices, batch.toIndices, batch.amounts);
+    }
+
+    private static long nextAmount() {
+        return ThreadLocalRandom.current().nextInt(AMT) + 1;
+    }
+}
@@ -0,0 +1,85 @@
+package ru.ifmo.pp.fgb;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of {@link BankImpl} operations with and without the change feed, under each overrun policy,
+ * while consumer threads drain the feed. Use JMH option {@code -t} to add producer threads.
+ *
+ * @author Markina Margarita
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChangeFeedBenchmark {
+    @Param({"none", "BLOCK", "OVERWRITE"})
+    public String policy;
+
+    @Param({"1", "2"})
+    public int consumers;
+
+    @Param({"1000"})
+    public int accounts;
+
+    @Param({"4096"})
+    public int capacity;
+
+    private BankImpl bank;
+    private Thread[] drainers;
+    private volatile boolean done;
+
+    @Setup
+    public void setUp() {
+        bank = new BankImpl(accounts);
+        for (int i = 0; i < accounts; i++)
+            bank.deposit(i, BankOperationBenchmark.MEAN);
+        if (policy.equals("none"))
+            return;
+        ChangeFeed feed = new ChangeFeed(capacity, ChangeFeed.OverrunPolicy.valueOf(policy));
+        bank.setChangeFeed(feed);
+        drainers = new Thread[consumers];
+        for (int c = 0; c < consumers; c++) {
+            ChangeFeed.Consumer consumer = feed.subscribe();
+            drainers[c] = new Thread(() -> {
+                ChangeFeed.Handler handler = (sequence, type, index1, index2, amount) -> {};
+                while (!done) {
+                    if (consumer.poll(handler, capacity) == 0)
+                        Thread.onSpinWait();
+                }
+                consumer.close();
+            }, "ChangeFeedBenchmark-consumer-" + c);
+            drainers[c].setDaemon(true);
+            drainers[c].start();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        done = true;
+        if (drainers != null) {
+            for (Thread drainer : drainers)
+                drainer.join();
+        }
+        bank.setChangeFeed(null);
+    }
+
+    @Benchmark
+    public long deposit() {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        return bank.tryDeposit(rnd.nextInt(accounts), rnd.nextInt(BankOperationBenchmark.AMT) + 1);
+    }
+
+    @Benchmark
+    public int transfer() {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        int from = rnd.nextInt(accounts);
+        int to = (from + 1 + rnd.nextInt(accounts - 1)) % accounts;
+        return bank.tryTransfer(from, to, rnd.nextInt(BankOperationBenchmark.AMT) + 1);
+    }
+}
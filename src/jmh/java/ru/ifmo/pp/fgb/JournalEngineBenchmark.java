@@ -0,0 +1,136 @@
+package ru.ifmo.pp.fgb;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link JournalEngine} against {@link BankImpl} on the same stream of operations.
+ * Every invocation runs the whole stream, split between the producer threads: for the engine they submit
+ * commands while the benchmark thread reads results, for {@link BankImpl} they invoke the operations.
+ *
+ * @author Markina Margarita
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+@OperationsPerInvocation(JournalEngineBenchmark.STREAM)
+public class JournalEngineBenchmark {
+    static final int STREAM = 1 << 18;
+
+    @Param({"JournalEngine", "BankImpl"})
+    public String implementation;
+
+    @Param({"1", "4"})
+    public int producers;
+
+    @Param({"1000"})
+    public int accounts;
+
+    @Param({"65536"})
+    public int capacity;
+
+    /**
+     * Percentage of reads in the stream, the rest are deposits, withdrawals and transfers in equal parts.
+     */
+    @Param({"20"})
+    public int readPercent;
+
+    private final JournalEngine.Command[] commands = new JournalEngine.Command[STREAM];
+    private final int[] indices1 = new int[STREAM];
+    private final int[] indices2 = new int[STREAM];
+    private final long[] amounts = new long[STREAM];
+
+    private JournalEngine engine;
+    private BankImpl bank;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random rnd = new Random(1);
+        for (int k = 0; k < STREAM; k++) {
+            int from = rnd.nextInt(accounts);
+            indices1[k] = from;
+            indices2[k] = (from + 1 + rnd.nextInt(accounts - 1)) % accounts;
+            amounts[k] = rnd.nextInt(BankOperationBenchmark.AMT) + 1;
+            if (rnd.nextInt(100) < readPercent)
+                commands[k] = JournalEngine.Command.GET_AMOUNT;
+            else
+                commands[k] = JournalEngine.Command.values()[2 + rnd.nextInt(3)];
+        }
+        if (implementation.equals("JournalEngine")) {
+            engine = new JournalEngine(accounts, capacity, null);
+            for (int i = 0; i < accounts; i++)
+                engine.submit(JournalEngine.Command.DEPOSIT, i, 0, BankOperationBenchmark.MEAN);
+            drain(accounts);
+        } else {
+            bank = new BankImpl(accounts);
+            for (int i = 0; i < accounts; i++)
+                bank.deposit(i, BankOperationBenchmark.MEAN);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (engine != null)
+            engine.close();
+    }
+
+    @Benchmark
+    public long stream() throws InterruptedException {
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            int first = p;
+            threads[p] = new Thread(() -> {
+                if (engine != null) {
+                    for (int k = first; k < STREAM; k += producers)
+                        engine.submit(commands[k], indices1[k], indices2[k], amounts[k]);
+                } else {
+                    for (int k = first; k < STREAM; k += producers)
+                        invoke(k);
+                }
+            });
+            threads[p].start();
+        }
+        long sum = engine != null ? drain(STREAM) : 0;
+        for (Thread thread : threads)
+            thread.join();
+        return sum;
+    }
+
+    private long invoke(int k) {
+        switch (commands[k]) {
+            case GET_AMOUNT:
+                return bank.getAmount(indices1[k]);
+            case DEPOSIT:
+                return bank.tryDeposit(indices1[k], amounts[k]);
+            case WITHDRAW:
+                return bank.tryWithdraw(indices1[k], amounts[k]);
+            case TRANSFER:
+                return bank.tryTransfer(indices1[k], indices2[k], amounts[k]);
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    /**
+     * Reads the specified number of results of the engine.
+     *
+     * @return sum of results, so that they are consumed.
+     */
+    private long drain(int count) {
+        long[] sum = {0};
+        JournalEngine.Handler handler = (sequence, command, index1, index2, amount, result) -> sum[0] += result;
+        for (int read = 0; read < count; ) {
+            int polled = engine.poll(handler, capacity);
+            if (polled == 0)
+                Thread.onSpinWait();
+            read += polled;
+        }
+        return sum[0];
+    }
+}
@@ -0,0 +1,50 @@
+package ru.ifmo.pp.fgb;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of transfers on a pairwise-skewed workload: all transfers go back and forth
+ * between the accounts of a few pairs, like payments racing refunds.
+ * Use JMH option {@code -t} to set the number of threads.
+ *
+ * @author Markina Margarita
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OpposingTransferBenchmark {
+    @Param({Banks.BANK_IMPL})
+    public String implementation;
+
+    @Param({"1", "16"})
+    public int pairs;
+
+    private Bank bank;
+
+    @Setup
+    public void setUp() {
+        bank = Banks.create(implementation, 2 * pairs);
+        for (int i = 0; i < 2 * pairs; i++)
+            bank.deposit(i, BankOperationBenchmark.MEAN);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Banks.close(bank);
+    }
+
+    @Benchmark
+    public int tryTransfer() {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        int pair = 2 * rnd.nextInt(pairs);
+        int direction = rnd.nextInt(2);
+        return bank.tryTransfer(pair + direction, pair + 1 - direction, rnd.nextInt(BankOperationBenchmark.AMT) + 1);
+    }
+}
@@ -0,0 +1,53 @@
+package ru.ifmo.pp.fgb;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link StripedBankImpl} transfers and reads depending on the number of stripes.
+ * Use JMH option {@code -t} to set the number of threads. A stripe takes 64 bytes,
+ * so the lock memory of the bank is 64 * stripes bytes in addition to 8 bytes per account.
+ *
+ * @author Markina Margarita
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StripingBenchmark {
+    @Param({"64", "1024", "16384", "262144", "1000000"})
+    public int stripes;
+
+    @Param({"1000000"})
+    public int accounts;
+
+    @Param({AccountChooser.UNIFORM, AccountChooser.ZIPFIAN})
+    public String skew;
+
+    private Bank bank;
+    private AccountChooser chooser;
+
+    @Setup
+    public void setUp() {
+        bank = new StripedBankImpl(accounts, stripes);
+        for (int i = 0; i < accounts; i++)
+            bank.deposit(i, BankOperationBenchmark.MEAN);
+        chooser = new AccountChooser(accounts, skew);
+    }
+
+    @Benchmark
+    public int transfer() {
+        int from = chooser.next();
+        return bank.tryTransfer(from, chooser.nextOther(from),
+                ThreadLocalRandom.current().nextInt(BankOperationBenchmark.AMT) + 1);
+    }
+
+    @Benchmark
+    public long getAmount() {
+        return bank.getAmount(chooser.next());
+    }
+}
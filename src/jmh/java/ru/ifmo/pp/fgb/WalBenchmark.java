@@ -0,0 +1,75 @@
+package ru.ifmo.pp.fgb;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link BankImpl} transfers with the write-ahead log under each sync policy.
+ * Use JMH option {@code -t} to see how group commit amortizes forces over concurrent threads.
+ *
+ * @author Markina Margarita
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WalBenchmark {
+    @Param({"none", "everyOperation", "batched", "async"})
+    public String policy;
+
+    @Param({"1000"})
+    public int accounts;
+
+    private BankImpl bank;
+    private WriteAheadLog wal;
+    private Path file;
+
+    @Setup
+    public void setUp() throws IOException {
+        bank = new BankImpl(accounts);
+        for (int i = 0; i < accounts; i++)
+            bank.deposit(i, BankOperationBenchmark.MEAN);
+        if (!policy.equals("none")) {
+            file = Files.createTempFile("fgb", ".wal");
+            wal = new WriteAheadLog(file, syncPolicy(policy));
+            bank.setWriteAheadLog(wal);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (wal != null) {
+            bank.setWriteAheadLog(null);
+            wal.close();
+            Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    public int transfer() {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        int from = rnd.nextInt(accounts);
+        int to = (from + 1 + rnd.nextInt(accounts - 1)) % accounts;
+        return bank.tryTransfer(from, to, rnd.nextInt(BankOperationBenchmark.AMT) + 1);
+    }
+
+    private static WriteAheadLog.SyncPolicy syncPolicy(String name) {
+        switch (name) {
+            case "everyOperation":
+                return WriteAheadLog.SyncPolicy.everyOperation();
+            case "batched":
+                return WriteAheadLog.SyncPolicy.batched(2, TimeUnit.MILLISECONDS, 64 * 1024);
+            case "async":
+                return WriteAheadLog.SyncPolicy.async();
+            default:
+                throw new IllegalArgumentException("Unknown sync policy: " + name);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package ru.ifmo.pp.fgb;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base class for bank implementations that keep each account as a pair of primitive words:
+ * a lock word and an amount word.
+ * <p/>
+ * <p>The lock word is a sequence lock: it is even when the account is unlocked and odd while a writer
+ * holds it, and it is incremented on every lock and unlock. Writers use it as a spin lock with the same
+ * hierarchical (index-ordered) locking as {@link BankImpl}, readers use it to validate optimistic reads.
+ * Subclasses only define where the words are stored and, optionally, which lock word guards which account
+ * (see {@link #lockOf(int)}).
+ *
+ * @author Markina Margarita
+ */
+abstract class AbstractSeqLockBank implements Bank {
+    private static final int SPINS_BEFORE_YIELD = 64;
+
+    /**
+     * Number of accounts.
+     */
+    private final int n;
+
+    /**
+     * Running total of all accounts, maintained the same way as in {@link BankImpl}.
+     */
+    private final AtomicLong totalAmount = new AtomicLong();
+
+    /**
+     * Creates new bank instance.
+     *
+     * @param n the number of accounts (numbered from 0 to n-1).
+     */
+    protected AbstractSeqLockBank(int n) {
+        if (n < 0)
+            throw new IllegalArgumentException("Invalid number of accounts: " + n);
+        this.n = n;
+    }
+
+    /**
+     * Returns index of the lock word that guards the account. Several accounts may share a lock word,
+     * then an operation on them takes it once. Locks are taken in ascending order of these indices.
+     * <p/>
+     * <p>This implementation gives every account its own lock word with the same index.
+     */
+    protected int lockOf(int index) {
+        return index;
+    }
+
+    /**
+     * Reads lock word with volatile semantics.
+     *
+     * @param lock index of the lock word, see {@link #lockOf(int)}.
+     */
+    protected abstract long loadVersion(int lock);
+
+    /**
+     * Atomically changes lock word with volatile semantics.
+     *
+     * @param lock index of the lock word, see {@link #lockOf(int)}.
+     */
+    protected abstract boolean casVersion(int lock, long expect, long update);
+
+    /**
+     * Writes lock word with release semantics.
+     *
+     * @param lock index of the lock word, see {@link #lockOf(int)}.
+     */
+    protected abstract void storeVersion(int lock, long version);
+
+    /**
+     * Reads amount word of the account with volatile semantics.
+     */
+    protected abstract long loadAmount(int index);
+
+    /**
+     * Writes amount word of the account with release semantics.
+     */
+    protected abstract void storeAmount(int index, long amount);
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumberOfAccounts() {
+        return n;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getAmount(int index) {
+        checkIndex(index);
+        int lock = lockOf(index);
+        while (true) {
+            long version = loadVersion(lock);
+            if ((version & 1) == 0) {
+                long result = loadAmount(index);
+                if (loadVersion(lock) == version)
+                    return result;
+            } else
+                Thread.yield(); // writer is active
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getTotalAmount() {
+        return totalAmount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long deposit(int index, long amount) {
+        return BankImpl.checkStatus(tryDeposit(index, amount), amount);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long withdraw(int index, long amount) {
+        return BankImpl.checkStatus(tryWithdraw(index, amount), amount);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void transfer(int fromIndex, int toIndex, long amount) {
+        if (fromIndex == toIndex)
+            throw new IllegalArgumentException("fromIndex == toIndex");
+        BankImpl.checkStatus(tryTransfer(fromIndex, toIndex, amount), amount);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long tryDeposit(int index, long amount) {
+        checkIndex(index);
+        int lock = lockOf(index);
+        lock(lock);
+        try {
+            if (amount <= 0)
+                return INVALID_ARGUMENT;
+            long current = loadAmount(index);
+            if (amount > MAX_AMOUNT || current + amount > MAX_AMOUNT)
+                return OVERFLOW;
+            current += amount;
+            storeAmount(index, current);
+            totalAmount.addAndGet(amount);
+            return current;
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long tryWithdraw(int index, long amount) {
+        checkIndex(index);
+        int lock = lockOf(index);
+        lock(lock);
+        try {
+            if (amount <= 0)
+                return INVALID_ARGUMENT;
+            long current = loadAmount(index);
+            if (current - amount < 0)
+                return UNDERFLOW;
+            current -= amount;
+            storeAmount(index, current);
+            totalAmount.addAndGet(-amount);
+            return current;
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int tryTransfer(int fromIndex, int toIndex, long amount) {
+        checkIndex(fromIndex);
+        checkIndex(toIndex);
+        if (fromIndex == toIndex)
+            return INVALID_ARGUMENT;
+        int fromLock = lockOf(fromIndex);
+        int toLock = lockOf(toIndex);
+        if (fromLock == toLock) {
+            lock(fromLock); // lock word is not reentrant, so it is taken once
+            try {
+                return applyTransfer(fromIndex, toIndex, amount);
+            } finally {
+                unlock(fromLock);
+            }
+        }
+        lock(Math.min(fromLock, toLock));
+        lock(Math.max(fromLock, toLock));
+        try {
+            return applyTransfer(fromIndex, toIndex, amount);
+        } finally {
+            unlock(toLock);
+            unlock(fromLock);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * <p>This implementation takes every distinct lock of the batch once, in the same
+     * hierarchical order as {@link #transfer(int, int, long) transfer}, so the whole batch is
+     * applied atomically.
+     */
+    @Override
+    public int[] transferBatch(int[] fromIndices, int[] toIndices, long[] amounts) {
+        int size = fromIndices.length;
+        if (toIndices.length != size || amounts.length != size)
+            throw new IllegalArgumentException("Batch arrays have different lengths");
+        int[] locked = sortedDistinctLocks(fromIndices, toIndices);
+        for (int lock : locked) {
+            lock(lock);
+        }
+        try {
+            int[] status = new int[size];
+            for (int i = 0; i < size; i++) {
+                status[i] = fromIndices[i] == toIndices[i] ? INVALID_ARGUMENT :
+                        applyTransfer(fromIndices[i], toIndices[i], amounts[i]);
+            }
+            return status;
+        } finally {
+            for (int i = locked.length - 1; i >= 0; i--) {
+                unlock(locked[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns locks of the accounts referenced by the batch, without duplicates and in ascending order.
+     *
+     * @throws IndexOutOfBoundsException when any of indices is invalid.
+     */
+    private int[] sortedDistinctLocks(int[] fromIndices, int[] toIndices) {
+        int size = fromIndices.length;
+        int[] locks = new int[2 * size];
+        for (int i = 0; i < size; i++) {
+            checkIndex(fromIndices[i]);
+            checkIndex(toIndices[i]);
+            locks[i] = lockOf(fromIndices[i]);
+            locks[size + i] = lockOf(toIndices[i]);
+        }
+        Arrays.sort(locks);
+        int distinct = 0;
+        for (int i = 0; i < locks.length; i++) {
+            if (i == 0 || locks[i] != locks[i - 1])
+                locks[distinct++] = locks[i];
+        }
+        return Arrays.copyOf(locks, distinct);
+    }
+
+    /**
+     * Transfers amount between two different accounts that are both locked by the caller.
+     *
+     * @return status of the transfer.
+     */
+    private int applyTransfer(int fromIndex, int toIndex, long amount) {
+        if (amount <= 0)
+            return INVALID_ARGUMENT;
+        long from = loadAmount(fromIndex);
+        long to = loadAmount(toIndex);
+        if (amount > from)
+            return UNDERFLOW;
+        if (amount > MAX_AMOUNT || to + amount > MAX_AMOUNT)
+            return OVERFLOW;
+        storeAmount(fromIndex, from - amount);
+        storeAmount(toIndex, to + amount);
+        return OK;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= n)
+            throw new IndexOutOfBoundsException("Invalid account index: " + index);
+    }
+
+    private void lock(int lock) {
+        int spins = 0;
+        while (true) {
+            long version = loadVersion(lock);
+            if ((version & 1) == 0 && casVersion(lock, version, version + 1))
+                return;
+            if (++spins >= SPINS_BEFORE_YIELD) {
+                spins = 0;
+                Thread.yield();
+            }
+        }
+    }
+
+    private void unlock(int lock) {
+        storeVersion(lock, loadVersion(lock) + 1);
+    }
+}
@@ -0,0 +1,372 @@
+package ru.ifmo.pp.fgb;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous bank with the same operations and semantics as {@link Bank}, whose operations never block
+ * the calling thread.
+ * <p/>
+ * <p>Accounts are partitioned across shards, account with index i being owned by the shard i mod shards.
+ * Every shard is a single thread that owns the amounts of its accounts and applies all operations on them
+ * one by one, so accounts are not locked at all. A returned future is completed by the shard thread,
+ * so dependent actions that are not asynchronous run on it and should not block.
+ * <p/>
+ * <p>A transfer between accounts of different shards is made in two steps, which follow the same
+ * hierarchical order as locks in {@link BankImpl}. The shard of the account with the least index holds it,
+ * so that other operations on it wait, and sends its amount to the shard of the other account.
+ * That shard checks the transfer, applies its side and sends the status back (the linearization point),
+ * then the first shard applies its side and releases the account.
+ * <p/>
+ * <p>All failures, including invalid account indices, are reported by completing the future exceptionally
+ * with the exception that the corresponding {@link Bank} method throws.
+ *
+ * @author Markina Margarita
+ */
+public class AsyncBank implements Closeable {
+    /**
+     * Number of accounts.
+     */
+    private final int n;
+
+    /**
+     * Shards by index.
+     */
+    private final Shard[] shards;
+
+    /**
+     * Running total of all accounts. It is updated by deposit and withdraw on the shard thread
+     * right after the account amount, before any other operation can observe the account.
+     */
+    private final AtomicLong totalAmount = new AtomicLong();
+
+    /**
+     * Creates new bank instance.
+     *
+     * @param n      the number of accounts (numbered from 0 to n-1).
+     * @param shards the number of shards, each with a thread of its own.
+     * @throws IllegalArgumentException when the number of accounts is negative or the number of shards
+     *                                  is not positive.
+     */
+    public AsyncBank(int n, int shards) {
+        if (n < 0)
+            throw new IllegalArgumentException("Invalid number of accounts: " + n);
+        if (shards <= 0)
+            throw new IllegalArgumentException("Invalid number of shards: " + shards);
+        this.n = n;
+        this.shards = new Shard[shards];
+        for (int k = 0; k < shards; k++) {
+            this.shards[k] = new Shard(k, (n - k + shards - 1) / shards);
+        }
+    }
+
+    /**
+     * Stops shard threads. Operations that were submitted before are still applied, but the bank must not
+     * be closed before their futures complete, and operations submitted after that are rejected.
+     */
+    @Override
+    public void close() {
+        for (Shard shard : shards) {
+            shard.executor.shutdown();
+        }
+        try {
+            for (Shard shard : shards) {
+                shard.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the number of shards.
+     */
+    public int getNumberOfShards() {
+        return shards.length;
+    }
+
+    /**
+     * Returns number of accounts in this bank.
+     *
+     * @return number of accounts in this bank.
+     */
+    public int getNumberOfAccounts() {
+        return n;
+    }
+
+    /**
+     * Returns current amount in the specified account.
+     *
+     * @see Bank#getAmount(int)
+     */
+    public CompletableFuture<Long> getAmount(int index) {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        if (!checkIndex(index, result))
+            return result;
+        Shard shard = shardOf(index);
+        int local = localIndex(index);
+        shard.submit(local, local, () -> result.complete(shard.amounts[local]));
+        return result;
+    }
+
+    /**
+     * Returns total amount deposited in this bank.
+     *
+     * @see Bank#getTotalAmount()
+     */
+    public CompletableFuture<Long> getTotalAmount() {
+        return CompletableFuture.completedFuture(totalAmount.get());
+    }
+
+    /**
+     * Deposits specified amount to account.
+     *
+     * @see Bank#deposit(int, long)
+     */
+    public CompletableFuture<Long> deposit(int index, long amount) {
+        return tryDeposit(index, amount).thenApply(result -> BankImpl.checkStatus(result, amount));
+    }
+
+    /**
+     * Withdraws specified amount from account.
+     *
+     * @see Bank#withdraw(int, long)
+     */
+    public CompletableFuture<Long> withdraw(int index, long amount) {
+        return tryWithdraw(index, amount).thenApply(result -> BankImpl.checkStatus(result, amount));
+    }
+
+    /**
+     * Transfers specified amount from one account to another account.
+     *
+     * @see Bank#transfer(int, int, long)
+     */
+    public CompletableFuture<Void> transfer(int fromIndex, int toIndex, long amount) {
+        if (fromIndex == toIndex) {
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            result.completeExceptionally(new IllegalArgumentException("fromIndex == toIndex"));
+            return result;
+        }
+        return tryTransfer(fromIndex, toIndex, amount).thenAccept(status -> BankImpl.checkStatus(status, amount));
+    }
+
+    /**
+     * Deposits specified amount to account, reporting failures with a status instead of an exception.
+     *
+     * @see Bank#tryDeposit(int, long)
+     */
+    public CompletableFuture<Long> tryDeposit(int index, long amount) {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        if (!checkIndex(index, result))
+            return result;
+        if (amount <= 0) {
+            result.complete((long) Bank.INVALID_ARGUMENT);
+            return result;
+        }
+        Shard shard = shardOf(index);
+        int local = localIndex(index);
+        shard.submit(local, local, () -> {
+            long current = shard.amounts[local];
+            if (amount > Bank.MAX_AMOUNT || current + amount > Bank.MAX_AMOUNT) {
+                result.complete((long) Bank.OVERFLOW);
+                return;
+            }
+            shard.amounts[local] = current + amount;
+            totalAmount.addAndGet(amount);
+            result.complete(current + amount);
+        });
+        return result;
+    }
+
+    /**
+     * Withdraws specified amount from account, reporting failures with a status instead of an exception.
+     *
+     * @see Bank#tryWithdraw(int, long)
+     */
+    public CompletableFuture<Long> tryWithdraw(int index, long amount) {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        if (!checkIndex(index, result))
+            return result;
+        if (amount <= 0) {
+            result.complete((long) Bank.INVALID_ARGUMENT);
+            return result;
+        }
+        Shard shard = shardOf(index);
+        int local = localIndex(index);
+        shard.submit(local, local, () -> {
+            long current = shard.amounts[local];
+            if (current - amount < 0) {
+                result.complete((long) Bank.UNDERFLOW);
+                return;
+            }
+            shard.amounts[local] = current - amount;
+            totalAmount.addAndGet(-amount);
+            result.complete(current - amount);
+        });
+        return result;
+    }
+
+    /**
+     * Transfers specified amount from one account to another account, reporting failures with a status
+     * instead of an exception.
+     *
+     * @see Bank#tryTransfer(int, int, long)
+     */
+    public CompletableFuture<Integer> tryTransfer(int fromIndex, int toIndex, long amount) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        if (!checkIndex(fromIndex, result) || !checkIndex(toIndex, result))
+            return result;
+        if (amount <= 0 || fromIndex == toIndex) {
+            result.complete(Bank.INVALID_ARGUMENT);
+            return result;
+        }
+        Shard fromShard = shardOf(fromIndex);
+        Shard toShard = shardOf(toIndex);
+        int fromLocal = localIndex(fromIndex);
+        int toLocal = localIndex(toIndex);
+        if (fromShard == toShard) {
+            fromShard.submit(fromLocal, toLocal, () -> {
+                long[] amounts = fromShard.amounts;
+                int status = transferStatus(amounts[fromLocal], amounts[toLocal], amount);
+                if (status == Bank.OK) {
+                    amounts[fromLocal] -= amount;
+                    amounts[toLocal] += amount;
+                }
+                result.complete(status);
+            });
+            return result;
+        }
+        // the account with the least index is held by its shard until the transfer is applied
+        boolean fromFirst = fromIndex < toIndex;
+        Shard first = fromFirst ? fromShard : toShard;
+        Shard second = fromFirst ? toShard : fromShard;
+        int firstLocal = fromFirst ? fromLocal : toLocal;
+        int secondLocal = fromFirst ? toLocal : fromLocal;
+        long delta = fromFirst ? amount : -amount; // change of the second account
+        first.submit(firstLocal, firstLocal, () -> {
+            first.hold(firstLocal);
+            long firstAmount = first.amounts[firstLocal];
+            second.submit(secondLocal, secondLocal, () -> {
+                long secondAmount = second.amounts[secondLocal];
+                int status = fromFirst ? transferStatus(firstAmount, secondAmount, amount) :
+                        transferStatus(secondAmount, firstAmount, amount);
+                if (status == Bank.OK)
+                    second.amounts[secondLocal] += delta;
+                first.executor.execute(() -> {
+                    if (status == Bank.OK)
+                        first.amounts[firstLocal] -= delta;
+                    first.release(firstLocal);
+                    result.complete(status);
+                });
+            });
+        });
+        return result;
+    }
+
+    /**
+     * Checks transfer of amount between accounts with the specified amounts.
+     *
+     * @return status of the transfer.
+     */
+    private static int transferStatus(long from, long to, long amount) {
+        if (amount > from)
+            return Bank.UNDERFLOW;
+        if (amount > Bank.MAX_AMOUNT || to + amount > Bank.MAX_AMOUNT)
+            return Bank.OVERFLOW;
+        return Bank.OK;
+    }
+
+    /**
+     * Checks account index, completing the future exceptionally when it is invalid.
+     *
+     * @return true when index is valid.
+     */
+    private boolean checkIndex(int index, CompletableFuture<?> result) {
+        if (index >= 0 && index < n)
+            return true;
+        result.completeExceptionally(new IndexOutOfBoundsException("Invalid account index: " + index));
+        return false;
+    }
+
+    private Shard shardOf(int index) {
+        return shards[index % shards.length];
+    }
+
+    private int localIndex(int index) {
+        return index / shards.length;
+    }
+
+    /**
+     * Shard of accounts that is owned by a single thread.
+     */
+    private static final class Shard {
+        final ExecutorService executor;
+        /**
+         * Amounts of accounts of this shard by local index. They are accessed only by the shard thread.
+         */
+        final long[] amounts;
+        /**
+         * Operations that wait for the held accounts of this shard by local index, or null when
+         * the account is not held. They are accessed only by the shard thread.
+         */
+        final ArrayDeque<Runnable>[] waiting;
+
+        @SuppressWarnings("unchecked")
+        Shard(int index, int size) {
+            executor = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "AsyncBank-shard-" + index);
+                thread.setDaemon(true);
+                return thread;
+            });
+            amounts = new long[size];
+            waiting = (ArrayDeque<Runnable>[]) new ArrayDeque<?>[size];
+        }
+
+        /**
+         * Submits operation on two accounts of this shard, or twice the same account,
+         * that is run on the shard thread when both of them are not held.
+         */
+        void submit(int local, int other, Runnable operation) {
+            executor.execute(() -> runWhenFree(local, other, operation));
+        }
+
+        private void runWhenFree(int local, int other, Runnable operation) {
+            if (waiting[local] != null)
+                waiting[local].add(() -> runWhenFree(local, other, operation));
+            else if (waiting[other] != null)
+                waiting[other].add(() -> runWhenFree(local, other, operation));
+            else
+                operation.run();
+        }
+
+        /**
+         * Holds account, so that operations on it wait until it is released.
+         */
+        void hold(int local) {
+            waiting[local] = new ArrayDeque<>();
+        }
+
+        /**
+         * Releases held account and runs operations that wait for it, in the order they were submitted,
+         * until one of them holds it again.
+         */
+        void release(int local) {
+            ArrayDeque<Runnable> queue = waiting[local];
+            waiting[local] = null;
+            while (!queue.isEmpty()) {
+                ArrayDeque<Runnable> held = waiting[local];
+                if (held != null) { // the rest waits for the new holder
+                    queue.addAll(held);
+                    waiting[local] = queue;
+                    return;
+                }
+                queue.poll().run();
+            }
+        }
+    }
+}
@@ -11,6 +11,36 @@ public interface Bank {
      */
     public long MAX_AMOUNT = 1_000_000_000_000_000L;
 
+    /**
+     * Status of a successful operation.
+     */
+    public int OK = 0;
+
+    /**
+     * Status of an operation that failed with invalid arguments (amount <= 0 or fromIndex == toIndex).
+     * The corresponding throwing operation fails with {@link IllegalArgumentException}.
+     */
+    public int INVALID_ARGUMENT = -1;
+
+    /**
+     * Status of an operation that failed because there is not enough funds in account.
+     * The corresponding throwing operation fails with {@link IllegalStateException}.
+     */
+    public int UNDERFLOW = -2;
+
+    /**
+     * Status of an operation that failed because account would overflow above {@link #MAX_AMOUNT}.
+     * The corresponding throwing operation fails with {@link IllegalStateException}.
+     */
+    public int OVERFLOW = -3;
+
+    /**
+     * Status of an operation that failed with invalid account index, reported by a bank that is reached
+     * indirectly, such as {@link BankServer}. The corresponding throwing operation fails with
+     * {@link IndexOutOfBoundsException}.
+     */
+    public int INVALID_INDEX = -4;
+
     /**
      * Returns number of accounts in this bank.
      *
@@ -69,4 +99,56 @@ public interface Bank {
      * @throws IllegalStateException     when there is not enough funds in source account or too much in target one.
      */
     public void transfer(int fromIndex, int toIndex, long amount);
+
+    /**
+     * Deposits specified amount to account, reporting failures with a status instead of an exception.
+     *
+     * @param index  account index from 0 to {@link #getNumberOfAccounts() n}-1.
+     * @param amount positive amount to deposit.
+     * @return resulting amount in account, or negative {@link #INVALID_ARGUMENT} when amount <= 0,
+     *         or negative {@link #OVERFLOW} when deposit would overflow account above {@link #MAX_AMOUNT}.
+     * @throws IndexOutOfBoundsException when index is invalid account index.
+     */
+    public long tryDeposit(int index, long amount);
+
+    /**
+     * Withdraws specified amount from account, reporting failures with a status instead of an exception.
+     *
+     * @param index  account index from 0 to {@link #getNumberOfAccounts() n}-1.
+     * @param amount positive amount to withdraw.
+     * @return resulting amount in account, or negative {@link #INVALID_ARGUMENT} when amount <= 0,
+     *         or negative {@link #UNDERFLOW} when account does not have enough to withdraw.
+     * @throws IndexOutOfBoundsException when index is invalid account index.
+     */
+    public long tryWithdraw(int index, long amount);
+
+    /**
+     * Transfers specified amount from one account to another account, reporting failures with a status
+     * instead of an exception.
+     *
+     * @param fromIndex account index to withdraw from.
+     * @param toIndex   account index to deposit to.
+     * @param amount    positive amount to transfer.
+     * @return {@link #OK}, or {@link #INVALID_ARGUMENT} when amount <= 0 or fromIndex == toIndex,
+     *         or {@link #UNDERFLOW} when there is not enough funds in source account,
+     *         or {@link #OVERFLOW} when there is too much in target one.
+     * @throws IndexOutOfBoundsException when account indices are invalid.
+     */
+    public int tryTransfer(int fromIndex, int toIndex, long amount);
+
+    /**
+     * Transfers specified amounts between accounts in a batch.
+     * Transfers are applied in the order they are given, each with the same checks as
+     * {@link #transfer(int, int, long) transfer}, but a failed transfer does not stop the batch
+     * and is reported with a status code instead of an exception.
+     *
+     * @param fromIndices account indices to withdraw from.
+     * @param toIndices   account indices to deposit to.
+     * @param amounts     positive amounts to transfer.
+     * @return status of each transfer: {@link #OK}, {@link #INVALID_ARGUMENT}, {@link #UNDERFLOW}
+     *         or {@link #OVERFLOW}.
+     * @throws IllegalArgumentException  when arrays have different lengths.
+     * @throws IndexOutOfBoundsException when any of account indices is invalid; no transfer is applied then.
+     */
+    public int[] transferBatch(int[] fromIndices, int[] toIndices, long[] amounts);
 }
@@ -0,0 +1,260 @@
+package ru.ifmo.pp.fgb;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Client of {@link BankServer} that works with the remote bank through the {@link Bank} interface.
+ * Failures of the connection are reported with {@link UncheckedIOException}, and operations that fail
+ * on the server with an unexpected exception ({@link BankServer#FAILURE}) with {@link IllegalStateException}.
+ * <p/>
+ * <p>Every operation of the {@link Bank} interface waits for its response. To pipeline requests,
+ * {@link #send(byte, int, int, long) send} several of them and then {@link #receive() receive} their
+ * responses in the same order. The server stops reading requests of a client that does not read its responses,
+ * so no more than {@link #MAX_PIPELINED} requests should be sent before receiving responses.
+ * <p/>
+ * <p>This class is not thread-safe: every thread should use a client of its own.
+ *
+ * @author Markina Margarita
+ */
+public class BankClient implements Bank, Closeable {
+    /**
+     * The maximal number of requests that are safe to send before receiving their responses.
+     */
+    public static final int MAX_PIPELINED = 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final SocketChannel channel;
+
+    /**
+     * Requests that are not yet sent.
+     */
+    private final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /**
+     * Responses that are received but not yet read, ready for reading.
+     */
+    private final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /**
+     * The number of requests whose responses are not yet read.
+     */
+    private int pending;
+
+    /**
+     * Connects to the server.
+     *
+     * @param address address of the server.
+     * @throws IOException when connection cannot be established.
+     */
+    public BankClient(InetSocketAddress address) throws IOException {
+        channel = SocketChannel.open(address);
+        channel.socket().setTcpNoDelay(true);
+        in.flip();
+    }
+
+    /**
+     * Closes connection.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Buffers request for sending. It is sent when the buffer fills up or when responses are received.
+     *
+     * @param operation operation code, see {@link BankServer}.
+     * @param index     account index.
+     * @param other     other account index for transfers, ignored otherwise.
+     * @param amount    amount, ignored by operations without it.
+     * @throws IOException when request cannot be sent.
+     */
+    public void send(byte operation, int index, int other, long amount) throws IOException {
+        if (out.remaining() < BankServer.REQUEST_SIZE)
+            flush();
+        out.put(operation).putInt(index).putInt(other).putLong(amount);
+        pending++;
+    }
+
+    /**
+     * Sends buffered requests.
+     *
+     * @throws IOException when requests cannot be sent.
+     */
+    public void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Sends buffered requests and receives the response to the earliest request whose response is not yet
+     * received.
+     *
+     * @return result of the operation or its negative status.
+     * @throws IOException           when response cannot be received.
+     * @throws IllegalStateException when there are no requests to receive response to.
+     */
+    public long receive() throws IOException {
+        if (pending == 0)
+            throw new IllegalStateException("No pending requests");
+        if (out.position() > 0)
+            flush();
+        while (in.remaining() < BankServer.RESPONSE_SIZE) {
+            in.compact();
+            int read = channel.read(in);
+            in.flip();
+            if (read < 0)
+                throw new EOFException("Connection is closed by server");
+        }
+        pending--;
+        return in.getLong();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumberOfAccounts() {
+        return (int) call(BankServer.GET_NUMBER_OF_ACCOUNTS, 0, 0, 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getAmount(int index) {
+        return checkIndex(call(BankServer.GET_AMOUNT, index, 0, 0), index);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getTotalAmount() {
+        return call(BankServer.GET_TOTAL_AMOUNT, 0, 0, 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long deposit(int index, long amount) {
+        return BankImpl.checkStatus(tryDeposit(index, amount), amount);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long withdraw(int index, long amount) {
+        return BankImpl.checkStatus(tryWithdraw(index, amount), amount);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void transfer(int fromIndex, int toIndex, long amount) {
+        if (fromIndex == toIndex)
+            throw new IllegalArgumentException("fromIndex == toIndex");
+        BankImpl.checkStatus(tryTransfer(fromIndex, toIndex, amount), amount);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long tryDeposit(int index, long amount) {
+        return checkIndex(call(BankServer.DEPOSIT, index, 0, amount), index);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long tryWithdraw(int index, long amount) {
+        return checkIndex(call(BankServer.WITHDRAW, index, 0, amount), index);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int tryTransfer(int fromIndex, int toIndex, long amount) {
+        int result = (int) call(BankServer.TRANSFER, fromIndex, toIndex, amount);
+        if (result == Bank.INVALID_INDEX) {
+            int n = getNumberOfAccounts();
+            throw new IndexOutOfBoundsException("Invalid account index: " +
+                    (fromIndex < 0 || fromIndex >= n ? fromIndex : toIndex));
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * <p>This implementation pipelines transfers of the batch. They are applied one by one,
+     * so the batch is not atomic.
+     */
+    @Override
+    public int[] transferBatch(int[] fromIndices, int[] toIndices, long[] amounts) {
+        int size = fromIndices.length;
+        if (toIndices.length != size || amounts.length != size)
+            throw new IllegalArgumentException("Batch arrays have different lengths");
+        int n = getNumberOfAccounts();
+        for (int i = 0; i < size; i++) {
+            if (fromIndices[i] < 0 || fromIndices[i] >= n)
+                throw new IndexOutOfBoundsException("Invalid account index: " + fromIndices[i]);
+            if (toIndices[i] < 0 || toIndices[i] >= n)
+                throw new IndexOutOfBoundsException("Invalid account index: " + toIndices[i]);
+        }
+        int[] status = new int[size];
+        try {
+            int received = 0;
+            for (int i = 0; i < size; i++) {
+                if (i - received == MAX_PIPELINED)
+                    status[received++] = (int) receive();
+                send(BankServer.TRANSFER, fromIndices[i], toIndices[i], amounts[i]);
+            }
+            while (received < size) {
+                status[received++] = (int) receive();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (int s : status) {
+            if (s == BankServer.FAILURE)
+                throw new IllegalStateException("Transfer has failed on the server");
+        }
+        return status;
+    }
+
+    private long call(byte operation, int index, int other, long amount) {
+        long result;
+        try {
+            send(operation, index, other, amount);
+            result = receive();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (result == BankServer.FAILURE)
+            throw new IllegalStateException("Operation has failed on the server");
+        return result;
+    }
+
+    private static long checkIndex(long result, int index) {
+        if (result == Bank.INVALID_INDEX)
+            throw new IndexOutOfBoundsException("Invalid account index: " + index);
+        return result;
+    }
+}
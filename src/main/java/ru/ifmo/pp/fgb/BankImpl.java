@@ -1,31 +1,388 @@
 package ru.ifmo.pp.fgb;
 
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 
 /**
  * Bank implementation.
  * <p/>
+ * <p>Deposits and withdrawals that find the account locked are not queued on the lock.
+ * They are published to the account and applied in bulk by the thread that holds its lock
+ * (flat combining), see {@link #tryDeposit(int, long) tryDeposit}. Concurrent transfers between the same
+ * two accounts are applied in pairs under one acquisition of their locks (elimination),
+ * see {@link #tryTransfer(int, int, long) tryTransfer}.
+ * <p/>
+ * <p>Amounts of accounts are also kept in a {@link FenwickTree}, so that totals over ranges of accounts
+ * are read in O(log n), see {@link #getTotalAmount(int, int)}. Point-in-time views of all accounts are read
+ * from older versions of amounts that are kept while views are open, see {@link #snapshot()}.
+ * <p/>
+ * <p>Accounts are kept in {@link Segments} that are allocated as the bank grows, so that accounts are opened
+ * without copying or locking the existing ones, see {@link #openAccount()}. Successful operations can be
+ * published to consumers in the order of linearization, see {@link #setChangeFeed(ChangeFeed)}.
  *
  * @author Markina Margarita
  */
 public class BankImpl implements Bank {
     /**
-     * An array of accounts by index.
+     * How long a deposit or withdrawal published to a locked account sleeps before checking the lock again.
+     */
+    private static final long PARK_NANOS = 50_000;
+
+    /**
+     * How many times a deposit or withdrawal published to a locked account yields before it starts to sleep.
+     */
+    private static final int SPINS_BEFORE_PARK = 16;
+
+    /**
+     * How many times a snapshot read of an account is tried optimistically before it takes the read lock.
+     */
+    private static final int OPTIMISTIC_READS = 8;
+
+    /**
+     * Request of every thread. A thread publishes at most one request at a time and reuses it after it is done,
+     * so contended deposits and withdrawals do not allocate.
+     */
+    private static final ThreadLocal<Request> REQUEST = ThreadLocal.withInitial(Request::new);
+
+    /**
+     * Offer of every thread, reused like {@link #REQUEST}.
      */
-    private final Account[] accounts;
+    private static final ThreadLocal<Offer> OFFER = ThreadLocal.withInitial(Offer::new);
 
+    /**
+     * Accounts by segment, see {@link Segments}. Segments and accounts are published by the write
+     * of {@link #numberOfAccounts}, so an account is read only after the index is checked against it.
+     */
+    private final Account[][] accounts = new Account[Segments.COUNT][];
+
+    /**
+     * The number of accounts. It is written only under the locks of {@link #accountsLock}
+     * and {@link #openSnapshots}.
+     */
+    private volatile int numberOfAccounts;
+
+    /**
+     * Serializes opening accounts and copying accounts to checkpoints.
+     */
+    private final Object accountsLock = new Object();
+
+    /**
+     * Serializes writing checkpoints.
+     */
+    private final Object checkpointLock = new Object();
+
+    /**
+     * Running total of all accounts. It is updated by deposit and withdraw while the
+     * corresponding account lock is still held, so that no thread can observe the new account
+     * amount before the total reflects it. Transfers do not change the total.
+     */
+    private final AtomicLong totalAmount = new AtomicLong();
+
+    /**
+     * Amounts of accounts for range totals. Like the running total, it is updated while the corresponding
+     * account locks are still held, in one update section together with the running total.
+     */
+    private final FenwickTree rangeTotals;
+
+    /**
+     * Epochs of snapshots that are open, guarded by itself. Accounts are added under its lock too, so that
+     * every snapshot sees the accounts that were opened before it.
+     */
+    private final TreeSet<Long> openSnapshots = new TreeSet<>();
+
+    /**
+     * The current snapshot epoch. Modifications of accounts are stamped with the epoch they read under
+     * the account locks, and a snapshot of the epoch e sees modifications that are stamped e or less. It is
+     * advanced only when a snapshot is taken, under the lock of {@link #openSnapshots}.
+     */
+    private volatile long snapshotEpoch;
+
+    /**
+     * Epoch of the oldest open snapshot, or {@link Long#MAX_VALUE} when no snapshot is open. It is set
+     * before the epoch is advanced for the new snapshot, so that modifications stamped with the new epoch
+     * see the new snapshot as open.
+     */
+    private volatile long oldestSnapshot = Long.MAX_VALUE;
+
+    /**
+     * Lock metrics, or null when they are disabled.
+     */
+    private volatile LockMetrics lockMetrics;
+
+    /**
+     * Write-ahead log of successful operations, or null when they are not logged.
+     */
+    private volatile WriteAheadLog writeAheadLog;
+
+    /**
+     * Feed of successful operations, or null when they are not published.
+     */
+    private volatile ChangeFeed changeFeed;
 
     /**
      * Creates new bank instance.
      *
-     * @param n the number of accounts (numbered from 0 to n-1).
+     * @param n the initial number of accounts (numbered from 0 to n-1).
      */
     public BankImpl(int n) {
-        accounts = new Account[n];
-        for (int i = 0; i < n; i++) {
-            accounts[i] = new Account();
+        this(new long[n]);
+    }
+
+    /**
+     * Creates new bank instance with the specified amounts.
+     *
+     * @param amounts amounts of accounts by index.
+     */
+    private BankImpl(long[] amounts) {
+        if (amounts.length > Segments.MAX_SIZE)
+            throw new IllegalArgumentException("Too many accounts: " + amounts.length);
+        for (int segment = 0; segment < Segments.count(amounts.length); segment++) {
+            accounts[segment] = new Account[Segments.capacity(segment)];
+        }
+        long total = 0;
+        for (int i = 0; i < amounts.length; i++) {
+            Account account = new Account();
+            account.amount = amounts[i];
+            accounts[Segments.segment(i)][Segments.offset(i)] = account;
+            total += amounts[i];
+        }
+        totalAmount.set(total);
+        rangeTotals = new FenwickTree(amounts);
+        numberOfAccounts = amounts.length;
+    }
+
+    /**
+     * Reads amounts of all accounts from the checkpoint.
+     */
+    private static long[] readAmounts(Checkpoint checkpoint) {
+        long[] amounts = new long[checkpoint.getNumberOfAccounts()];
+        long[] block = new long[Checkpoint.BLOCK_SIZE];
+        for (int b = 0; b < checkpoint.getNumberOfBlocks(); b++) {
+            int count = checkpoint.getBlock(b, block);
+            System.arraycopy(block, 0, amounts, b * Checkpoint.BLOCK_SIZE, count);
+        }
+        return amounts;
+    }
+
+    /**
+     * Restores bank from the checkpoint written by {@link #checkpoint(Path)} and, optionally,
+     * from the tail of the write-ahead log that the bank was logging to when the checkpoint was written.
+     * Only the part of the log after the checkpoint is read, so restart time does not depend on the length
+     * of the bank history.
+     * <p/>
+     * <p>The bank does not run on the mapped file: amounts are copied in from it, and an account object
+     * is allocated for every account, so restore takes O(n) time and memory, like creating a new bank.
+     *
+     * @param checkpointFile checkpoint file.
+     * @param logFile        write-ahead log file, or null to restore the checkpoint alone.
+     * @return restored bank.
+     * @throws IOException when checkpoint or log cannot be read.
+     */
+    public static BankImpl restore(Path checkpointFile, Path logFile) throws IOException {
+        BankImpl bank;
+        long[] blockLsns;
+        try (Checkpoint checkpoint = Checkpoint.open(checkpointFile)) {
+            bank = new BankImpl(readAmounts(checkpoint));
+            blockLsns = new long[checkpoint.getNumberOfBlocks()];
+            for (int block = 0; block < blockLsns.length; block++) {
+                blockLsns[block] = checkpoint.getLsn(block);
+            }
+        }
+        if (logFile != null) {
+            long fromLsn = Long.MAX_VALUE;
+            for (long lsn : blockLsns) {
+                fromLsn = Math.min(fromLsn, lsn);
+            }
+            WriteAheadLog.replay(logFile, blockLsns.length == 0 ? 0 : fromLsn, blockLsns, bank);
+        }
+        return bank;
+    }
+
+    /**
+     * Returns lock metrics of this bank.
+     *
+     * @return lock metrics, or null when they are disabled.
+     */
+    public LockMetrics getLockMetrics() {
+        return lockMetrics;
+    }
+
+    /**
+     * Enables or disables lock metrics of this bank. Operations that are already running
+     * may be recorded in the old metrics.
+     *
+     * Accounts opened after the metrics are enabled are not counted in their per-account contention.
+     *
+     * @param lockMetrics lock metrics for the current number of accounts, or null to disable them.
+     * @throws IllegalArgumentException when metrics are for a different number of accounts.
+     */
+    public void setLockMetrics(LockMetrics lockMetrics) {
+        if (lockMetrics != null && lockMetrics.getNumberOfAccounts() != numberOfAccounts)
+            throw new IllegalArgumentException("Lock metrics are for " + lockMetrics.getNumberOfAccounts() +
+                    " accounts");
+        this.lockMetrics = lockMetrics;
+    }
+
+    /**
+     * Returns write-ahead log of this bank.
+     *
+     * @return write-ahead log, or null when operations are not logged.
+     */
+    public WriteAheadLog getWriteAheadLog() {
+        return writeAheadLog;
+    }
+
+    /**
+     * Starts or stops logging successful operations to the write-ahead log. To recover after a crash,
+     * the log should be started before the bank is modified, or the bank should be recovered from the same
+     * log with {@link WriteAheadLog#replay(java.nio.file.Path, Bank)} before the log is started.
+     * <p/>
+     * <p>Operations that are already running may be logged or not.
+     *
+     * @param writeAheadLog write-ahead log, or null to stop logging.
+     */
+    public void setWriteAheadLog(WriteAheadLog writeAheadLog) {
+        this.writeAheadLog = writeAheadLog;
+    }
+
+    /**
+     * Returns change feed of this bank.
+     *
+     * @return change feed, or null when operations are not published.
+     */
+    public ChangeFeed getChangeFeed() {
+        return changeFeed;
+    }
+
+    /**
+     * Starts or stops publishing successful deposits, withdrawals and transfers to the change feed.
+     * Events of an operation are published while its account locks are held, so their order in the feed
+     * is a linearization order. Transactions are published as deposits and withdrawals of their net changes,
+     * and opening an account publishes nothing.
+     * <p/>
+     * <p>Operations that are already running may be published or not.
+     *
+     * @param changeFeed change feed, or null to stop publishing.
+     */
+    public void setChangeFeed(ChangeFeed changeFeed) {
+        this.changeFeed = changeFeed;
+    }
+
+    /**
+     * Writes checkpoint of all account amounts to the memory-mapped file, atomically replacing it.
+     * <p/>
+     * <p>Accounts are copied in blocks of consecutive accounts, in the same hierarchical order as in
+     * {@link #transfer(int, int, long) transfer}. Only the accounts of one block are locked at a time,
+     * so operations on all other accounts continue while the checkpoint is written. Therefore the checkpoint
+     * is fuzzy: an operation that runs concurrently with it may be reflected for some of its accounts only.
+     * When operations are logged, the checkpoint records the position of the write-ahead log for every block
+     * and {@link #restore(Path, Path)} completes such operations from the log, so the restored bank is exactly
+     * in the logged state. The write-ahead log must not be changed while the checkpoint is written.
+     * <p/>
+     * <p>Accounts are not opened while they are copied to the checkpoint, so all records of accounts that are
+     * opened later follow it in the log; {@link #openAccount()} waits until the copy is done, but not while
+     * the log and the checkpoint are forced to the storage device.
+     *
+     * @param file checkpoint file.
+     * @throws IOException when checkpoint or write-ahead log cannot be written.
+     */
+    public void checkpoint(Path file) throws IOException {
+        synchronized (checkpointLock) {
+            WriteAheadLog wal = writeAheadLog;
+            Checkpoint checkpoint;
+            long lastLsn;
+            synchronized (accountsLock) {
+                checkpoint = Checkpoint.create(file, numberOfAccounts);
+                try {
+                    lastLsn = copyAccounts(checkpoint, wal);
+                } catch (RuntimeException | Error e) {
+                    checkpoint.close();
+                    throw e;
+                }
+            }
+            try (checkpoint) {
+                if (wal != null)
+                    wal.sync(lastLsn); // checkpoint must never be ahead of the durable log
+                checkpoint.commit();
+            }
+        }
+    }
+
+    /**
+     * Copies all accounts to the checkpoint block by block.
+     *
+     * @return LSN of the last block, or 0 when operations are not logged.
+     */
+    private long copyAccounts(Checkpoint checkpoint, WriteAheadLog wal) {
+        int n = numberOfAccounts;
+        long lastLsn = 0;
+        long[] amounts = new long[Checkpoint.BLOCK_SIZE];
+        for (int block = 0; block < checkpoint.getNumberOfBlocks(); block++) {
+            int from = block * Checkpoint.BLOCK_SIZE;
+            int to = Math.min(n, from + Checkpoint.BLOCK_SIZE);
+            for (int i = from; i < to; i++) {
+                account(i).setLock();
+            }
+            try {
+                for (int i = from; i < to; i++) {
+                    amounts[i - from] = account(i).amount;
+                }
+                if (wal != null)
+                    lastLsn = wal.getAppendedLsn(); // records of the locked accounts are all before it
+            } finally {
+                for (int i = to - 1; i >= from; i--) {
+                    unlock(i);
+                }
+            }
+            checkpoint.putBlock(block, lastLsn, amounts);
+        }
+        return lastLsn;
+    }
+
+    /**
+     * Opens new account with zero amount at the index after the last one. Operations on other accounts are
+     * neither blocked nor slowed down: the account is added to a segment that is allocated when the previous
+     * segments are full, and existing accounts are never copied. Opening itself waits while
+     * {@link #checkpoint(Path) checkpoint} copies accounts. Opening accounts is linearizable with respect
+     * to all other operations: {@link #getNumberOfAccounts()} counts the account as soon as it can be used, and
+     * {@link #getTotalAmount()} is not changed by it. When operations are logged, opening is logged too.
+     *
+     * @return index of the opened account.
+     * @throws IllegalStateException when the bank cannot have more accounts.
+     */
+    public int openAccount() {
+        WriteAheadLog wal;
+        long lsn = 0;
+        int index;
+        synchronized (accountsLock) {
+            index = numberOfAccounts;
+            if (index == Segments.MAX_SIZE)
+                throw new IllegalStateException("Too many accounts");
+            int segment = Segments.segment(index);
+            if (accounts[segment] == null)
+                accounts[segment] = new Account[Segments.capacity(segment)];
+            rangeTotals.grow();
+            wal = writeAheadLog;
+            if (wal != null)
+                lsn = wal.logOpenAccount(index); // before any record of the account
+            synchronized (openSnapshots) {
+                Account account = new Account();
+                account.epoch = snapshotEpoch; // open snapshots do not see the account, nor keep its versions
+                accounts[segment][Segments.offset(index)] = account;
+                numberOfAccounts = index + 1; // the linearization point
+            }
         }
+        if (lsn != 0)
+            wal.awaitDurable(lsn);
+        return index;
     }
 
     /**
@@ -33,7 +390,7 @@ public class BankImpl implements Bank {
      */
     @Override
     public int getNumberOfAccounts() {
-        return accounts.length;
+        return numberOfAccounts;
     }
 
     /**
@@ -41,12 +398,7 @@ public class BankImpl implements Bank {
      */
     @Override
     public long getAmount(int index) {
-        accounts[index].setLock();
-        try {
-            return accounts[index].amount;
-        } finally {
-            accounts[index].setUnlock();
-        }
+        return account(index).getAmount();
     }
 
     /**
@@ -54,20 +406,53 @@ public class BankImpl implements Bank {
      */
     @Override
     public long getTotalAmount() {
-        for (int i = 0; i < accounts.length; i++) {
-            accounts[i].setLock();
-        }
-        try {
-            long sum = 0;
-            for (Account account : accounts) {
-                sum += account.amount;
+        return totalAmount.get();
+    }
+
+    /**
+     * Returns total amount in the range of accounts. It is linearizable with respect to all other operations
+     * and never blocks them. It takes O(log n) time regardless of the size of the range, unless concurrent
+     * modifications keep changing the part of the range totals that it reads. Then it reads the amounts
+     * of the range from a {@link #snapshot() snapshot} in O(toIndex - fromIndex) time instead.
+     *
+     * @param fromIndex index of the first account in the range.
+     * @param toIndex   index after the last account in the range.
+     * @return total amount in accounts from fromIndex, inclusive, to toIndex, exclusive.
+     * @throws IndexOutOfBoundsException when fromIndex &lt; 0, toIndex &gt; {@link #getNumberOfAccounts() n}
+     *                                   or fromIndex &gt; toIndex.
+     */
+    public long getTotalAmount(int fromIndex, int toIndex) {
+        if (toIndex > numberOfAccounts) // the tree may already have an account that is being opened
+            throw new IndexOutOfBoundsException("Invalid range of accounts: [" + fromIndex + ", " + toIndex + ")");
+        long sum = rangeTotals.sum(fromIndex, toIndex);
+        if (sum != FenwickTree.BUSY)
+            return sum;
+        try (Snapshot snapshot = snapshot()) {
+            sum = 0;
+            for (int i = fromIndex; i < toIndex; i++) {
+                sum += snapshot.getAmount(i);
             }
             return sum;
+        }
+    }
 
-        } finally {
-            for (int i = accounts.length - 1; i >= 0; i--) {
-                accounts[i].setUnlock();
-            }
+    /**
+     * Takes read-only point-in-time view of all accounts. It is linearizable with respect to all other
+     * operations, and neither taking it nor reading it blocks them.
+     * <p/>
+     * <p>While a snapshot is open, the first modification of an account after it keeps the amount that the
+     * snapshot reads, so the memory it takes is proportional to the number of accounts modified while it is
+     * open. It must be closed when it is no longer needed.
+     *
+     * @return open snapshot of the accounts that are opened before it.
+     */
+    public Snapshot snapshot() {
+        synchronized (openSnapshots) {
+            long epoch = snapshotEpoch;
+            openSnapshots.add(epoch);
+            oldestSnapshot = openSnapshots.first();
+            snapshotEpoch = epoch + 1; // the linearization point
+            return new Snapshot(epoch, numberOfAccounts);
         }
     }
 
@@ -76,92 +461,1095 @@ public class BankImpl implements Bank {
      */
     @Override
     public long deposit(int index, long amount) {
-        accounts[index].setLock();
+        return checkStatus(tryDeposit(index, amount), amount);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long withdraw(int index, long amount) {
+        return checkStatus(tryWithdraw(index, amount), amount);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void transfer(int fromIndex, int toIndex, long amount) {
+        if (fromIndex == toIndex)
+            throw new IllegalArgumentException("fromIndex == toIndex");
+        checkStatus(tryTransfer(fromIndex, toIndex, amount), amount);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * <p>When the account is locked by another thread, this implementation does not wait for the lock.
+     * It publishes the deposit to the account instead, and the holder of the lock applies it together
+     * with other published deposits and withdrawals before it unlocks the account, so a hot account
+     * is not handed over from thread to thread for every operation. The deposit is still applied
+     * under the account lock and the result is its own, so it stays linearizable.
+     */
+    @Override
+    public long tryDeposit(int index, long amount) {
+        Account account = account(index);
+        LockMetrics metrics = lockMetrics;
+        long startTime = metrics == null ? 0 : System.nanoTime();
+        if (!account.tryLock())
+            return delegate(index, true, amount, metrics, startTime);
+        long lockTime = metrics == null ? 0 : System.nanoTime();
+        WriteAheadLog wal = writeAheadLog;
+        ChangeFeed feed = changeFeed;
+        long lsn = 0;
+        long result;
         try {
-            if (amount <= 0)
-                throw new IllegalArgumentException("Invalid amount: " + amount);
-            Account account = accounts[index];
-            if (amount > MAX_AMOUNT || account.amount + amount > MAX_AMOUNT)
-                throw new IllegalStateException("Overflow");
-            account.amount += amount;
-            return account.amount;
+            result = applyDeposit(account, amount, snapshotEpoch);
+            if (result >= 0) {
+                addToTotals(index, amount);
+                if (wal != null)
+                    lsn = wal.logDeposit(index, amount);
+                if (feed != null)
+                    feed.append(ChangeFeed.Type.DEPOSIT, index, -1, amount);
+            }
         } finally {
-            accounts[index].setUnlock();
+            unlock(index);
+            if (metrics != null)
+                metrics.record(LockMetrics.Op.DEPOSIT, 1, 0, startTime, lockTime);
         }
+        if (lsn != 0)
+            wal.awaitDurable(lsn);
+        return result;
     }
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * <p>When the account is locked by another thread, the withdrawal is applied by the holder
+     * of the lock, see {@link #tryDeposit(int, long) tryDeposit}.
      */
     @Override
-    public long withdraw(int index, long amount) {
-        accounts[index].setLock();
+    public long tryWithdraw(int index, long amount) {
+        Account account = account(index);
+        LockMetrics metrics = lockMetrics;
+        long startTime = metrics == null ? 0 : System.nanoTime();
+        if (!account.tryLock())
+            return delegate(index, false, amount, metrics, startTime);
+        long lockTime = metrics == null ? 0 : System.nanoTime();
+        WriteAheadLog wal = writeAheadLog;
+        ChangeFeed feed = changeFeed;
+        long lsn = 0;
+        long result;
         try {
-            if (amount <= 0)
-                throw new IllegalArgumentException("Invalid amount: " + amount);
-            Account account = accounts[index];
-            if (account.amount - amount < 0)
-                throw new IllegalStateException("Underflow");
-            account.amount -= amount;
-            return account.amount;
+            result = applyWithdraw(account, amount, snapshotEpoch);
+            if (result >= 0) {
+                addToTotals(index, -amount);
+                if (wal != null)
+                    lsn = wal.logWithdraw(index, amount);
+                if (feed != null)
+                    feed.append(ChangeFeed.Type.WITHDRAW, index, -1, amount);
+            }
         } finally {
-            accounts[index].setUnlock();
+            unlock(index);
+            if (metrics != null)
+                metrics.record(LockMetrics.Op.WITHDRAW, 1, 0, startTime, lockTime);
         }
+        if (lsn != 0)
+            wal.awaitDurable(lsn);
+        return result;
     }
 
     /**
      * {@inheritDoc}
+     * <p/>
+     * <p>When the first account to lock is locked by another thread, this implementation offers
+     * the transfer to the other transfers between the same two accounts instead of waiting for the lock.
+     * A transfer that holds or acquires both locks takes the offer and applies it together with itself,
+     * in either direction, so two transfers cost one round-trip of the locks. When the own transfer fails,
+     * it is retried after the offered one, so it fails only when it would fail in both orders; both
+     * transfers are concurrent, so either order is a valid linearization. An offer that is not taken soon
+     * is withdrawn and the transfer waits for the locks as usual.
      */
     @Override
-    public void transfer(int fromIndex, int toIndex, long amount) {
-        if (fromIndex < toIndex) {
-            accounts[fromIndex].setLock();
-            accounts[toIndex].setLock();
-        } else {
-            accounts[toIndex].setLock();
-            accounts[fromIndex].setLock();
+    public int tryTransfer(int fromIndex, int toIndex, long amount) {
+        Account from = account(fromIndex);
+        Account to = account(toIndex);
+        if (fromIndex == toIndex) // account lock is not reentrant, so fail before taking it twice
+            return INVALID_ARGUMENT;
+        LockMetrics metrics = lockMetrics;
+        long startTime = metrics == null ? 0 : System.nanoTime();
+        int first = Math.min(fromIndex, toIndex);
+        int second = Math.max(fromIndex, toIndex);
+        Offer taken = null;
+        int contended = 0;
+        if (!account(first).tryLock()) {
+            taken = takeOffer(first, second);
+            if (taken == null) {
+                Offer offer = OFFER.get().reset(fromIndex, toIndex, amount);
+                if (awaitTaken(first, offer)) {
+                    if (metrics != null)
+                        metrics.record(LockMetrics.Op.TRANSFER, 0, 0, startTime, System.nanoTime());
+                    if (offer.lsn != 0)
+                        offer.wal.awaitDurable(offer.lsn);
+                    return offer.status;
+                }
+            }
+            contended = lock(first, metrics);
         }
+        contended += lock(second, metrics);
+        long lockTime = metrics == null ? 0 : System.nanoTime();
+        WriteAheadLog wal = writeAheadLog;
+        ChangeFeed feed = changeFeed;
+        long lsn = 0;
+        int status;
         try {
-            if (amount <= 0)
-                throw new IllegalArgumentException("Invalid amount: " + amount);
-            if (fromIndex == toIndex)
-                throw new IllegalArgumentException("fromIndex == toIndex");
-            Account from = accounts[fromIndex];
-            Account to = accounts[toIndex];
-            if (amount > from.amount)
-                throw new IllegalStateException("Underflow");
-            else if (amount > MAX_AMOUNT || to.amount + amount > MAX_AMOUNT)
-                throw new IllegalStateException("Overflow");
-            from.amount -= amount;
-            to.amount += amount;
+            long epoch = snapshotEpoch; // the same for all modifications under these locks
+            status = applyTransfer(from, to, amount, epoch);
+            if (status == OK && wal != null)
+                lsn = wal.logTransfer(fromIndex, toIndex, amount);
+            if (status == OK && feed != null)
+                feed.append(ChangeFeed.Type.TRANSFER, fromIndex, toIndex, amount);
+            if (taken == null)
+                taken = takeOffer(first, second); // offered while this thread was holding the locks
+            if (taken != null) {
+                // records are logged in the order the transfers are applied, so that replay repeats it
+                taken.status = applyTransfer(account(taken.fromIndex), account(taken.toIndex), taken.amount,
+                        epoch);
+                if (taken.status == OK && wal != null)
+                    taken.lsn = wal.logTransfer(taken.fromIndex, taken.toIndex, taken.amount);
+                if (taken.status == OK && feed != null)
+                    feed.append(ChangeFeed.Type.TRANSFER, taken.fromIndex, taken.toIndex, taken.amount);
+                taken.wal = wal;
+                if (status != OK && taken.status == OK) {
+                    status = applyTransfer(from, to, amount, epoch);
+                    if (status == OK && wal != null)
+                        lsn = wal.logTransfer(fromIndex, toIndex, amount);
+                    if (status == OK && feed != null)
+                        feed.append(ChangeFeed.Type.TRANSFER, fromIndex, toIndex, amount);
+                }
+            }
+            long delta = 0; // change of the account with the greatest index
+            if (status == OK)
+                delta += toIndex == second ? amount : -amount;
+            if (taken != null && taken.status == OK)
+                delta += taken.toIndex == second ? taken.amount : -taken.amount;
+            if (delta != 0) {
+                rangeTotals.beginUpdate(first);
+                rangeTotals.beginUpdate(second);
+                rangeTotals.add(second, delta);
+                rangeTotals.add(first, -delta);
+                rangeTotals.endUpdate(first);
+                rangeTotals.endUpdate(second);
+            }
+        } finally {
+            unlock(second);
+            unlock(first);
+            if (taken != null) {
+                taken.done = true;
+                LockSupport.unpark(taken.thread);
+            }
+            if (metrics != null)
+                metrics.record(LockMetrics.Op.TRANSFER, 2, contended, startTime, lockTime);
+        }
+        if (lsn != 0)
+            wal.awaitDurable(lsn);
+        return status;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * <p>This implementation locks every distinct account of the batch once, in the same
+     * hierarchical order as {@link #transfer(int, int, long) transfer}, so the whole batch is
+     * applied atomically.
+     */
+    @Override
+    public int[] transferBatch(int[] fromIndices, int[] toIndices, long[] amounts) {
+        int size = fromIndices.length;
+        if (toIndices.length != size || amounts.length != size)
+            throw new IllegalArgumentException("Batch arrays have different lengths");
+        int[] indices = new int[2 * size];
+        System.arraycopy(fromIndices, 0, indices, 0, size);
+        System.arraycopy(toIndices, 0, indices, size, size);
+        int[] locked = sortedDistinct(indices);
+        LockMetrics metrics = lockMetrics;
+        long startTime = metrics == null ? 0 : System.nanoTime();
+        int contended = lockAll(locked, metrics);
+        long lockTime = metrics == null ? 0 : System.nanoTime();
+        WriteAheadLog wal = writeAheadLog;
+        long lsn = 0;
+        int[] status = new int[size];
+        try {
+            long epoch = snapshotEpoch;
+            for (int i = 0; i < size; i++) {
+                status[i] = fromIndices[i] == toIndices[i] ? INVALID_ARGUMENT :
+                        applyTransfer(account(fromIndices[i]), account(toIndices[i]), amounts[i], epoch);
+            }
+            for (int index : locked) {
+                rangeTotals.beginUpdate(index);
+            }
+            for (int i = 0; i < size; i++) {
+                if (status[i] == OK) {
+                    rangeTotals.add(fromIndices[i], -amounts[i]);
+                    rangeTotals.add(toIndices[i], amounts[i]);
+                }
+            }
+            for (int index : locked) {
+                rangeTotals.endUpdate(index);
+            }
+            if (wal != null)
+                lsn = wal.logTransfers(fromIndices, toIndices, amounts, status);
+            ChangeFeed feed = changeFeed;
+            if (feed != null)
+                publishTransfers(feed, fromIndices, toIndices, amounts, status);
         } finally {
-            if (toIndex > fromIndex) {
-                accounts[toIndex].setUnlock();
-                accounts[fromIndex].setUnlock();
+            unlockAll(locked);
+            if (metrics != null)
+                metrics.record(LockMetrics.Op.TRANSFER_BATCH, locked.length, contended, startTime, lockTime);
+        }
+        if (lsn != 0)
+            wal.awaitDurable(lsn);
+        return status;
+    }
+
+    /**
+     * Runs transaction atomically over the specified accounts.
+     * <p/>
+     * <p>All accounts are locked in the same hierarchical order as in {@link #transfer(int, int, long) transfer}
+     * before the transaction starts and are unlocked after it completes (two-phase locking),
+     * so concurrent operations on other accounts are not affected. The transaction works with a view
+     * of the bank that allows access only to the specified accounts. Its
+     * {@link Bank#getTotalAmount() getTotalAmount} includes the changes that the transaction has made so far.
+     * <p/>
+     * <p>When transaction throws an exception (for example, {@link IllegalStateException} from
+     * a failed withdrawal), all its changes are rolled back and the exception is rethrown.
+     *
+     * @param indices     indices of accounts that transaction works with, duplicates are allowed.
+     * @param transaction transaction to run.
+     * @throws IndexOutOfBoundsException when any of indices is invalid.
+     */
+    public void atomically(int[] indices, Transaction transaction) {
+        int[] locked = sortedDistinct(indices.clone());
+        LockMetrics metrics = lockMetrics;
+        long startTime = metrics == null ? 0 : System.nanoTime();
+        int contended = lockAll(locked, metrics);
+        long lockTime = metrics == null ? 0 : System.nanoTime();
+        WriteAheadLog wal = writeAheadLog;
+        long lsn = 0;
+        try {
+            long[] saved = new long[locked.length];
+            for (int i = 0; i < locked.length; i++) {
+                saved[i] = account(locked[i]).amount;
+            }
+            TransactionView view = new TransactionView(locked, saved, snapshotEpoch);
+            try {
+                transaction.run(view);
+            } catch (RuntimeException | Error e) {
+                for (int i = 0; i < locked.length; i++) {
+                    account(locked[i]).amount = saved[i];
+                }
+                throw e;
+            } finally {
+                view.completed = true;
+            }
+            long[] deltas = new long[locked.length];
+            long delta = 0;
+            for (int i = 0; i < locked.length; i++) {
+                deltas[i] = account(locked[i]).amount - saved[i];
+                delta += deltas[i];
+            }
+            for (int i = 0; i < locked.length; i++) {
+                if (deltas[i] != 0)
+                    rangeTotals.beginUpdate(locked[i]);
+            }
+            totalAmount.addAndGet(delta);
+            for (int i = 0; i < locked.length; i++) {
+                if (deltas[i] != 0)
+                    rangeTotals.add(locked[i], deltas[i]);
+            }
+            for (int i = 0; i < locked.length; i++) {
+                if (deltas[i] != 0)
+                    rangeTotals.endUpdate(locked[i]);
+            }
+            if (wal != null)
+                lsn = wal.logChanges(locked, deltas);
+            ChangeFeed feed = changeFeed;
+            if (feed != null)
+                publishChanges(feed, locked, deltas);
+        } finally {
+            unlockAll(locked);
+            if (metrics != null)
+                metrics.record(LockMetrics.Op.TRANSACTION, locked.length, contended, startTime, lockTime);
+        }
+        if (lsn != 0)
+            wal.awaitDurable(lsn);
+    }
+
+    /**
+     * Publishes successful transfers of a batch as consecutive events.
+     */
+    private static void publishTransfers(ChangeFeed feed, int[] fromIndices, int[] toIndices, long[] amounts,
+                                         int[] status) {
+        int count = 0;
+        for (int s : status) {
+            if (s == OK)
+                count++;
+        }
+        long sequence = feed.claim(count);
+        for (int i = 0; i < status.length; i++) {
+            if (status[i] == OK)
+                feed.put(sequence++, ChangeFeed.Type.TRANSFER, fromIndices[i], toIndices[i], amounts[i]);
+        }
+    }
+
+    /**
+     * Publishes non-zero changes of a transaction as consecutive deposit and withdrawal events.
+     */
+    private static void publishChanges(ChangeFeed feed, int[] indices, long[] deltas) {
+        int count = 0;
+        for (long delta : deltas) {
+            if (delta != 0)
+                count++;
+        }
+        long sequence = feed.claim(count);
+        for (int i = 0; i < indices.length; i++) {
+            if (deltas[i] > 0)
+                feed.put(sequence++, ChangeFeed.Type.DEPOSIT, indices[i], -1, deltas[i]);
+            else if (deltas[i] < 0)
+                feed.put(sequence++, ChangeFeed.Type.WITHDRAW, indices[i], -1, -deltas[i]);
+        }
+    }
+
+    /**
+     * Sorts indices and removes duplicates in place.
+     *
+     * @return prefix of the array with sorted distinct indices.
+     * @throws IndexOutOfBoundsException when any of indices is invalid.
+     */
+    private int[] sortedDistinct(int[] indices) {
+        int n = numberOfAccounts;
+        Arrays.sort(indices);
+        int distinct = 0;
+        for (int i = 0; i < indices.length; i++) {
+            if (i == 0 || indices[i] != indices[i - 1]) {
+                if (indices[i] < 0 || indices[i] >= n)
+                    throw new IndexOutOfBoundsException("Invalid account index: " + indices[i]);
+                indices[distinct++] = indices[i];
+            }
+        }
+        return Arrays.copyOf(indices, distinct);
+    }
+
+    /**
+     * Returns account by index.
+     *
+     * @throws IndexOutOfBoundsException when index is invalid account index.
+     */
+    private Account account(int index) {
+        if (index < 0 || index >= numberOfAccounts)
+            throw new IndexOutOfBoundsException("Invalid account index: " + index);
+        return accounts[Segments.segment(index)][Segments.offset(index)];
+    }
+
+    /**
+     * Locks account, recording its contention when metrics are enabled.
+     *
+     * @return 1 when the lock was contended, 0 otherwise.
+     */
+    private int lock(int index, LockMetrics metrics) {
+        if (!account(index).setLock())
+            return 0;
+        if (metrics != null)
+            metrics.recordContended(index); // the account lock is held here
+        return 1;
+    }
+
+    /**
+     * Locks accounts with sorted distinct indices.
+     *
+     * @return the number of contended locks.
+     */
+    private int lockAll(int[] indices, LockMetrics metrics) {
+        int contended = 0;
+        for (int index : indices) {
+            contended += lock(index, metrics);
+        }
+        return contended;
+    }
+
+    /**
+     * Unlocks accounts with sorted distinct indices.
+     */
+    private void unlockAll(int[] indices) {
+        for (int i = indices.length - 1; i >= 0; i--) {
+            unlock(indices[i]);
+        }
+    }
+
+    /**
+     * Unlocks account that is locked by the caller, first applying deposits and withdrawals published to it.
+     * <p/>
+     * <p>An operation published after the last check is applied by its own thread when it finds the account
+     * unlocked, or by the next holder of the lock. When such an operation is seen right after unlocking, this
+     * thread locks the account again to apply it, unless another thread has already locked it.
+     */
+    private void unlock(int index) {
+        Account account = account(index);
+        do {
+            if (account.pending != null)
+                combine(index);
+            account.setUnlock();
+        } while (account.pending != null && account.tryLock());
+    }
+
+    /**
+     * Publishes deposit or withdrawal to the locked account and waits until it is applied,
+     * applying it (with other published ones) itself when the lock becomes free first.
+     *
+     * @return resulting amount in account or negative status when operation fails.
+     */
+    private long delegate(int index, boolean deposit, long amount, LockMetrics metrics, long startTime) {
+        Account account = account(index);
+        Request request = REQUEST.get().reset(deposit, amount);
+        account.publish(request);
+        for (int spins = 0; !request.done; spins++) {
+            if (account.tryLock())
+                unlock(index); // applies the request unless it was applied before the lock was released
+            else if (spins < SPINS_BEFORE_PARK)
+                Thread.yield(); // let the holder of the lock run
+            else
+                LockSupport.parkNanos(this, PARK_NANOS); // the holder may be a reader that does not combine
+        }
+        if (metrics != null)
+            metrics.record(deposit ? LockMetrics.Op.DEPOSIT : LockMetrics.Op.WITHDRAW, 1, 1, startTime, System.nanoTime());
+        if (request.lsn != 0)
+            request.wal.awaitDurable(request.lsn);
+        return request.result;
+    }
+
+    /**
+     * Takes transfer offered between the specified accounts.
+     *
+     * @param first  the least index of the two accounts, that is where the offer is placed.
+     * @param second the greatest index of the two accounts.
+     * @return taken offer, or null when there is no offer for these accounts.
+     */
+    private Offer takeOffer(int first, int second) {
+        Account account = account(first);
+        Offer offer = account.offer;
+        if (offer == null || Math.max(offer.fromIndex, offer.toIndex) != second)
+            return null;
+        if (!Account.OFFER.compareAndSet(account, offer, null))
+            return null;
+        if (Math.max(offer.fromIndex, offer.toIndex) != second) {
+            // the offer was withdrawn and reused for other accounts after it was checked above
+            offer.rejected = true;
+            offer.done = true;
+            LockSupport.unpark(offer.thread);
+            return null;
+        }
+        return offer;
+    }
+
+    /**
+     * Offers transfer to other transfers between the same accounts and waits until it is applied
+     * or withdrawn.
+     *
+     * @param first the least index of the two accounts.
+     * @return true when the offer was taken and applied, false when it is withdrawn or rejected.
+     */
+    private boolean awaitTaken(int first, Offer offer) {
+        Account account = account(first);
+        if (!Account.OFFER.compareAndSet(account, null, offer))
+            return false; // another transfer is offered here
+        for (int spins = 0; spins < SPINS_BEFORE_PARK; spins++) {
+            if (account.offer != offer)
+                break;
+            Thread.yield();
+        }
+        if (Account.OFFER.compareAndSet(account, offer, null))
+            return false;
+        while (!offer.done) // taken, the taker is applying it
+            LockSupport.parkNanos(this, PARK_NANOS);
+        return !offer.rejected;
+    }
+
+    /**
+     * Applies all deposits and withdrawals published to the account that is locked by the caller
+     * and wakes up their threads.
+     */
+    private void combine(int index) {
+        Account account = account(index);
+        Request first = account.takePublished();
+        LockMetrics metrics = lockMetrics;
+        WriteAheadLog wal = writeAheadLog;
+        ChangeFeed feed = changeFeed;
+        long epoch = snapshotEpoch;
+        long delta = 0;
+        for (Request request = first; request != null; request = request.next) {
+            if (request.deposit) {
+                request.result = applyDeposit(account, request.amount, epoch);
+                if (request.result >= 0) {
+                    delta += request.amount;
+                    if (wal != null)
+                        request.lsn = wal.logDeposit(index, request.amount);
+                    if (feed != null)
+                        feed.append(ChangeFeed.Type.DEPOSIT, index, -1, request.amount);
+                }
             } else {
-                accounts[fromIndex].setUnlock();
-                accounts[toIndex].setUnlock();
+                request.result = applyWithdraw(account, request.amount, epoch);
+                if (request.result >= 0) {
+                    delta -= request.amount;
+                    if (wal != null)
+                        request.lsn = wal.logWithdraw(index, request.amount);
+                    if (feed != null)
+                        feed.append(ChangeFeed.Type.WITHDRAW, index, -1, request.amount);
+                }
+            }
+            request.wal = wal;
+            if (metrics != null)
+                metrics.recordContended(index);
+        }
+        if (delta != 0)
+            addToTotals(index, delta); // before any of the operations completes
+        Request request = first;
+        while (request != null) {
+            Request next = request.next; // read before the thread is released
+            Thread thread = request.thread;
+            request.done = true;
+            LockSupport.unpark(thread);
+            request = next;
+        }
+    }
+
+    /**
+     * Adds change of the account that is locked by the caller to the running total and to the range totals.
+     */
+    private void addToTotals(int index, long delta) {
+        rangeTotals.beginUpdate(index);
+        totalAmount.addAndGet(delta);
+        rangeTotals.add(index, delta);
+        rangeTotals.endUpdate(index);
+    }
+
+    /**
+     * Prepares account that is locked by the caller for modification stamped with the snapshot epoch.
+     * On the first modification after a snapshot was taken, the current amount is kept for open snapshots
+     * that may read it, and older amounts that no open snapshot reads are dropped.
+     */
+    private void beforeModify(Account account, long epoch) {
+        if (account.epoch == epoch)
+            return;
+        long oldest = oldestSnapshot;
+        Version history = null;
+        if (oldest < epoch) {
+            history = new Version(account.epoch, account.amount, account.history);
+            for (Version version = history; version != null; version = version.next) {
+                if (version.epoch <= oldest) {
+                    version.next = null; // the oldest snapshot reads this or a newer version
+                    break;
+                }
+            }
+        }
+        account.history = history;
+        account.epoch = epoch;
+    }
+
+    /**
+     * Deposits amount to account that is locked by the caller.
+     *
+     * @return resulting amount in account or negative status when deposit fails.
+     */
+    private long applyDeposit(Account account, long amount, long epoch) {
+        if (amount <= 0)
+            return INVALID_ARGUMENT;
+        if (amount > MAX_AMOUNT || account.amount + amount > MAX_AMOUNT)
+            return OVERFLOW;
+        beforeModify(account, epoch);
+        account.amount += amount;
+        return account.amount;
+    }
+
+    /**
+     * Withdraws amount from account that is locked by the caller.
+     *
+     * @return resulting amount in account or negative status when withdrawal fails.
+     */
+    private long applyWithdraw(Account account, long amount, long epoch) {
+        if (amount <= 0)
+            return INVALID_ARGUMENT;
+        if (account.amount - amount < 0)
+            return UNDERFLOW;
+        beforeModify(account, epoch);
+        account.amount -= amount;
+        return account.amount;
+    }
+
+    /**
+     * Transfers amount between two different accounts that are both locked by the caller.
+     *
+     * @return status of the transfer.
+     */
+    private int applyTransfer(Account from, Account to, long amount, long epoch) {
+        if (amount <= 0)
+            return INVALID_ARGUMENT;
+        if (amount > from.amount)
+            return UNDERFLOW;
+        if (amount > MAX_AMOUNT || to.amount + amount > MAX_AMOUNT)
+            return OVERFLOW;
+        beforeModify(from, epoch);
+        beforeModify(to, epoch);
+        from.amount -= amount;
+        to.amount += amount;
+        return OK;
+    }
+
+    /**
+     * Converts negative status of an operation to the corresponding exception.
+     *
+     * @return result when it is not a negative status.
+     */
+    static long checkStatus(long result, long amount) {
+        if (result >= 0)
+            return result;
+        if (result == INVALID_ARGUMENT)
+            throw new IllegalArgumentException("Invalid amount: " + amount);
+        if (result == UNDERFLOW)
+            throw new IllegalStateException("Underflow");
+        throw new IllegalStateException("Overflow");
+    }
+
+    /**
+     * Read-only point-in-time view of all accounts, see {@link #snapshot()}.
+     */
+    public final class Snapshot implements AutoCloseable {
+        private final long epoch;
+        private final int numberOfAccounts;
+        private volatile boolean closed;
+
+        private Snapshot(long epoch, int numberOfAccounts) {
+            this.epoch = epoch;
+            this.numberOfAccounts = numberOfAccounts;
+        }
+
+        /**
+         * Returns number of accounts at the time of the snapshot.
+         */
+        public int getNumberOfAccounts() {
+            return numberOfAccounts;
+        }
+
+        /**
+         * Returns amount in the specified account at the time of the snapshot.
+         *
+         * @throws IndexOutOfBoundsException when index is invalid account index.
+         * @throws IllegalStateException     when snapshot is closed.
+         */
+        public long getAmount(int index) {
+            if (index < 0 || index >= numberOfAccounts)
+                throw new IndexOutOfBoundsException("Invalid account index: " + index);
+            Account account = account(index);
+            if (closed)
+                throw new IllegalStateException("Snapshot is closed");
+            return account.getAmount(epoch);
+        }
+
+        /**
+         * Returns total amount of all accounts at the time of the snapshot. It reads every account.
+         *
+         * @throws IllegalStateException when snapshot is closed.
+         */
+        public long getTotalAmount() {
+            return amounts().sum();
+        }
+
+        /**
+         * Returns amounts of all accounts at the time of the snapshot in the order of their indices.
+         * The stream reads accounts lazily, and fails with {@link IllegalStateException} when
+         * the snapshot is closed before it completes.
+         */
+        public LongStream amounts() {
+            return IntStream.range(0, numberOfAccounts).mapToLong(this::getAmount);
+        }
+
+        /**
+         * Closes snapshot, so that amounts it reads are no longer kept.
+         */
+        @Override
+        public void close() {
+            synchronized (openSnapshots) {
+                if (closed)
+                    return;
+                closed = true;
+                openSnapshots.remove(epoch);
+                oldestSnapshot = openSnapshots.isEmpty() ? Long.MAX_VALUE : openSnapshots.first();
+            }
+        }
+    }
+
+    /**
+     * View of the bank for a transaction. It works directly with accounts that are locked for the
+     * transaction and the running total is adjusted only when the transaction commits.
+     */
+    private class TransactionView implements Bank {
+        /**
+         * Sorted distinct indices of accounts that are locked for the transaction.
+         */
+        private final int[] locked;
+        /**
+         * Amounts of the locked accounts before the transaction.
+         */
+        private final long[] saved;
+        /**
+         * Snapshot epoch of all modifications of the transaction.
+         */
+        private final long epoch;
+        private boolean completed;
+
+        TransactionView(int[] locked, long[] saved, long epoch) {
+            this.locked = locked;
+            this.saved = saved;
+            this.epoch = epoch;
+        }
+
+        @Override
+        public int getNumberOfAccounts() {
+            return numberOfAccounts;
+        }
+
+        @Override
+        public long getAmount(int index) {
+            return account(index).amount;
+        }
+
+        /**
+         * Returns total amount of the bank with the changes that the transaction has made so far,
+         * which are added to the running total only when the transaction completes.
+         */
+        @Override
+        public long getTotalAmount() {
+            long total = totalAmount.get();
+            for (int i = 0; i < locked.length; i++) {
+                total += account(locked[i]).amount - saved[i];
             }
+            return total;
+        }
+
+        @Override
+        public long deposit(int index, long amount) {
+            return checkStatus(applyDeposit(account(index), amount, epoch), amount);
+        }
+
+        @Override
+        public long withdraw(int index, long amount) {
+            return checkStatus(applyWithdraw(account(index), amount, epoch), amount);
+        }
+
+        @Override
+        public void transfer(int fromIndex, int toIndex, long amount) {
+            if (fromIndex == toIndex)
+                throw new IllegalArgumentException("fromIndex == toIndex");
+            checkStatus(applyTransfer(account(fromIndex), account(toIndex), amount, epoch), amount);
+        }
+
+        @Override
+        public long tryDeposit(int index, long amount) {
+            return applyDeposit(account(index), amount, epoch);
+        }
+
+        @Override
+        public long tryWithdraw(int index, long amount) {
+            return applyWithdraw(account(index), amount, epoch);
+        }
+
+        @Override
+        public int tryTransfer(int fromIndex, int toIndex, long amount) {
+            Account from = account(fromIndex);
+            Account to = account(toIndex);
+            return fromIndex == toIndex ? INVALID_ARGUMENT : applyTransfer(from, to, amount, epoch);
+        }
+
+        @Override
+        public int[] transferBatch(int[] fromIndices, int[] toIndices, long[] amounts) {
+            int size = fromIndices.length;
+            if (toIndices.length != size || amounts.length != size)
+                throw new IllegalArgumentException("Batch arrays have different lengths");
+            for (int i = 0; i < size; i++) {
+                account(fromIndices[i]);
+                account(toIndices[i]);
+            }
+            int[] status = new int[size];
+            for (int i = 0; i < size; i++) {
+                status[i] = fromIndices[i] == toIndices[i] ? INVALID_ARGUMENT :
+                        applyTransfer(BankImpl.this.account(fromIndices[i]), BankImpl.this.account(toIndices[i]),
+                                amounts[i], epoch);
+            }
+            return status;
+        }
+
+        private Account account(int index) {
+            if (completed)
+                throw new IllegalStateException("Transaction is completed");
+            if (Arrays.binarySearch(locked, index) < 0)
+                throw new IllegalArgumentException("Account " + index + " is not locked by transaction");
+            return BankImpl.this.account(index);
+        }
+    }
+
+    /**
+     * Deposit or withdrawal published to a locked account, see {@link #delegate}.
+     */
+    private static final class Request {
+        final Thread thread = Thread.currentThread();
+        boolean deposit;
+        long amount;
+        /**
+         * Next published request, in the order of publication once they are taken by the combiner.
+         */
+        Request next;
+        long result;
+        /**
+         * LSN of the logged operation, or 0 when it is not logged.
+         */
+        long lsn;
+        WriteAheadLog wal;
+        /**
+         * Set by the combiner after the fields above, which makes them visible to the waiting thread.
+         */
+        volatile boolean done;
+
+        /**
+         * Prepares this request of the current thread for the next operation before it is published.
+         */
+        Request reset(boolean deposit, long amount) {
+            this.deposit = deposit;
+            this.amount = amount;
+            next = null;
+            result = 0;
+            lsn = 0;
+            wal = null;
+            done = false;
+            return this;
+        }
+    }
+
+    /**
+     * Transfer offered to other transfers between the same accounts, see {@link #tryTransfer(int, int, long)}.
+     */
+    private static final class Offer {
+        final Thread thread = Thread.currentThread();
+        int fromIndex;
+        int toIndex;
+        long amount;
+        int status;
+        /**
+         * Set when the offer was taken for other accounts than it is offered for now, and is not applied.
+         */
+        boolean rejected;
+        /**
+         * LSN of the logged transfer, or 0 when it is not logged.
+         */
+        long lsn;
+        WriteAheadLog wal;
+        /**
+         * Set by the taker after the fields above, which makes them visible to the waiting thread.
+         */
+        volatile boolean done;
+
+        /**
+         * Prepares this offer of the current thread for the next transfer before it is offered.
+         */
+        Offer reset(int fromIndex, int toIndex, long amount) {
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+            this.amount = amount;
+            status = 0;
+            rejected = false;
+            lsn = 0;
+            wal = null;
+            done = false;
+            return this;
         }
+    }
+
+    /**
+     * Amount of account before modifications in later snapshot epochs.
+     */
+    private static final class Version {
+        final long epoch;
+        final long amount;
+        /**
+         * Older version. It is cut off by writers when no open snapshot reads it.
+         */
+        Version next;
 
+        Version(long epoch, long amount, Version next) {
+            this.epoch = epoch;
+            this.amount = amount;
+            this.next = next;
+        }
     }
 
     /**
      * Private account data structure.
      */
     private static class Account {
+        private static final AtomicReferenceFieldUpdater<Account, Request> PENDING =
+                AtomicReferenceFieldUpdater.newUpdater(Account.class, Request.class, "pending");
+        private static final AtomicReferenceFieldUpdater<Account, Offer> OFFER =
+                AtomicReferenceFieldUpdater.newUpdater(Account.class, Offer.class, "offer");
+
+        /**
+         * Lock of this account. Modifications take it exclusively, while reads of the amount
+         * are optimistic and fall back to a shared read lock only when a writer interferes.
+         */
+        final StampedLock lock = new StampedLock();
+        /**
+         * Write stamp of the lock, written by the thread that holds it.
+         */
+        long stamp;
         /**
          * Amount of funds in this account.
          */
-        Lock lock = new ReentrantLock();
         long amount;
+        /**
+         * Snapshot epoch of the last modification of the amount.
+         */
+        long epoch;
+        /**
+         * Amounts before the modifications in the later epochs that open snapshots may read, the latest first,
+         * or null when there are none.
+         */
+        Version history;
+        /**
+         * Stack of deposits and withdrawals published to this account while it is locked.
+         */
+        volatile Request pending;
+        /**
+         * Transfer between this account and an account with a greater index that waits to be taken
+         * by another transfer between them.
+         */
+        volatile Offer offer;
 
-        public void setLock() {
-            lock.lock();
+        /**
+         * Locks this account.
+         *
+         * @return true when the lock was held by another thread and this one had to wait for it.
+         */
+        public boolean setLock() {
+            long stamp = lock.tryWriteLock();
+            boolean waited = stamp == 0;
+            if (waited)
+                stamp = lock.writeLock();
+            this.stamp = stamp;
+            return waited;
         }
 
+        /**
+         * Unlocks this account.
+         *
+         * @throws IllegalMonitorStateException when the lock is not held with the kept stamp.
+         */
         public void setUnlock() {
-            lock.unlock();
+            lock.unlockWrite(stamp);
+        }
+
+        /**
+         * Locks this account unless it is locked already.
+         *
+         * @return true when the lock was acquired.
+         */
+        public boolean tryLock() {
+            long stamp = lock.tryWriteLock();
+            if (stamp == 0)
+                return false;
+            this.stamp = stamp;
+            return true;
+        }
+
+        public void publish(Request request) {
+            Request head;
+            do {
+                head = pending;
+                request.next = head;
+            } while (!PENDING.compareAndSet(this, head, request));
+        }
+
+        /**
+         * Removes all published requests.
+         *
+         * @return the first of them in the order of publication, or null when there are none.
+         */
+        public Request takePublished() {
+            Request request = PENDING.getAndSet(this, null);
+            Request reversed = null;
+            while (request != null) {
+                Request next = request.next;
+                request.next = reversed;
+                reversed = request;
+                request = next;
+            }
+            return reversed;
+        }
+
+        /**
+         * Reads amount as it was in the snapshot epoch. Like {@link #getAmount()}, it reads optimistically,
+         * but retries a few times before it falls back to the read lock, so that snapshot reads delay writers
+         * of the account only when it keeps being modified, and then for one read at most.
+         *
+         * @throws IllegalStateException when the snapshot of the epoch is closed.
+         */
+        public long getAmount(long snapshotEpoch) {
+            long result;
+            long epoch;
+            Version version;
+            int attempt = 0;
+            while (true) {
+                long stamp = lock.tryOptimisticRead();
+                result = amount;
+                epoch = this.epoch;
+                version = history;
+                if (lock.validate(stamp))
+                    break;
+                if (++attempt == OPTIMISTIC_READS) {
+                    stamp = lock.readLock();
+                    try {
+                        result = amount;
+                        epoch = this.epoch;
+                        version = history;
+                    } finally {
+                        lock.unlockRead(stamp);
+                    }
+                    break;
+                }
+                Thread.onSpinWait(); // the lock is held by a writer or has just been
+            }
+            if (epoch <= snapshotEpoch)
+                return result;
+            while (version != null && version.epoch > snapshotEpoch) {
+                version = version.next;
+            }
+            if (version == null) // dropped by writers, because the snapshot was closed concurrently
+                throw new IllegalStateException("Snapshot is closed");
+            return version.amount;
+        }
+
+        /**
+         * Reads amount without blocking when no writer holds the lock.
+         * The stamp validation guarantees that the returned amount was not modified
+         * (nor torn) concurrently, so the read is linearizable.
+         */
+        public long getAmount() {
+            long stamp = lock.tryOptimisticRead();
+            long result = amount;
+            if (lock.validate(stamp))
+                return result;
+            stamp = lock.readLock();
+            try {
+                return amount;
+            } finally {
+                lock.unlockRead(stamp);
+            }
         }
     }
 }
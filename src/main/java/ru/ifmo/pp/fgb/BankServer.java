@@ -0,0 +1,356 @@
+package ru.ifmo.pp.fgb;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * TCP server that exposes operations of a bank over a compact binary protocol, see {@link BankClient}.
+ * <p/>
+ * <p>A request is a fixed-size record like in {@link WriteAheadLog}: an operation byte, two account indices
+ * and an amount. A response is a single long: the result of the operation, or a negative status
+ * ({@link Bank#INVALID_ARGUMENT}, {@link Bank#UNDERFLOW}, {@link Bank#OVERFLOW}, {@link Bank#INVALID_INDEX},
+ * {@link #FAILURE}). Clients may pipeline requests, that is send many of them without waiting for responses.
+ * Responses come in the order of requests.
+ * <p/>
+ * <p>All connections are served by one thread with a selector. Every complete request it has read is executed
+ * and all their responses are sent with one write, so a pipelining client gets many responses per system call.
+ * While responses cannot be written, requests of the connection are not read. Every connection has a pair of
+ * direct buffers that are reused by the next connections when it is closed.
+ * <p/>
+ * <p>Without an executor, requests are executed by the selector thread itself. This has the least latency
+ * for a bank whose operations are short, but it serializes all operations of the bank, and an operation
+ * that blocks (such as one that waits for a {@link WriteAheadLog} sync) stalls all connections. With an
+ * executor, the requests that the selector thread has read from a connection are executed by a task
+ * of the executor, while the selector thread serves other connections, and the responses are written
+ * when the task completes. Requests of one connection are still executed one by one, in their order.
+ *
+ * @author Markina Margarita
+ */
+public class BankServer implements Closeable {
+    static final int REQUEST_SIZE = 17;
+    static final int RESPONSE_SIZE = 8;
+
+    static final byte GET_NUMBER_OF_ACCOUNTS = 1;
+    static final byte GET_AMOUNT = 2;
+    static final byte GET_TOTAL_AMOUNT = 3;
+    static final byte DEPOSIT = 4;
+    static final byte WITHDRAW = 5;
+    static final byte TRANSFER = 6;
+
+    /**
+     * Status of an operation that failed on the server with an unexpected exception, which is logged.
+     * The connection stays open.
+     */
+    public static final int FAILURE = -5;
+
+    private static final Logger LOG = Logger.getLogger(BankServer.class.getName());
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Bank bank;
+    private final Executor executor;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final Thread thread;
+
+    /**
+     * Free direct buffers. They are used only by the server thread.
+     */
+    private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<>();
+
+    /**
+     * Connections whose requests have been executed by the executor, and whose responses are to be written
+     * by the server thread.
+     */
+    private final Queue<SelectionKey> executed = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean closed;
+
+    /**
+     * Starts server that executes requests by its selector thread.
+     *
+     * @param bank    bank to serve.
+     * @param address address to listen on, port 0 to choose a free one.
+     * @throws IOException when server socket cannot be opened.
+     */
+    public BankServer(Bank bank, InetSocketAddress address) throws IOException {
+        this(bank, address, null);
+    }
+
+    /**
+     * Starts server.
+     *
+     * @param bank     bank to serve.
+     * @param address  address to listen on, port 0 to choose a free one.
+     * @param executor executor of requests, or null to execute them by the selector thread.
+     *                 It is not shut down when the server is closed.
+     * @throws IOException when server socket cannot be opened.
+     */
+    public BankServer(Bank bank, InetSocketAddress address, Executor executor) throws IOException {
+        this.bank = bank;
+        this.executor = executor;
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        thread = new Thread(this::run, "BankServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Runs server for a new {@link BankImpl} until the process is terminated.
+     * Requests are executed by a pool with a thread per processor.
+     *
+     * @param args port and the number of accounts.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 2) {
+            System.err.println("Usage: BankServer <port> <accounts>");
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        BankServer server = new BankServer(new BankImpl(Integer.parseInt(args[1])),
+                new InetSocketAddress(Integer.parseInt(args[0])), executor);
+        System.out.println("Listening on " + server.getAddress());
+        server.thread.join();
+    }
+
+    /**
+     * Returns the address this server listens on.
+     */
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    /**
+     * Stops server and closes all its connections.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isAcceptable())
+                        accept();
+                    else
+                        serve(key);
+                }
+                SelectionKey key;
+                while ((key = executed.poll()) != null) {
+                    if (key.isValid())
+                        respond(key);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.SEVERE, "Server has failed", e); // the selector or the server socket has failed
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(selector);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null)
+            return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.register(selector, SelectionKey.OP_READ, new Connection(takeBuffer(), takeBuffer()));
+    }
+
+    /**
+     * Reads requests from the connection, then executes them and writes responses.
+     */
+    private void serve(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (key.isReadable() && channel.read(connection.in) < 0) {
+                close(key);
+                return;
+            }
+        } catch (IOException e) {
+            close(key); // broken connection
+            return;
+        }
+        respond(key);
+    }
+
+    /**
+     * Writes responses of the connection and executes its requests that are read, until there are no more
+     * requests to execute, or until responses cannot be written, or until requests are handed to the executor.
+     * Closes the connection when it fails or sends an unknown operation.
+     */
+    private void respond(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer out = connection.out;
+        try {
+            while (true) {
+                if (connection.broken) {
+                    close(key);
+                    return;
+                }
+                if (out.position() > 0) {
+                    out.flip();
+                    channel.write(out);
+                    boolean writtenAll = !out.hasRemaining();
+                    out.compact();
+                    if (!writtenAll) {
+                        key.interestOps(SelectionKey.OP_WRITE); // stop reading until responses are written
+                        return;
+                    }
+                }
+                if (connection.in.position() < REQUEST_SIZE) {
+                    key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+                if (executor == null) {
+                    execute(connection);
+                } else {
+                    key.interestOps(0); // the buffers belong to the task until it completes
+                    executor.execute(() -> {
+                        try {
+                            execute(connection);
+                        } finally {
+                            executed.add(key);
+                            selector.wakeup();
+                        }
+                    });
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            close(key); // broken connection
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Connection is closed after failure", e); // for example, rejected by executor
+            close(key);
+        }
+    }
+
+    /**
+     * Executes requests that are read from the connection while their responses fit in its buffer.
+     * Marks the connection broken when a request has an unknown operation.
+     */
+    private void execute(Connection connection) {
+        ByteBuffer in = connection.in;
+        ByteBuffer out = connection.out;
+        in.flip();
+        try {
+            while (in.remaining() >= REQUEST_SIZE && out.remaining() >= RESPONSE_SIZE) {
+                out.putLong(execute(in.get(), in.getInt(), in.getInt(), in.getLong()));
+            }
+        } catch (IllegalArgumentException e) {
+            connection.broken = true;
+        } finally {
+            in.compact();
+        }
+    }
+
+    /**
+     * Executes request. Unexpected exceptions of the bank are logged and reported with {@link #FAILURE}.
+     *
+     * @return response.
+     * @throws IllegalArgumentException when operation is unknown.
+     */
+    private long execute(byte operation, int index, int other, long amount) {
+        if (operation < GET_NUMBER_OF_ACCOUNTS || operation > TRANSFER)
+            throw new IllegalArgumentException("Unknown operation: " + operation);
+        try {
+            switch (operation) {
+                case GET_NUMBER_OF_ACCOUNTS:
+                    return bank.getNumberOfAccounts();
+                case GET_AMOUNT:
+                    return bank.getAmount(index);
+                case GET_TOTAL_AMOUNT:
+                    return bank.getTotalAmount();
+                case DEPOSIT:
+                    return bank.tryDeposit(index, amount);
+                case WITHDRAW:
+                    return bank.tryWithdraw(index, amount);
+                case TRANSFER:
+                    return bank.tryTransfer(index, other, amount);
+                default:
+                    throw new AssertionError();
+            }
+        } catch (IndexOutOfBoundsException e) {
+            return Bank.INVALID_INDEX;
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Operation " + operation + " has failed", e);
+            return FAILURE;
+        }
+    }
+
+    private void close(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        closeQuietly(key.channel());
+        connection.in.clear();
+        connection.out.clear();
+        buffers.push(connection.in);
+        buffers.push(connection.out);
+    }
+
+    private ByteBuffer takeBuffer() {
+        ByteBuffer buffer = buffers.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+    /**
+     * Buffers of a connection: requests that are read but not yet executed
+     * and responses that are not yet written.
+     */
+    private static final class Connection {
+        final ByteBuffer in;
+        final ByteBuffer out;
+        /**
+         * Whether the connection has sent an unknown operation and is to be closed.
+         */
+        boolean broken;
+
+        Connection(ByteBuffer in, ByteBuffer out) {
+            this.in = in;
+            this.out = out;
+        }
+    }
+}
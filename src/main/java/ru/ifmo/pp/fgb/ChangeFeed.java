@@ -0,0 +1,304 @@
+package ru.ifmo.pp.fgb;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Feed of successful bank operations for consumers outside of the bank, see {@link BankImpl#setChangeFeed(ChangeFeed)}.
+ * <p/>
+ * <p>The feed is a ring buffer of events with a fixed capacity that is preallocated, so publishing and consuming
+ * events never allocate. An operation claims sequence numbers of its events while it holds the locks of its
+ * accounts, so the order of sequence numbers is the order of linearization. Every consumer reads events
+ * at its own pace, from the event that follows its subscription, and events are never removed by consumers.
+ * What happens when producers lap the slowest consumer is defined by {@link OverrunPolicy}.
+ * <p/>
+ * <p>A slot of the ring keeps the sequence number of its event with the fields of the event. A producer waits
+ * until the previous event of the slot is published, marks the slot as being written, writes the fields and then
+ * the sequence number. A consumer reads the sequence number before and after the fields, like a sequence lock,
+ * so it never delivers a torn event.
+ *
+ * @author Markina Margarita
+ */
+public class ChangeFeed {
+    /**
+     * Type of event.
+     */
+    public enum Type {
+        /**
+         * Deposit of the amount to account index1.
+         */
+        DEPOSIT,
+        /**
+         * Withdrawal of the amount from account index1.
+         */
+        WITHDRAW,
+        /**
+         * Transfer of the amount from account index1 to account index2.
+         */
+        TRANSFER
+    }
+
+    /**
+     * Defines what happens when a producer would overwrite an event that a consumer has not read yet.
+     */
+    public enum OverrunPolicy {
+        /**
+         * The producer waits until all consumers read the event (backpressure). Operations are delayed
+         * by the slowest consumer while they hold the locks of their accounts, so consumers must not wait
+         * for bank operations themselves.
+         */
+        BLOCK,
+        /**
+         * The producer overwrites the event, and a consumer that has not read it skips to the oldest event
+         * in the ring and counts the skipped ones as {@link Consumer#getLost() lost}. Operations are never delayed.
+         */
+        OVERWRITE
+    }
+
+    /**
+     * Handler of events, see {@link Consumer#poll(Handler, int)}.
+     */
+    @FunctionalInterface
+    public interface Handler {
+        /**
+         * Handles event.
+         *
+         * @param sequence sequence number of the event.
+         * @param type     type of the event.
+         * @param index1   the account of a deposit or withdrawal, or the source account of a transfer.
+         * @param index2   the target account of a transfer, or -1.
+         * @param amount   amount.
+         */
+        void onEvent(long sequence, Type type, int index1, int index2, long amount);
+    }
+
+    private static final Type[] TYPES = Type.values();
+
+    /**
+     * Longs per slot, one cache line: sequence number, type, both indices and amount.
+     */
+    private static final int STRIDE = 8;
+
+    /**
+     * Sequence number of a slot while its event is written.
+     */
+    private static final long WRITING = Long.MIN_VALUE;
+
+    private final int capacity;
+    private final OverrunPolicy policy;
+    private final AtomicLongArray slots;
+
+    /**
+     * Sequence number of the next event to claim.
+     */
+    private final AtomicLong claimed = new AtomicLong();
+
+    /**
+     * Consumers, copied on write under the lock of this feed.
+     */
+    private volatile Consumer[] consumers = new Consumer[0];
+
+    /**
+     * For {@link OverrunPolicy#BLOCK}, the least sequence number that consumers have not read as was last computed,
+     * or {@link Long#MAX_VALUE} when there are no consumers. Consumers read further, so a producer waits only
+     * when its event would overwrite the one at the gate, and it recomputes the gate then. It is written only
+     * under the lock of this feed.
+     */
+    private volatile long gate = Long.MAX_VALUE;
+
+    /**
+     * Creates feed.
+     *
+     * @param capacity the number of events in the ring, a power of two.
+     * @param policy   overrun policy.
+     */
+    public ChangeFeed(int capacity, OverrunPolicy policy) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0)
+            throw new IllegalArgumentException("Capacity is not a power of two: " + capacity);
+        this.capacity = capacity;
+        this.policy = policy;
+        slots = new AtomicLongArray(capacity * STRIDE);
+        for (int i = 0; i < capacity; i++) {
+            slots.set(i * STRIDE, i - capacity); // as if the previous lap was published
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public OverrunPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Returns sequence number of the next event, that is the number of events claimed so far.
+     */
+    public long getSequence() {
+        return claimed.get();
+    }
+
+    /**
+     * Subscribes new consumer to the events that are claimed after this call.
+     *
+     * @return consumer.
+     */
+    public synchronized Consumer subscribe() {
+        gate = Long.MIN_VALUE; // producers recompute the gate under this lock, after the consumer is added
+        Consumer consumer = new Consumer(claimed.get());
+        Consumer[] next = Arrays.copyOf(consumers, consumers.length + 1);
+        next[next.length - 1] = consumer;
+        consumers = next;
+        gate = computeGate();
+        return consumer;
+    }
+
+    /**
+     * Claims sequence numbers for the events of one operation, so that they follow each other.
+     * It must be called while the locks of all accounts of the operation are held.
+     *
+     * @param count the number of events.
+     * @return sequence number of the first event.
+     */
+    long claim(int count) {
+        return claimed.getAndAdd(count);
+    }
+
+    /**
+     * Claims sequence number and publishes event for an operation that is one event, see {@link #put}.
+     */
+    void append(Type type, int index1, int index2, long amount) {
+        put(claimed.getAndIncrement(), type, index1, index2, amount);
+    }
+
+    /**
+     * Publishes event with the claimed sequence number, waiting for consumers according to the policy.
+     */
+    void put(long sequence, Type type, int index1, int index2, long amount) {
+        if (policy == OverrunPolicy.BLOCK) {
+            while (sequence - capacity >= gate) {
+                if (sequence - capacity >= updateGate())
+                    Thread.yield(); // let consumers run
+            }
+        }
+        int slot = (int) (sequence & (capacity - 1)) * STRIDE;
+        while (slots.get(slot) != sequence - capacity) {
+            Thread.yield(); // the producer of the previous lap is still writing, that is rare
+        }
+        slots.setRelease(slot, WRITING);
+        slots.setRelease(slot + 1, type.ordinal());
+        slots.setRelease(slot + 2, ((long) index1 << 32) | (index2 & 0xffffffffL));
+        slots.setRelease(slot + 3, amount);
+        slots.setRelease(slot, sequence);
+    }
+
+    private synchronized long updateGate() {
+        return gate = computeGate();
+    }
+
+    private long computeGate() {
+        long min = Long.MAX_VALUE;
+        for (Consumer consumer : consumers) {
+            min = Math.min(min, consumer.cursor);
+        }
+        return min;
+    }
+
+    private synchronized void unsubscribe(Consumer consumer) {
+        Consumer[] current = consumers;
+        Consumer[] next = new Consumer[current.length - 1];
+        for (int i = 0, j = 0; i < current.length; i++) {
+            if (current[i] != consumer)
+                next[j++] = current[i];
+        }
+        consumers = next;
+        gate = computeGate();
+    }
+
+    /**
+     * Consumer of events. It must be used by one thread at a time.
+     */
+    public final class Consumer implements AutoCloseable {
+        /**
+         * Sequence number of the next event to read. Producers read it to gate on this consumer.
+         */
+        private volatile long cursor;
+        private long lost;
+        private boolean closed;
+
+        private Consumer(long cursor) {
+            this.cursor = cursor;
+        }
+
+        /**
+         * Returns sequence number of the next event to read.
+         */
+        public long getSequence() {
+            return cursor;
+        }
+
+        /**
+         * Returns the number of events that were overwritten before this consumer read them.
+         */
+        public long getLost() {
+            return lost;
+        }
+
+        /**
+         * Handles published events in the order of their sequence numbers, without waiting for more.
+         * Producers see the events as read when the poll returns.
+         *
+         * @param handler   handler of events.
+         * @param maxEvents the maximal number of events to handle.
+         * @return the number of handled events.
+         * @throws IllegalStateException when consumer is closed; whatever the handler throws is rethrown,
+         *                               and the event is handled again by the next poll.
+         */
+        public int poll(Handler handler, int maxEvents) {
+            if (closed)
+                throw new IllegalStateException("Consumer is closed");
+            long sequence = cursor;
+            int count = 0;
+            try {
+                while (count < maxEvents) {
+                    int slot = (int) (sequence & (capacity - 1)) * STRIDE;
+                    long published = slots.getAcquire(slot);
+                    if (published == sequence) {
+                        int type = (int) slots.getAcquire(slot + 1);
+                        long indices = slots.getAcquire(slot + 2);
+                        long amount = slots.getAcquire(slot + 3);
+                        if (slots.getAcquire(slot) == sequence) {
+                            handler.onEvent(sequence, TYPES[type], (int) (indices >> 32), (int) indices, amount);
+                            sequence++;
+                            count++;
+                            continue;
+                        }
+                    } else if (published < sequence) {
+                        break; // not published yet, or overwritten and being written again
+                    }
+                    // overwritten, skip to the oldest event that may still be in the ring
+                    long oldest = claimed.get() - capacity;
+                    if (oldest <= sequence)
+                        break;
+                    lost += oldest - sequence;
+                    sequence = oldest;
+                }
+            } finally {
+                cursor = sequence;
+            }
+            return count;
+        }
+
+        /**
+         * Unsubscribes this consumer, so that producers no longer wait for it.
+         */
+        @Override
+        public void close() {
+            if (closed)
+                return;
+            closed = true;
+            unsubscribe(this);
+        }
+    }
+}
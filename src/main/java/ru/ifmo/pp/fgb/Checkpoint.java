@@ -0,0 +1,185 @@
+package ru.ifmo.pp.fgb;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Memory-mapped checkpoint file of account amounts, see {@link BankImpl#checkpoint(Path)}.
+ * <p/>
+ * <p>The file starts with a header (magic number, number of accounts and block size), followed by
+ * the LSN of every block of {@link #BLOCK_SIZE} accounts and then by the amounts of all accounts.
+ * The LSN of a block is the length of the write-ahead log at the moment the block was copied, so a log record
+ * is reflected in the checkpoint for an account exactly when its LSN does not exceed the LSN of the account's block.
+ * <p/>
+ * <p>A new checkpoint is written to a temporary file next to the target and is moved over the target only
+ * when it is complete, so a crash never leaves a partially written checkpoint in place of the old one.
+ *
+ * @author Markina Margarita
+ */
+final class Checkpoint implements Closeable {
+    static final int BLOCK_SIZE = 4096;
+
+    private static final long MAGIC = 0x31746b6863626746L; // "Fgbchkt1" in little-endian
+    private static final int HEADER_SIZE = 16;
+    private static final int SEGMENT_SIZE = 1 << 27; // accounts per mapping, 1 GiB of amounts
+
+    private final FileChannel channel;
+    private final int n;
+    private final MappedByteBuffer header;
+    private final LongBuffer lsns;
+    private final MappedByteBuffer[] segments;
+    private final LongBuffer[] amounts;
+
+    /**
+     * Target file of the checkpoint being written, or null when checkpoint is opened for reading.
+     */
+    private final Path target;
+    private final Path temporary;
+    private boolean committed;
+
+    private Checkpoint(FileChannel channel, int n, Path target, Path temporary) throws IOException {
+        this.channel = channel;
+        this.n = n;
+        this.target = target;
+        this.temporary = temporary;
+        FileChannel.MapMode mode = target == null ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+        int blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        long amountsOffset = HEADER_SIZE + (long) blocks * 8;
+        header = channel.map(mode, 0, amountsOffset);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        lsns = ((ByteBuffer) header.duplicate().position(HEADER_SIZE)).slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        int count = (n + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+        segments = new MappedByteBuffer[count];
+        amounts = new LongBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long size = Math.min(SEGMENT_SIZE, n - (long) i * SEGMENT_SIZE) * 8;
+            segments[i] = channel.map(mode, amountsOffset + (long) i * SEGMENT_SIZE * 8, size);
+            amounts[i] = segments[i].order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        }
+    }
+
+    /**
+     * Creates a new checkpoint for the specified number of accounts. It replaces the file only on {@link #commit()}.
+     *
+     * @throws IOException when file cannot be created.
+     */
+    static Checkpoint create(Path file, int n) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            Checkpoint checkpoint = new Checkpoint(channel, n, file, temporary);
+            checkpoint.header.putLong(0, MAGIC).putInt(8, n).putInt(12, BLOCK_SIZE);
+            return checkpoint;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+    }
+
+    /**
+     * Opens existing checkpoint for reading.
+     *
+     * @throws IOException when file cannot be read or is not a valid checkpoint.
+     */
+    static Checkpoint open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // keep reading
+            }
+            int n = header.getInt(8);
+            if (header.hasRemaining() || header.getLong(0) != MAGIC || n < 0 || header.getInt(12) != BLOCK_SIZE ||
+                    channel.size() != HEADER_SIZE + ((long) n + BLOCK_SIZE - 1) / BLOCK_SIZE * 8 + (long) n * 8)
+                throw new IOException("Invalid checkpoint: " + file);
+            return new Checkpoint(channel, n, null, null);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    int getNumberOfAccounts() {
+        return n;
+    }
+
+    /**
+     * Returns the number of blocks of accounts.
+     */
+    int getNumberOfBlocks() {
+        return lsns.capacity();
+    }
+
+    /**
+     * Returns LSN of the block.
+     */
+    long getLsn(int block) {
+        return lsns.get(block);
+    }
+
+    /**
+     * Reads amounts of the accounts of the block.
+     *
+     * @param amounts array of at least {@link #BLOCK_SIZE} elements.
+     * @return the number of accounts in the block.
+     */
+    int getBlock(int block, long[] amounts) {
+        int count = blockSize(block);
+        LongBuffer segment = this.amounts[block / (SEGMENT_SIZE / BLOCK_SIZE)].duplicate();
+        segment.position(block % (SEGMENT_SIZE / BLOCK_SIZE) * BLOCK_SIZE);
+        segment.get(amounts, 0, count);
+        return count;
+    }
+
+    /**
+     * Writes LSN and amounts of the accounts of the block.
+     *
+     * @param amounts array with amounts of all accounts in the block.
+     */
+    void putBlock(int block, long lsn, long[] amounts) {
+        lsns.put(block, lsn);
+        LongBuffer segment = this.amounts[block / (SEGMENT_SIZE / BLOCK_SIZE)].duplicate();
+        segment.position(block % (SEGMENT_SIZE / BLOCK_SIZE) * BLOCK_SIZE);
+        segment.put(amounts, 0, blockSize(block));
+    }
+
+    /**
+     * Forces new checkpoint to the storage device and atomically replaces the target file with it.
+     *
+     * @throws IOException when checkpoint cannot be written.
+     */
+    void commit() throws IOException {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        header.force();
+        channel.close();
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        committed = true;
+    }
+
+    /**
+     * Closes checkpoint. New checkpoint that is not committed is deleted.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        if (target != null && !committed)
+            Files.deleteIfExists(temporary);
+    }
+
+    private int blockSize(int block) {
+        return Math.min(BLOCK_SIZE, n - block * BLOCK_SIZE);
+    }
+}
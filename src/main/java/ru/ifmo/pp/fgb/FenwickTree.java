@@ -0,0 +1,303 @@
+package ru.ifmo.pp.fgb;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent Fenwick tree (binary indexed tree) of account amounts that answers sums over ranges of accounts
+ * in O(log n).
+ * <p/>
+ * <p>Accounts can be added to the tree while it is used. Nodes are kept in {@link Segments}, with a separate tree
+ * over every segment, so adding accounts never moves the nodes of existing ones. The capacity of a segment
+ * is a power of two, so the root node of its tree keeps the sum of the whole segment, and a sum is read from
+ * the roots of the preceding segments and O(log n) nodes of the last one.
+ * <p/>
+ * <p>Changes of amounts are added to the tree in update sections, and all changes of one section are observed
+ * by sums atomically. A section begins every account it changes with {@link #beginUpdate(int)} before it adds
+ * any change, and ends them with {@link #endUpdate(int)} after all changes are added. Every node has its own
+ * version, that counts the updates of the node that have begun and ended, so a sum is read optimistically
+ * and validated only against the nodes that it reads: the versions are read before and after the nodes,
+ * and the sum is valid when none of them was in an update and none of them changed. Updates never wait
+ * for readers, and when they keep invalidating a sum, {@link #sum(int, int)} gives up after a few attempts.
+ * <p/>
+ * <p>The top levels of every segment tree, that most of updates of the segment pass through, are striped
+ * by thread: every thread adds to its own stripe of such a node, one stripe per cache line,
+ * and the value of the node is the sum of its stripes.
+ *
+ * @author Markina Margarita
+ */
+class FenwickTree {
+    /**
+     * Result of {@link #sum(int, int)} when it could not be read.
+     */
+    static final long BUSY = -1;
+
+    /**
+     * How many times a sum is read optimistically before {@link #sum(int, int)} gives up.
+     */
+    private static final int OPTIMISTIC_ATTEMPTS = 16;
+
+    /**
+     * The number of the top levels of a segment tree that are striped, their 8 nodes take
+     * at least one eighth of updates of the segment each.
+     */
+    private static final int HOT_LEVELS = 3;
+    private static final int HOT_NODES = 1 << HOT_LEVELS;
+
+    private static final int STRIDE = 8; // 8 longs == 64 bytes == typical cache line
+
+    /**
+     * The number of stripes of a hot node, a power of two that is at least the number of processors,
+     * but no more than 16, since a reader sums all of them.
+     */
+    private static final int STRIPES = Math.min(16,
+            Integer.highestOneBit(2 * Runtime.getRuntime().availableProcessors() - 1));
+
+    /**
+     * Change of a node version when an update of the node begins and ends. The low 32 bits of a version are
+     * the number of updates in progress, and the high 32 bits are the number of ended ones.
+     */
+    private static final long BEGIN = 1;
+    private static final long END = (1L << 32) - 1;
+
+    /**
+     * The number of accounts.
+     */
+    private volatile int size;
+
+    /**
+     * Trees by segment.
+     */
+    private final Segment[] segments = new Segment[Segments.COUNT];
+
+    /**
+     * Creates tree of accounts with the specified amounts.
+     *
+     * @param amounts amounts of accounts by index.
+     */
+    FenwickTree(long[] amounts) {
+        for (int segment = 0; segment < Segments.count(amounts.length); segment++) {
+            int capacity = Segments.capacity(segment);
+            int base = capacity - Segments.FIRST;
+            int n = Math.min(capacity, amounts.length - base);
+            long[] sums = new long[capacity + 1];
+            for (int k = 1; k <= capacity; k++) { // nodes after the last account still pass their sums up
+                if (k <= n)
+                    sums[k] += amounts[base + k - 1];
+                int parent = k + (k & -k);
+                if (parent <= capacity)
+                    sums[parent] += sums[k];
+            }
+            segments[segment] = new Segment(capacity, sums);
+        }
+        size = amounts.length;
+    }
+
+    /**
+     * Adds account with zero amount after the last one. It must not be called concurrently with itself.
+     *
+     * @throws IllegalStateException when there are {@link Segments#MAX_SIZE} accounts already.
+     */
+    void grow() {
+        int index = size;
+        if (index == Segments.MAX_SIZE)
+            throw new IllegalStateException("Too many accounts");
+        int segment = Segments.segment(index);
+        if (segments[segment] == null) {
+            int capacity = Segments.capacity(segment);
+            segments[segment] = new Segment(capacity, new long[capacity + 1]);
+        }
+        size = index + 1; // publishes the segment
+    }
+
+    /**
+     * Begins update of the account in the update section of the caller. It must be called for an account
+     * that the caller has seen added, before the section adds any change.
+     */
+    void beginUpdate(int index) {
+        int stripe = stripe();
+        Segment nodes = segments[Segments.segment(index)];
+        for (int k = Segments.offset(index) + 1; k <= nodes.capacity; k += k & -k) {
+            nodes.addVersion(k, stripe, BEGIN);
+        }
+    }
+
+    /**
+     * Adds change of the account amount. It must be called in update section that has begun the account.
+     */
+    void add(int index, long delta) {
+        int stripe = stripe();
+        Segment nodes = segments[Segments.segment(index)];
+        for (int k = Segments.offset(index) + 1; k <= nodes.capacity; k += k & -k) {
+            nodes.addValue(k, stripe, delta);
+        }
+    }
+
+    /**
+     * Ends update of the account. It must be called after the section has added all its changes,
+     * once for every {@link #beginUpdate(int)}.
+     */
+    void endUpdate(int index) {
+        int stripe = stripe();
+        Segment nodes = segments[Segments.segment(index)];
+        for (int k = Segments.offset(index) + 1; k <= nodes.capacity; k += k & -k) {
+            nodes.addVersion(k, stripe, END);
+        }
+    }
+
+    /**
+     * Returns sum of accounts from fromIndex, inclusive, to toIndex, exclusive, that reflects
+     * all update sections that have ended and none of the sections that have not,
+     * or {@link #BUSY} when update sections kept changing the nodes of the sum while it was read.
+     *
+     * @throws IndexOutOfBoundsException when the range is invalid.
+     */
+    long sum(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex)
+            throw new IndexOutOfBoundsException("Invalid range of accounts: [" + fromIndex + ", " + toIndex + ")");
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long before = prefixVersion(toIndex, prefixVersion(fromIndex, 0));
+            if (before == BUSY)
+                continue;
+            long sum = prefixSum(toIndex) - prefixSum(fromIndex);
+            if (prefixVersion(toIndex, prefixVersion(fromIndex, 0)) == before)
+                return sum;
+        }
+        return BUSY;
+    }
+
+    /**
+     * Returns index of the stripe of the current thread.
+     */
+    private static int stripe() {
+        return (int) Thread.currentThread().getId() & (STRIPES - 1);
+    }
+
+    /**
+     * Returns sum of accounts from 0 to index, exclusive.
+     */
+    private long prefixSum(int index) {
+        if (index == 0)
+            return 0;
+        int last = Segments.segment(index - 1);
+        long sum = 0;
+        for (int segment = 0; segment < last; segment++) {
+            sum += segments[segment].value(Segments.capacity(segment)); // the root
+        }
+        Segment nodes = segments[last];
+        for (int k = Segments.offset(index - 1) + 1; k > 0; k -= k & -k) {
+            sum += nodes.value(k);
+        }
+        return sum;
+    }
+
+    /**
+     * Adds the numbers of ended updates of the nodes that {@link #prefixSum(int)} reads to the specified number.
+     *
+     * @return the sum, or {@link #BUSY} when the number is {@link #BUSY} or some of the nodes is in an update.
+     */
+    private long prefixVersion(int index, long ended) {
+        if (index == 0 || ended == BUSY)
+            return ended;
+        int last = Segments.segment(index - 1);
+        for (int segment = 0; segment <= last; segment++) {
+            Segment nodes = segments[segment];
+            int k = segment < last ? nodes.capacity : Segments.offset(index - 1) + 1;
+            for (; k > 0; k -= k & -k) {
+                long version = nodes.version(k);
+                if (version == BUSY)
+                    return BUSY;
+                ended += version;
+            }
+        }
+        return ended;
+    }
+
+    /**
+     * Tree over one segment. Node k (from 1 to the capacity of the segment) keeps the sum of accounts
+     * of the segment with offsets from k - (k &amp; -k) to k - 1. Nodes at the hot levels keep values and versions
+     * by stripe, the other ones in arrays by node.
+     */
+    private static final class Segment {
+        final int capacity;
+
+        /**
+         * The least span of a hot node, hot nodes are its multiples.
+         */
+        private final int hotSpan;
+
+        private final AtomicLongArray values;
+        private final AtomicLongArray versions;
+
+        /**
+         * Value and version of every stripe of every hot node, one stripe per cache line. The first cache line
+         * is skipped, so that the first stripe does not share a line with the array header.
+         */
+        private final AtomicLongArray hot;
+
+        Segment(int capacity, long[] sums) {
+            this.capacity = capacity;
+            hotSpan = capacity >> HOT_LEVELS;
+            long[] stripes = new long[(HOT_NODES * STRIPES + 1) * STRIDE];
+            for (int k = hotSpan; k <= capacity; k += hotSpan) {
+                stripes[cell(k, 0)] = sums[k];
+                sums[k] = 0;
+            }
+            values = new AtomicLongArray(sums);
+            versions = new AtomicLongArray(capacity + 1);
+            hot = new AtomicLongArray(stripes);
+        }
+
+        void addValue(int k, int stripe, long delta) {
+            if (isHot(k))
+                hot.getAndAdd(cell(k, stripe), delta);
+            else
+                values.getAndAdd(k, delta);
+        }
+
+        void addVersion(int k, int stripe, long change) {
+            if (isHot(k))
+                hot.getAndAdd(cell(k, stripe) + 1, change);
+            else
+                versions.getAndAdd(k, change);
+        }
+
+        long value(int k) {
+            if (!isHot(k))
+                return values.get(k);
+            long value = 0;
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                value += hot.get(cell(k, stripe));
+            }
+            return value;
+        }
+
+        /**
+         * Returns the number of ended updates of the node, or {@link #BUSY} when it is in an update.
+         * The number wraps around after 2<sup>32</sup> updates, which cannot happen while a sum is read.
+         */
+        long version(int k) {
+            if (!isHot(k))
+                return ended(versions.get(k));
+            long ended = 0;
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                long version = ended(hot.get(cell(k, stripe) + 1));
+                if (version == BUSY)
+                    return BUSY;
+                ended += version;
+            }
+            return ended;
+        }
+
+        private boolean isHot(int k) {
+            return (k & (hotSpan - 1)) == 0;
+        }
+
+        private int cell(int k, int stripe) {
+            return ((k / hotSpan - 1) * STRIPES + stripe + 1) * STRIDE;
+        }
+
+        private static long ended(long version) {
+            return (int) version != 0 ? BUSY : version >>> 32;
+        }
+    }
+}
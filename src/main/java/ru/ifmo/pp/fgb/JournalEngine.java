@@ -0,0 +1,429 @@
+package ru.ifmo.pp.fgb;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bank engine that applies sequenced commands on a single thread, in the style of the LMAX architecture.
+ * <p/>
+ * <p>Commands are submitted by any number of threads to a preallocated ring, and their sequence numbers are
+ * the order in which they are applied. The engine thread owns amounts of all accounts in a plain array, so
+ * it applies commands without any locks or atomic operations, one batch of published commands at a time.
+ * The result of a command is written to its slot of the ring, which is then the output queue: results are
+ * read by one consumer in the order of sequence numbers with {@link #poll(Handler, int)}, and a slot is reused
+ * only after its result is read, so a slow consumer slows down submitters rather than the engine.
+ * <p/>
+ * <p>Results depend only on the sequence of commands, so the engine is deterministic. When a journal is
+ * specified, every batch of commands is appended to it and forced to the storage device before it is applied,
+ * so a result is never read before its command is durable, and {@link #replay(Path, long[], Handler)} repeats
+ * exactly the same results and amounts from it, for example on a replica. Forcing is amortized over the batch,
+ * which grows while the storage device is slow.
+ *
+ * @author Markina Margarita
+ */
+public class JournalEngine implements Closeable {
+    /**
+     * Command.
+     */
+    public enum Command {
+        /**
+         * Reads amount of account index1.
+         */
+        GET_AMOUNT,
+        /**
+         * Reads total amount of all accounts.
+         */
+        GET_TOTAL_AMOUNT,
+        /**
+         * Deposits the amount to account index1, like {@link Bank#tryDeposit(int, long)}.
+         */
+        DEPOSIT,
+        /**
+         * Withdraws the amount from account index1, like {@link Bank#tryWithdraw(int, long)}.
+         */
+        WITHDRAW,
+        /**
+         * Transfers the amount from account index1 to account index2, like {@link Bank#tryTransfer(int, int, long)}.
+         */
+        TRANSFER
+    }
+
+    /**
+     * Handler of results, see {@link #poll(Handler, int)}.
+     */
+    @FunctionalInterface
+    public interface Handler {
+        /**
+         * Handles result of command.
+         *
+         * @param sequence sequence number of the command.
+         * @param command  command.
+         * @param index1   the first account index of the command.
+         * @param index2   the second account index of the command.
+         * @param amount   amount of the command.
+         * @param result   the amount that is read or that results from the command, or a negative status.
+         */
+        void onResult(long sequence, Command command, int index1, int index2, long amount, long result);
+    }
+
+    private static final Command[] COMMANDS = Command.values();
+
+    /**
+     * Longs per slot, one cache line: sequence number, command, both indices, amount and result.
+     */
+    private static final int STRIDE = 8;
+
+    /**
+     * Bytes per journal record: command, both indices and amount.
+     */
+    private static final int RECORD_SIZE = 17;
+
+    /**
+     * How long the engine thread sleeps when there are no commands, after it has spun for a while.
+     */
+    private static final long PARK_NANOS = 50_000;
+
+    private static final int SPINS_BEFORE_PARK = 1024;
+
+    private final int capacity;
+    private final AtomicLongArray slots;
+
+    /**
+     * Sequence number of the next command to claim.
+     */
+    private final AtomicLong claimed = new AtomicLong();
+
+    /**
+     * Sequence number of the next command to apply. Results of the commands before it are written.
+     */
+    private volatile long applied;
+
+    /**
+     * Sequence number of the next result to read. Slots of the commands before it are free.
+     */
+    private volatile long consumed;
+
+    /**
+     * Accounts, owned by the engine thread.
+     */
+    private final Store store;
+
+    private final FileChannel journal;
+    private final ByteBuffer records;
+
+    private final Thread thread;
+    private volatile boolean closed;
+    private volatile Throwable failure;
+
+    /**
+     * Creates engine and starts its thread.
+     *
+     * @param n        the number of accounts (numbered from 0 to n-1), initially empty.
+     * @param capacity the number of commands in the ring, a power of two.
+     * @param journal  journal file that is created or replaced, or null to run without a journal.
+     * @throws IOException when journal cannot be created.
+     */
+    public JournalEngine(int n, int capacity, Path journal) throws IOException {
+        if (n < 0)
+            throw new IllegalArgumentException("Invalid number of accounts: " + n);
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0)
+            throw new IllegalArgumentException("Capacity is not a power of two: " + capacity);
+        this.capacity = capacity;
+        slots = new AtomicLongArray(capacity * STRIDE);
+        for (int i = 0; i < capacity; i++) {
+            slots.set(i * STRIDE, i - capacity); // as if the previous lap was published
+        }
+        store = new Store(new long[n]);
+        if (journal == null) {
+            this.journal = null;
+            records = null;
+        } else {
+            this.journal = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            records = ByteBuffer.allocate(capacity * RECORD_SIZE);
+        }
+        thread = new Thread(this::run, "JournalEngine");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getNumberOfAccounts() {
+        return store.amounts.length;
+    }
+
+    /**
+     * Submits command, waiting while the ring is full.
+     *
+     * @return sequence number of the command.
+     * @throws IllegalStateException when engine is closed or has failed, also while the command waits.
+     */
+    public long submit(Command command, int index1, int index2, long amount) {
+        checkRunning();
+        long sequence = claimed.getAndIncrement();
+        int slot = (int) (sequence & (capacity - 1)) * STRIDE;
+        while (sequence - capacity >= consumed) {
+            checkRunning(); // the engine stops without the commands that wait
+            Thread.yield(); // wait for the result of the previous lap to be read
+        }
+        slots.setRelease(slot + 1, command.ordinal());
+        slots.setRelease(slot + 2, ((long) index1 << 32) | (index2 & 0xffffffffL));
+        slots.setRelease(slot + 3, amount);
+        slots.setRelease(slot, sequence);
+        return sequence;
+    }
+
+    /**
+     * Handles results of applied commands in the order of their sequence numbers, without waiting for more.
+     * It must be called by one thread at a time.
+     *
+     * @param handler    handler of results.
+     * @param maxResults the maximal number of results to handle.
+     * @return the number of handled results.
+     * @throws IllegalStateException when engine has failed and all results of the commands it has applied
+     *                               are read.
+     */
+    public int poll(Handler handler, int maxResults) {
+        long first = consumed;
+        long sequence = first;
+        long available = Math.min(applied, first + maxResults);
+        if (available == first && maxResults > 0 && failure != null)
+            throw new IllegalStateException("Engine has failed", failure);
+        try {
+            for (; sequence < available; sequence++) {
+                int slot = (int) (sequence & (capacity - 1)) * STRIDE;
+                long indices = slots.getAcquire(slot + 2);
+                handler.onResult(sequence, COMMANDS[(int) slots.getAcquire(slot + 1)], (int) (indices >> 32),
+                        (int) indices, slots.getAcquire(slot + 3), slots.getAcquire(slot + 4));
+            }
+        } finally {
+            consumed = sequence;
+        }
+        return (int) (sequence - first);
+    }
+
+    /**
+     * Returns sequence number of the next command to apply.
+     */
+    public long getAppliedSequence() {
+        return applied;
+    }
+
+    /**
+     * Returns amounts of all accounts. It must be called after the engine is closed.
+     *
+     * @throws IllegalStateException when engine is not closed.
+     */
+    public long[] getAmounts() {
+        if (thread.isAlive())
+            throw new IllegalStateException("Engine is running");
+        return store.amounts.clone();
+    }
+
+    /**
+     * Applies all submitted commands and stops the engine thread. Commands must not be submitted concurrently
+     * with it. Commands that wait while the ring is full are not applied, and their submitters fail
+     * with {@link IllegalStateException}.
+     *
+     * @throws IOException           when journal cannot be written.
+     * @throws IllegalStateException when engine has failed.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (journal != null)
+            journal.close();
+        if (failure instanceof UncheckedIOException)
+            throw ((UncheckedIOException) failure).getCause();
+        if (failure != null)
+            throw new IllegalStateException("Engine has failed", failure);
+    }
+
+    /**
+     * Replays journal written by an engine with the same number of accounts, reporting results of its commands.
+     * Replay stops at the last valid record, so a torn record at the end of the journal, or anything
+     * that is not a record, is ignored.
+     *
+     * @param journal journal file.
+     * @param amounts amounts of accounts, initially empty, that are updated by the commands.
+     * @param handler handler of results, or null.
+     * @return the number of replayed commands.
+     * @throws IOException when journal cannot be read.
+     */
+    public static long replay(Path journal, long[] amounts, Handler handler) throws IOException {
+        Store store = new Store(amounts);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(FileChannel.open(journal, StandardOpenOption.READ))))) {
+            for (long sequence = 0; ; sequence++) {
+                int command;
+                int index1;
+                int index2;
+                long amount;
+                try {
+                    command = in.readByte();
+                    index1 = in.readInt();
+                    index2 = in.readInt();
+                    amount = in.readLong();
+                } catch (EOFException e) {
+                    return sequence;
+                }
+                if (command < 0 || command >= COMMANDS.length)
+                    return sequence; // not a record, the rest of the file was never written
+                long result = store.apply(command, index1, index2, amount);
+                if (handler != null)
+                    handler.onResult(sequence, COMMANDS[command], index1, index2, amount, result);
+            }
+        }
+    }
+
+    private void checkRunning() {
+        if (failure != null)
+            throw new IllegalStateException("Engine has failed", failure);
+        if (closed)
+            throw new IllegalStateException("Engine is closed");
+    }
+
+    /**
+     * Loop of the engine thread.
+     */
+    private void run() {
+        long next = 0;
+        try {
+            int spins = 0;
+            while (true) {
+                long available = next;
+                while (available < next + capacity &&
+                        slots.getAcquire((int) (available & (capacity - 1)) * STRIDE) == available) {
+                    available++;
+                }
+                if (available == next) {
+                    if (closed && (claimed.get() == next || next - capacity >= consumed))
+                        return; // the next command, if any, waits for the ring and is not applied
+                    if (spins++ < SPINS_BEFORE_PARK)
+                        Thread.onSpinWait();
+                    else
+                        LockSupport.parkNanos(this, PARK_NANOS);
+                    continue;
+                }
+                spins = 0;
+                if (journal != null)
+                    writeJournal(next, available);
+                for (long sequence = next; sequence < available; sequence++) {
+                    int slot = (int) (sequence & (capacity - 1)) * STRIDE;
+                    long indices = slots.getAcquire(slot + 2);
+                    long result = store.apply((int) slots.getAcquire(slot + 1), (int) (indices >> 32), (int) indices,
+                            slots.getAcquire(slot + 3));
+                    slots.setRelease(slot + 4, result);
+                }
+                next = available;
+                applied = next;
+            }
+        } catch (Throwable t) {
+            failure = t;
+        }
+    }
+
+    /**
+     * Appends published commands to the journal and forces them to the storage device.
+     */
+    private void writeJournal(long from, long to) {
+        records.clear();
+        for (long sequence = from; sequence < to; sequence++) {
+            int slot = (int) (sequence & (capacity - 1)) * STRIDE;
+            long indices = slots.getAcquire(slot + 2);
+            records.put((byte) slots.getAcquire(slot + 1));
+            records.putInt((int) (indices >> 32));
+            records.putInt((int) indices);
+            records.putLong(slots.getAcquire(slot + 3));
+        }
+        records.flip();
+        try {
+            while (records.hasRemaining()) {
+                journal.write(records);
+            }
+            journal.force(false); // before any result is published
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Amounts of accounts with their total, owned by one thread. Commands are applied to it
+     * by the engine and by replay alike, so both produce the same results.
+     */
+    private static final class Store {
+        final long[] amounts;
+        long totalAmount;
+
+        Store(long[] amounts) {
+            this.amounts = amounts;
+            for (long amount : amounts) {
+                totalAmount += amount;
+            }
+        }
+
+        /**
+         * Applies command.
+         *
+         * @return result of the command.
+         */
+        long apply(int command, int index1, int index2, long amount) {
+            int n = amounts.length;
+            switch (COMMANDS[command]) {
+                case GET_AMOUNT:
+                    return index1 < 0 || index1 >= n ? Bank.INVALID_INDEX : amounts[index1];
+                case GET_TOTAL_AMOUNT:
+                    return totalAmount;
+                case DEPOSIT:
+                    if (index1 < 0 || index1 >= n)
+                        return Bank.INVALID_INDEX;
+                    if (amount <= 0)
+                        return Bank.INVALID_ARGUMENT;
+                    if (amount > Bank.MAX_AMOUNT || amounts[index1] + amount > Bank.MAX_AMOUNT)
+                        return Bank.OVERFLOW;
+                    totalAmount += amount;
+                    return amounts[index1] += amount;
+                case WITHDRAW:
+                    if (index1 < 0 || index1 >= n)
+                        return Bank.INVALID_INDEX;
+                    if (amount <= 0)
+                        return Bank.INVALID_ARGUMENT;
+                    if (amounts[index1] - amount < 0)
+                        return Bank.UNDERFLOW;
+                    totalAmount -= amount;
+                    return amounts[index1] -= amount;
+                case TRANSFER:
+                    if (index1 < 0 || index1 >= n || index2 < 0 || index2 >= n)
+                        return Bank.INVALID_INDEX;
+                    if (amount <= 0 || index1 == index2)
+                        return Bank.INVALID_ARGUMENT;
+                    if (amount > amounts[index1])
+                        return Bank.UNDERFLOW;
+                    if (amount > Bank.MAX_AMOUNT || amounts[index2] + amount > Bank.MAX_AMOUNT)
+                        return Bank.OVERFLOW;
+                    amounts[index1] -= amount;
+                    amounts[index2] += amount;
+                    return Bank.OK;
+                default:
+                    throw new AssertionError();
+            }
+        }
+    }
+}
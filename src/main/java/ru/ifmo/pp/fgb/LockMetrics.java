@@ -0,0 +1,260 @@
+package ru.ifmo.pp.fgb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock contention and hold time metrics of {@link BankImpl}, see {@link BankImpl#setLockMetrics(LockMetrics)}.
+ * <p/>
+ * <p>For each operation type the metrics count operations, lock acquisitions, contended acquisitions
+ * (when the lock was held by another thread), time spent waiting for locks and time the locks were held.
+ * They also count contended acquisitions of each account to report the hottest ones.
+ * Reads of amounts are optimistic and do not acquire locks, so they are not recorded.
+ * <p/>
+ * <p>Metrics can be polled with {@link #getSnapshot()} or registered in a JMX MBean server, for example
+ * {@code ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName("ru.ifmo.pp.fgb:type=LockMetrics"))}.
+ *
+ * @author Markina Margarita
+ */
+public class LockMetrics implements LockMetricsMXBean {
+    private static final int DEFAULT_TOP_K = 10;
+
+    /**
+     * Type of operation that acquires locks.
+     */
+    public enum Op {
+        DEPOSIT, WITHDRAW, TRANSFER, TRANSFER_BATCH, TRANSACTION
+    }
+
+    private static final Op[] OPS = Op.values();
+
+    private final int topK;
+    private final LongAdder[] operations = newAdders();
+    private final LongAdder[] acquisitions = newAdders();
+    private final LongAdder[] contended = newAdders();
+    private final LongAdder[] waitNanos = newAdders();
+    private final LongAdder[] holdNanos = newAdders();
+
+    /**
+     * Number of contended acquisitions by account index. Each element is only updated while the
+     * corresponding account lock is held, so plain increments are not lost. Snapshots read it racily.
+     */
+    private final long[] contendedByAccount;
+
+    /**
+     * Creates metrics that report 10 hottest accounts.
+     *
+     * @param n the number of accounts in the bank.
+     */
+    public LockMetrics(int n) {
+        this(n, DEFAULT_TOP_K);
+    }
+
+    /**
+     * Creates metrics.
+     *
+     * @param n    the number of accounts in the bank.
+     * @param topK the number of hottest accounts to report.
+     */
+    public LockMetrics(int n, int topK) {
+        if (topK < 0)
+            throw new IllegalArgumentException("Invalid topK: " + topK);
+        this.topK = topK;
+        contendedByAccount = new long[n];
+    }
+
+    /**
+     * Returns the number of accounts these metrics are for.
+     *
+     * @return the number of accounts.
+     */
+    public int getNumberOfAccounts() {
+        return contendedByAccount.length;
+    }
+
+    /**
+     * Records completed operation.
+     *
+     * @param op        type of operation.
+     * @param locks     the number of acquired locks.
+     * @param contended the number of contended locks.
+     * @param startTime {@link System#nanoTime()} before locks were acquired.
+     * @param lockTime  {@link System#nanoTime()} after locks were acquired.
+     */
+    void record(Op op, int locks, int contended, long startTime, long lockTime) {
+        long unlockTime = System.nanoTime();
+        int i = op.ordinal();
+        operations[i].increment();
+        acquisitions[i].add(locks);
+        if (contended != 0)
+            this.contended[i].add(contended);
+        waitNanos[i].add(lockTime - startTime);
+        holdNanos[i].add(unlockTime - lockTime);
+    }
+
+    /**
+     * Records contended acquisition of account lock. Must be invoked while the lock is held.
+     * Accounts opened after these metrics were created are not counted.
+     *
+     * @param index account index.
+     */
+    void recordContended(int index) {
+        if (index < contendedByAccount.length)
+            contendedByAccount[index]++;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Snapshot getSnapshot() {
+        List<OperationStats> ops = new ArrayList<>(OPS.length);
+        for (Op op : OPS) {
+            int i = op.ordinal();
+            ops.add(new OperationStats(op.name(), operations[i].sum(), acquisitions[i].sum(), contended[i].sum(),
+                    waitNanos[i].sum(), holdNanos[i].sum()));
+        }
+        PriorityQueue<AccountStats> hottest = new PriorityQueue<>(Math.max(topK, 1),
+                (a, b) -> Long.compare(a.getContended(), b.getContended()));
+        if (topK > 0) {
+            for (int i = 0; i < contendedByAccount.length; i++) {
+                long count = contendedByAccount[i];
+                if (count == 0 || hottest.size() == topK && count <= hottest.peek().getContended())
+                    continue;
+                if (hottest.size() == topK)
+                    hottest.poll();
+                hottest.add(new AccountStats(i, count));
+            }
+        }
+        List<AccountStats> accounts = new ArrayList<>(hottest);
+        Collections.sort(accounts, (a, b) -> Long.compare(b.getContended(), a.getContended()));
+        return new Snapshot(ops, accounts);
+    }
+
+    private static LongAdder[] newAdders() {
+        LongAdder[] adders = new LongAdder[OPS.length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * Point-in-time copy of lock metrics.
+     */
+    public static class Snapshot {
+        private final List<OperationStats> operations;
+        private final List<AccountStats> hottestAccounts;
+
+        Snapshot(List<OperationStats> operations, List<AccountStats> hottestAccounts) {
+            this.operations = Collections.unmodifiableList(operations);
+            this.hottestAccounts = Collections.unmodifiableList(hottestAccounts);
+        }
+
+        /**
+         * Returns metrics of every operation type in the order of {@link Op} constants.
+         */
+        public List<OperationStats> getOperations() {
+            return operations;
+        }
+
+        /**
+         * Returns accounts with the most contended acquisitions, the hottest first.
+         */
+        public List<AccountStats> getHottestAccounts() {
+            return hottestAccounts;
+        }
+
+        /**
+         * Returns metrics of the specified operation type.
+         */
+        public OperationStats stats(Op op) {
+            return operations.get(op.ordinal());
+        }
+
+        @Override
+        public String toString() {
+            return "LockMetrics{operations=" + operations + ", hottestAccounts=" + hottestAccounts + '}';
+        }
+    }
+
+    /**
+     * Lock metrics of one operation type.
+     */
+    public static class OperationStats {
+        private final String name;
+        private final long operations;
+        private final long acquisitions;
+        private final long contended;
+        private final long waitNanos;
+        private final long holdNanos;
+
+        OperationStats(String name, long operations, long acquisitions, long contended, long waitNanos, long holdNanos) {
+            this.name = name;
+            this.operations = operations;
+            this.acquisitions = acquisitions;
+            this.contended = contended;
+            this.waitNanos = waitNanos;
+            this.holdNanos = holdNanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getOperations() {
+            return operations;
+        }
+
+        public long getAcquisitions() {
+            return acquisitions;
+        }
+
+        public long getContended() {
+            return contended;
+        }
+
+        public long getWaitNanos() {
+            return waitNanos;
+        }
+
+        public long getHoldNanos() {
+            return holdNanos;
+        }
+
+        @Override
+        public String toString() {
+            return name + "{operations=" + operations + ", acquisitions=" + acquisitions + ", contended=" + contended +
+                    ", waitNanos=" + waitNanos + ", holdNanos=" + holdNanos + '}';
+        }
+    }
+
+    /**
+     * Contention of one account.
+     */
+    public static class AccountStats {
+        private final int index;
+        private final long contended;
+
+        AccountStats(int index, long contended) {
+            this.index = index;
+            this.contended = contended;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public long getContended() {
+            return contended;
+        }
+
+        @Override
+        public String toString() {
+            return index + ":" + contended;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package ru.ifmo.pp.fgb;
+
+/**
+ * Management interface of {@link LockMetrics}, so that they can be registered in a JMX MBean server.
+ *
+ * @author Markina Margarita
+ */
+public interface LockMetricsMXBean {
+    /**
+     * Returns snapshot of lock metrics.
+     *
+     * @return snapshot of lock metrics.
+     */
+    public LockMetrics.Snapshot getSnapshot();
+}
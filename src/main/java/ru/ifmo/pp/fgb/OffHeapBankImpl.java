@@ -0,0 +1,97 @@
+package ru.ifmo.pp.fgb;
+
+import java.io.Closeable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Bank implementation that keeps all accounts in native memory outside of the garbage-collected heap.
+ * <p/>
+ * <p>Every account takes 16 bytes: a lock word followed by the amount, with the same locking protocol as
+ * {@link PackedBankImpl} (see {@link AbstractSeqLockBank}). Accounts are kept in direct byte buffers of up
+ * to 1 GiB each and accessed through a {@link VarHandle}. The heap footprint of the bank does not depend
+ * on the number of accounts, so garbage collection cost stays flat even for hundreds of millions of them.
+ * The native memory that the bank may take is limited by {@code -XX:MaxDirectMemorySize}.
+ * <p/>
+ * <p>{@link #close()} may be called concurrently with operations: they either complete or fail with
+ * {@link IllegalStateException}. Native memory is released by the garbage collector once the bank is closed
+ * and no operation uses it any more, so it is never freed twice nor while it is accessed.
+ *
+ * @author Markina Margarita
+ */
+public class OffHeapBankImpl extends AbstractSeqLockBank implements Closeable {
+    private static final VarHandle WORDS = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.nativeOrder());
+    private static final int ACCOUNT_SIZE = 16;
+    private static final int AMOUNT_OFFSET = 8;
+    private static final int CHUNK_SHIFT = 26; // 1 GiB of accounts per buffer
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    /**
+     * Buffers with accounts, the account with index i is in buffer i &gt;&gt; CHUNK_SHIFT,
+     * or null when the bank is closed.
+     */
+    private volatile ByteBuffer[] chunks;
+
+    /**
+     * Creates new bank instance.
+     *
+     * @param n the number of accounts (numbered from 0 to n-1).
+     * @throws OutOfMemoryError when native memory cannot be allocated.
+     */
+    public OffHeapBankImpl(int n) {
+        super(n);
+        ByteBuffer[] chunks = new ByteBuffer[(int) (((long) n + CHUNK_MASK) >>> CHUNK_SHIFT)];
+        for (int i = 0; i < chunks.length; i++) {
+            int accounts = Math.min(CHUNK_MASK + 1, n - (i << CHUNK_SHIFT));
+            chunks[i] = ByteBuffer.allocateDirect(accounts * ACCOUNT_SIZE); // zeroed
+        }
+        this.chunks = chunks;
+    }
+
+    /**
+     * Closes this bank. Operations that start after it fail with {@link IllegalStateException}.
+     */
+    @Override
+    public void close() {
+        chunks = null;
+    }
+
+    @Override
+    protected long loadVersion(int lock) {
+        return (long) WORDS.getVolatile(chunkOf(lock), offsetOf(lock));
+    }
+
+    @Override
+    protected boolean casVersion(int lock, long expect, long update) {
+        return WORDS.compareAndSet(chunkOf(lock), offsetOf(lock), expect, update);
+    }
+
+    @Override
+    protected void storeVersion(int lock, long version) {
+        WORDS.setRelease(chunkOf(lock), offsetOf(lock), version);
+    }
+
+    @Override
+    protected long loadAmount(int index) {
+        return (long) WORDS.getVolatile(chunkOf(index), offsetOf(index) + AMOUNT_OFFSET);
+    }
+
+    @Override
+    protected void storeAmount(int index, long amount) {
+        WORDS.setRelease(chunkOf(index), offsetOf(index) + AMOUNT_OFFSET, amount);
+    }
+
+    private ByteBuffer chunkOf(int index) {
+        ByteBuffer[] chunks = this.chunks;
+        if (chunks == null)
+            throw new IllegalStateException("Bank is closed");
+        return chunks[index >>> CHUNK_SHIFT];
+    }
+
+    private static int offsetOf(int index) {
+        return (index & CHUNK_MASK) * ACCOUNT_SIZE;
+    }
+}
@@ -0,0 +1,88 @@
+package ru.ifmo.pp.fgb;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bank implementation that keeps all accounts in a single packed array of primitive words.
+ * <p/>
+ * <p>Every account occupies {@link #stride} consecutive words: a lock word followed by the amount.
+ * See {@link AbstractSeqLockBank} for the locking protocol.
+ * <p/>
+ * <p>In compact mode an account takes 16 bytes, so four accounts share a 64-byte cache line.
+ * In padded mode every account takes a whole cache line of its own, which trades memory for the absence
+ * of false sharing between neighbouring accounts.
+ *
+ * @author Markina Margarita
+ */
+public class PackedBankImpl extends AbstractSeqLockBank {
+    private static final int COMPACT_STRIDE = 2;
+    private static final int PADDED_STRIDE = 8; // 8 longs == 64 bytes == typical cache line
+
+    /**
+     * Number of words per account.
+     */
+    private final int stride;
+
+    /**
+     * Offset of the first account in {@link #words}. In padded mode the first cache line is skipped,
+     * so that the first account does not share a line with the array header.
+     */
+    private final int offset;
+
+    /**
+     * Lock and amount words of all accounts.
+     */
+    private final AtomicLongArray words;
+
+    /**
+     * Creates new compact bank instance.
+     *
+     * @param n the number of accounts (numbered from 0 to n-1).
+     */
+    public PackedBankImpl(int n) {
+        this(n, false);
+    }
+
+    /**
+     * Creates new bank instance.
+     *
+     * @param n      the number of accounts (numbered from 0 to n-1).
+     * @param padded when true, each account is placed on its own cache line.
+     * @throws IllegalArgumentException when n is negative or the accounts do not fit in one array.
+     */
+    public PackedBankImpl(int n, boolean padded) {
+        super(n);
+        stride = padded ? PADDED_STRIDE : COMPACT_STRIDE;
+        offset = padded ? PADDED_STRIDE : 0;
+        long size = offset + (long) n * stride;
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Too many accounts for " + (padded ? "padded" : "compact") +
+                    " mode: " + n);
+        words = new AtomicLongArray((int) size); // so word indices of accounts never overflow
+    }
+
+    @Override
+    protected long loadVersion(int lock) {
+        return words.get(offset + lock * stride);
+    }
+
+    @Override
+    protected boolean casVersion(int lock, long expect, long update) {
+        return words.compareAndSet(offset + lock * stride, expect, update);
+    }
+
+    @Override
+    protected void storeVersion(int lock, long version) {
+        words.lazySet(offset + lock * stride, version);
+    }
+
+    @Override
+    protected long loadAmount(int index) {
+        return words.get(offset + index * stride + 1);
+    }
+
+    @Override
+    protected void storeAmount(int index, long amount) {
+        words.lazySet(offset + index * stride + 1, amount);
+    }
+}
@@ -0,0 +1,60 @@
+package ru.ifmo.pp.fgb;
+
+/**
+ * Layout of arrays that grow without copying: elements are kept in segments, the first segment
+ * has {@link #FIRST} elements and every next one is twice as large as the previous one. Segments are allocated
+ * when the array grows into them and are never moved, and the segment and the offset of an element are
+ * computed from its index in constant time.
+ *
+ * @author Markina Margarita
+ */
+final class Segments {
+    private static final int FIRST_BITS = 6;
+
+    /**
+     * Capacity of the first segment.
+     */
+    static final int FIRST = 1 << FIRST_BITS;
+
+    /**
+     * The number of segments.
+     */
+    static final int COUNT = 31 - FIRST_BITS;
+
+    /**
+     * Capacity of all segments together, the maximal number of elements.
+     */
+    static final int MAX_SIZE = Integer.MAX_VALUE - FIRST + 1;
+
+    private Segments() {
+    }
+
+    /**
+     * Returns segment of the element.
+     */
+    static int segment(int index) {
+        return 31 - FIRST_BITS - Integer.numberOfLeadingZeros(index + FIRST);
+    }
+
+    /**
+     * Returns offset of the element in its segment.
+     */
+    static int offset(int index) {
+        int position = index + FIRST;
+        return position - Integer.highestOneBit(position);
+    }
+
+    /**
+     * Returns capacity of the segment, that is a power of two.
+     */
+    static int capacity(int segment) {
+        return FIRST << segment;
+    }
+
+    /**
+     * Returns the number of segments that keep the specified number of elements.
+     */
+    static int count(int size) {
+        return size == 0 ? 0 : segment(size - 1) + 1;
+    }
+}
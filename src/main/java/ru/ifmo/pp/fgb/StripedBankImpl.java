@@ -0,0 +1,87 @@
+package ru.ifmo.pp.fgb;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bank implementation with lock striping: accounts share a configurable number of lock words (stripes),
+ * account with index i being guarded by the stripe i mod stripes.
+ * <p/>
+ * <p>An account takes only its 8-byte amount, and every stripe takes a whole cache line, so memory
+ * no longer grows with one lock per account. Locks are taken in ascending order of stripe indices,
+ * and an operation whose accounts fall into one stripe takes a single lock (see {@link AbstractSeqLockBank}).
+ * Fewer stripes save memory at the price of contention between unrelated accounts that share a stripe.
+ *
+ * @author Markina Margarita
+ */
+public class StripedBankImpl extends AbstractSeqLockBank {
+    private static final int STRIDE = 8; // 8 longs == 64 bytes == typical cache line
+
+    /**
+     * Number of stripes.
+     */
+    private final int stripes;
+
+    /**
+     * Lock words of stripes, one per cache line. The first cache line is skipped,
+     * so that the first stripe does not share a line with the array header.
+     */
+    private final AtomicLongArray locks;
+
+    /**
+     * Amounts of all accounts.
+     */
+    private final AtomicLongArray amounts;
+
+    /**
+     * Creates new bank instance.
+     *
+     * @param n       the number of accounts (numbered from 0 to n-1).
+     * @param stripes the number of lock stripes.
+     * @throws IllegalArgumentException when the number of stripes is not positive.
+     */
+    public StripedBankImpl(int n, int stripes) {
+        super(n);
+        if (stripes <= 0)
+            throw new IllegalArgumentException("Invalid number of stripes: " + stripes);
+        this.stripes = stripes;
+        locks = new AtomicLongArray((stripes + 1) * STRIDE);
+        amounts = new AtomicLongArray(n);
+    }
+
+    /**
+     * Returns the number of lock stripes.
+     */
+    public int getNumberOfStripes() {
+        return stripes;
+    }
+
+    @Override
+    protected int lockOf(int index) {
+        return index % stripes;
+    }
+
+    @Override
+    protected long loadVersion(int lock) {
+        return locks.get((lock + 1) * STRIDE);
+    }
+
+    @Override
+    protected boolean casVersion(int lock, long expect, long update) {
+        return locks.compareAndSet((lock + 1) * STRIDE, expect, update);
+    }
+
+    @Override
+    protected void storeVersion(int lock, long version) {
+        locks.lazySet((lock + 1) * STRIDE, version);
+    }
+
+    @Override
+    protected long loadAmount(int index) {
+        return amounts.get(index);
+    }
+
+    @Override
+    protected void storeAmount(int index, long amount) {
+        amounts.lazySet(index, amount);
+    }
+}
@@ -0,0 +1,17 @@
+package ru.ifmo.pp.fgb;
+
+/**
+ * Transaction over several bank accounts.
+ *
+ * @author Markina Margarita
+ * @see BankImpl#atomically(int[], Transaction)
+ */
+public interface Transaction {
+    /**
+     * Runs transaction.
+     *
+     * @param bank view of the bank that allows access only to accounts of this transaction.
+     * @throws RuntimeException to abort transaction and roll back all its changes.
+     */
+    public void run(Bank bank);
+}
@@ -0,0 +1,508 @@
+package ru.ifmo.pp.fgb;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-ahead log of successful bank operations, see {@link BankImpl#setWriteAheadLog(WriteAheadLog)}.
+ * <p/>
+ * <p>The log is a sequence of fixed-size binary records: a type byte, two account indices and an amount.
+ * Records of operations on several accounts are preceded by a group record with their count and are
+ * recovered all or nothing. Records are appended to an in-memory buffer while the bank holds the locks of
+ * the accounts involved, so for every account the log order is the order in which operations were applied.
+ * The buffer is written to the file according to {@link SyncPolicy}. Concurrent operations that wait for
+ * durability are committed as a group: one of them writes and forces the whole buffer for all of them.
+ * <p/>
+ * <p>The position of a record in the log file after it is its log sequence number (LSN).
+ * {@link #replay(Path, Bank)} recovers the bank from the log, ignoring a torn tail.
+ * {@link BankImpl#restore(Path, Path)} recovers the bank from a checkpoint and replays only the tail of the log
+ * that follows it.
+ *
+ * @author Markina Margarita
+ */
+public class WriteAheadLog implements Closeable {
+    static final int RECORD_SIZE = 17;
+
+    private static final byte DEPOSIT = 1;
+    private static final byte WITHDRAW = 2;
+    private static final byte TRANSFER = 3;
+    static final byte GROUP = 4;
+    private static final byte OPEN = 5;
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final SyncPolicy policy;
+
+    /**
+     * Guards {@link #buffer} and {@link #appendedLsn}. It is taken while account locks are held,
+     * so it is never held while waiting for I/O.
+     */
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private long appendedLsn;
+
+    /**
+     * Guards writes to the file and {@link #spare}. The thread that holds it writes everything appended
+     * so far, so threads that wait for it find their records already written.
+     */
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    /**
+     * LSN up to which the log is written to the file (and forced to the device, when policy requires it).
+     */
+    private volatile long flushedLsn;
+
+    private volatile IOException failure;
+    private volatile boolean closed;
+
+    /**
+     * Background thread that flushes the log for batched and asynchronous policies.
+     */
+    private final Thread flusher;
+
+    /**
+     * Opens log for appending. A torn tail of an existing log is truncated,
+     * so the log should be {@link #replay(Path, Bank) replayed} before it is opened.
+     *
+     * @param file   log file.
+     * @param policy sync policy.
+     * @throws IOException when log cannot be opened.
+     */
+    public WriteAheadLog(Path file, SyncPolicy policy) throws IOException {
+        this.policy = policy;
+        long length = Files.exists(file) ? replay(file, null) : 0;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(length);
+        channel.position(length);
+        appendedLsn = length;
+        flushedLsn = length;
+        if (policy.waitForSync) {
+            flusher = null;
+        } else {
+            flusher = new Thread(this::runFlusher, "WriteAheadLog-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
+
+    /**
+     * Appends deposit record.
+     *
+     * @return LSN of the record.
+     */
+    long logDeposit(int index, long amount) {
+        return append(DEPOSIT, index, 0, amount);
+    }
+
+    /**
+     * Appends withdrawal record.
+     *
+     * @return LSN of the record.
+     */
+    long logWithdraw(int index, long amount) {
+        return append(WITHDRAW, index, 0, amount);
+    }
+
+    /**
+     * Appends transfer record.
+     *
+     * @return LSN of the record.
+     */
+    long logTransfer(int fromIndex, int toIndex, long amount) {
+        return append(TRANSFER, fromIndex, toIndex, amount);
+    }
+
+    /**
+     * Appends record of opening account, see {@link BankImpl#openAccount()}.
+     *
+     * @return LSN of the record.
+     */
+    long logOpenAccount(int index) {
+        return append(OPEN, index, 0, 0);
+    }
+
+    /**
+     * Appends a group of transfer records for the transfers with {@link Bank#OK} status.
+     *
+     * @return LSN of the group, or 0 when no transfer succeeded.
+     */
+    long logTransfers(int[] fromIndices, int[] toIndices, long[] amounts, int[] status) {
+        int count = 0;
+        for (int s : status) {
+            if (s == Bank.OK)
+                count++;
+        }
+        if (count == 0)
+            return 0;
+        appendLock.lock();
+        try {
+            ensureCapacity((count + 1) * RECORD_SIZE);
+            put(GROUP, count, 0, 0);
+            for (int i = 0; i < status.length; i++) {
+                if (status[i] == Bank.OK)
+                    put(TRANSFER, fromIndices[i], toIndices[i], amounts[i]);
+            }
+            return appended(count + 1);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Appends a group of deposit and withdrawal records that change the specified accounts
+     * by the corresponding non-zero deltas.
+     *
+     * @return LSN of the group, or 0 when all deltas are zero.
+     */
+    long logChanges(int[] indices, long[] deltas) {
+        int count = 0;
+        for (long delta : deltas) {
+            if (delta != 0)
+                count++;
+        }
+        if (count == 0)
+            return 0;
+        appendLock.lock();
+        try {
+            ensureCapacity((count + 1) * RECORD_SIZE);
+            put(GROUP, count, 0, 0);
+            for (int i = 0; i < indices.length; i++) {
+                if (deltas[i] > 0)
+                    put(DEPOSIT, indices[i], 0, deltas[i]);
+                else if (deltas[i] < 0)
+                    put(WITHDRAW, indices[i], 0, -deltas[i]);
+            }
+            return appended(count + 1);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Returns LSN of the last appended record, or the length of the log when nothing is appended yet.
+     */
+    long getAppendedLsn() {
+        appendLock.lock();
+        try {
+            return appendedLsn;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Writes records up to the specified LSN and forces the log to the storage device, whatever the sync policy.
+     *
+     * @throws IOException when the log failed to be written.
+     */
+    void sync(long lsn) throws IOException {
+        IOException failure = this.failure;
+        if (failure != null)
+            throw failure;
+        flush(lsn);
+        channel.force(false);
+    }
+
+    /**
+     * Waits until the record with the specified LSN is durable as required by the sync policy.
+     * Must not be invoked while holding account locks.
+     *
+     * @param lsn LSN of the record.
+     * @throws UncheckedIOException when the log failed to be written. The operation is applied to the bank,
+     *                              but it may be lost.
+     */
+    void awaitDurable(long lsn) {
+        IOException failure = this.failure;
+        if (failure != null)
+            throw new UncheckedIOException("Write-ahead log failed", failure);
+        if (!policy.waitForSync || flushedLsn >= lsn)
+            return;
+        try {
+            flush(lsn);
+        } catch (IOException e) {
+            this.failure = e;
+            throw new UncheckedIOException("Write-ahead log failed", e);
+        }
+    }
+
+    /**
+     * Writes and forces all appended records to the file, stops background flushing and closes the file.
+     *
+     * @throws IOException when the log failed to be written.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (flusher != null) {
+            LockSupport.unpark(flusher);
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            if (failure != null)
+                throw failure;
+            flush(Long.MAX_VALUE);
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private long append(byte type, int index1, int index2, long amount) {
+        appendLock.lock();
+        try {
+            ensureCapacity(RECORD_SIZE);
+            put(type, index1, index2, amount);
+            return appended(1);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if (buffer.remaining() < size) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + size));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+
+    private void put(byte type, int index1, int index2, long amount) {
+        buffer.put(type).putInt(index1).putInt(index2).putLong(amount);
+    }
+
+    private long appended(int records) {
+        appendedLsn += records * RECORD_SIZE;
+        if (flusher != null && buffer.position() >= policy.maxBytes)
+            LockSupport.unpark(flusher);
+        return appendedLsn;
+    }
+
+    /**
+     * Writes all appended records when records up to the specified LSN are not written yet.
+     */
+    private void flush(long lsn) throws IOException {
+        flushLock.lock();
+        try {
+            if (flushedLsn >= lsn)
+                return; // written by another thread while this one was waiting for the lock
+            ByteBuffer records;
+            long recordsLsn;
+            appendLock.lock();
+            try {
+                if (buffer.position() == 0)
+                    return; // nothing to write
+                records = buffer;
+                recordsLsn = appendedLsn;
+                buffer = spare;
+            } finally {
+                appendLock.unlock();
+            }
+            records.flip();
+            while (records.hasRemaining())
+                channel.write(records);
+            records.clear();
+            spare = records;
+            if (policy.force)
+                channel.force(false);
+            flushedLsn = recordsLsn;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void runFlusher() {
+        while (!closed && failure == null) {
+            LockSupport.parkNanos(this, policy.maxDelayNanos);
+            try {
+                flush(Long.MAX_VALUE);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * Replays log into the bank. Replay stops at the first incomplete record or group of records,
+     * which is what a crash in the middle of a write leaves.
+     *
+     * @param file log file.
+     * @param bank bank to apply operations to, or null to only find the valid length of the log.
+     * @return the length of the valid part of the log, that is the LSN of its last complete record.
+     * @throws IOException when log cannot be read.
+     * @throws UnsupportedOperationException when the log opens accounts and the bank is not a {@link BankImpl}.
+     */
+    public static long replay(Path file, Bank bank) throws IOException {
+        return replay(file, 0, null, bank);
+    }
+
+    /**
+     * Replays the tail of the log that follows a checkpoint into the bank restored from it.
+     * An operation is applied only to those of its accounts that are not already reflected
+     * in the checkpoint, so a transfer may be applied as a single deposit or withdrawal.
+     *
+     * @param file      log file.
+     * @param fromLsn   LSN to start from, the least LSN of the checkpoint blocks.
+     * @param blockLsns LSNs of the checkpoint blocks, or null to apply every operation.
+     * @param bank      bank to apply operations to, or null to only find the valid length of the log.
+     * @return the length of the valid part of the log.
+     * @throws IOException when log cannot be read or is shorter than the checkpoint.
+     */
+    static long replay(Path file, long fromLsn, long[] blockLsns, Bank bank) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < fromLsn)
+                throw new IOException("Write-ahead log is shorter than the checkpoint: " + file);
+            channel.position(fromLsn);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            long position = fromLsn;
+            byte[] group = new byte[0];
+            while (true) {
+                byte type;
+                int index1;
+                int index2;
+                long amount;
+                try {
+                    type = in.readByte();
+                    index1 = in.readInt();
+                    index2 = in.readInt();
+                    amount = in.readLong();
+                } catch (EOFException e) {
+                    return position;
+                }
+                if (type == GROUP) {
+                    if (index1 <= 0 || index1 > (channel.size() - position - RECORD_SIZE) / RECORD_SIZE)
+                        return position; // a torn or garbage count, the group cannot fit in the file
+                    int size = index1 * RECORD_SIZE;
+                    if (group.length < size)
+                        group = new byte[size];
+                    try {
+                        in.readFully(group, 0, size);
+                    } catch (EOFException e) {
+                        return position;
+                    }
+                    ByteBuffer records = ByteBuffer.wrap(group, 0, size);
+                    for (int i = 0; i < index1; i++) {
+                        byte t = records.get();
+                        if (t != DEPOSIT && t != WITHDRAW && t != TRANSFER)
+                            return position;
+                        records.position(records.position() + RECORD_SIZE - 1);
+                    }
+                    records.rewind();
+                    position += RECORD_SIZE + size;
+                    for (int i = 0; i < index1; i++) {
+                        apply(bank, blockLsns, position,
+                                records.get(), records.getInt(), records.getInt(), records.getLong());
+                    }
+                } else if (type == DEPOSIT || type == WITHDRAW || type == TRANSFER || type == OPEN) {
+                    position += RECORD_SIZE;
+                    apply(bank, blockLsns, position, type, index1, index2, amount);
+                } else
+                    return position; // not a record, the rest of the file was never written
+            }
+        }
+    }
+
+    private static void apply(Bank bank, long[] blockLsns, long lsn, byte type, int index1, int index2, long amount) {
+        if (bank == null)
+            return;
+        boolean first = isAfter(blockLsns, lsn, index1);
+        switch (type) {
+            case DEPOSIT:
+                if (first)
+                    bank.deposit(index1, amount);
+                break;
+            case WITHDRAW:
+                if (first)
+                    bank.withdraw(index1, amount);
+                break;
+            case TRANSFER:
+                boolean second = isAfter(blockLsns, lsn, index2);
+                if (first && second)
+                    bank.transfer(index1, index2, amount);
+                else if (first)
+                    bank.withdraw(index1, amount);
+                else if (second)
+                    bank.deposit(index2, amount);
+                break;
+            case OPEN:
+                if (index1 >= bank.getNumberOfAccounts()) { // otherwise the account is restored already
+                    if (!(bank instanceof BankImpl))
+                        throw new UnsupportedOperationException("Bank cannot open accounts: " + bank);
+                    ((BankImpl) bank).openAccount();
+                }
+                break;
+        }
+    }
+
+    /**
+     * Checks whether the record with the specified LSN is not reflected in the checkpoint for the account.
+     * Accounts after the blocks of the checkpoint were opened after it.
+     */
+    private static boolean isAfter(long[] blockLsns, long lsn, int index) {
+        int block = index / Checkpoint.BLOCK_SIZE;
+        return blockLsns == null || block >= blockLsns.length || lsn > blockLsns[block];
+    }
+
+    /**
+     * Defines when log records are written to the file and forced to the storage device.
+     */
+    public static final class SyncPolicy {
+        final boolean waitForSync;
+        final boolean force;
+        final long maxDelayNanos;
+        final int maxBytes;
+
+        private SyncPolicy(boolean waitForSync, boolean force, long maxDelayNanos, int maxBytes) {
+            this.waitForSync = waitForSync;
+            this.force = force;
+            this.maxDelayNanos = maxDelayNanos;
+            this.maxBytes = maxBytes;
+        }
+
+        /**
+         * Every operation returns only after its record is forced to the storage device.
+         * Concurrent operations share one force.
+         */
+        public static SyncPolicy everyOperation() {
+            return new SyncPolicy(true, true, 0, Integer.MAX_VALUE);
+        }
+
+        /**
+         * Operations do not wait. Records are written and forced to the storage device in the background
+         * at least once per the specified delay, or earlier when the specified number of bytes is buffered.
+         * Operations completed within the last delay may be lost in a crash.
+         */
+        public static SyncPolicy batched(long maxDelay, TimeUnit unit, int maxBytes) {
+            if (maxDelay <= 0 || maxBytes <= 0)
+                throw new IllegalArgumentException("Invalid batch: " + maxDelay + " " + unit + ", " + maxBytes + " bytes");
+            return new SyncPolicy(false, true, unit.toNanos(maxDelay), maxBytes);
+        }
+
+        /**
+         * Operations do not wait. Records are written to the file in the background every 10 milliseconds,
+         * but are never forced, so the operating system decides when they reach the storage device.
+         */
+        public static SyncPolicy async() {
+            return new SyncPolicy(false, false, TimeUnit.MILLISECONDS.toNanos(10), INITIAL_BUFFER_SIZE);
+        }
+    }
+}
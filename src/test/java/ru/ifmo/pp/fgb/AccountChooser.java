@@ -0,0 +1,119 @@
+package ru.ifmo.pp.fgb;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Chooses account indices for benchmark operations with uniform, zipfian or hotspot distribution.
+ * <p/>
+ * <p>Zipfian and hotspot ranks are mapped to accounts through a fixed random permutation, so the hottest accounts
+ * are not neighbours in memory. Choosing does not allocate.
+ *
+ * @author Markina Margarita
+ */
+class AccountChooser {
+    static final String UNIFORM = "uniform";
+    static final String ZIPFIAN = "zipfian";
+    static final String HOTSPOT = "hotspot";
+
+    /**
+     * Exponent of zipfian distribution, the same as the YCSB default.
+     */
+    private static final double ZIPFIAN_EXPONENT = 0.99;
+
+    /**
+     * Fraction of hot accounts and fraction of choices that fall on them, the same as the YCSB default.
+     */
+    private static final double HOT_ACCOUNTS = 0.2;
+    private static final double HOT_CHOICES = 0.8;
+
+    private final int n;
+
+    /**
+     * Cumulative probabilities of ranks for zipfian distribution, or null.
+     */
+    private final double[] cdf;
+
+    /**
+     * The number of hot accounts for hotspot distribution, or 0.
+     */
+    private final int hot;
+
+    /**
+     * Account index of each rank, or null for uniform distribution.
+     */
+    private final int[] accounts;
+
+    /**
+     * Creates chooser.
+     *
+     * @param n    the number of accounts.
+     * @param skew {@link #UNIFORM}, {@link #ZIPFIAN} or {@link #HOTSPOT}.
+     */
+    AccountChooser(int n, String skew) {
+        this.n = n;
+        switch (skew) {
+            case UNIFORM:
+                cdf = null;
+                hot = 0;
+                accounts = null;
+                return;
+            case ZIPFIAN:
+                hot = 0;
+                cdf = new double[n];
+                double sum = 0;
+                for (int i = 0; i < n; i++) {
+                    sum += 1 / Math.pow(i + 1, ZIPFIAN_EXPONENT);
+                    cdf[i] = sum;
+                }
+                for (int i = 0; i < n; i++)
+                    cdf[i] /= sum;
+                break;
+            case HOTSPOT:
+                cdf = null;
+                hot = Math.max(1, (int) (n * HOT_ACCOUNTS));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown skew: " + skew);
+        }
+        accounts = new int[n];
+        for (int i = 0; i < n; i++)
+            accounts[i] = i;
+        Random rnd = new Random(20141101);
+        for (int i = n - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            int t = accounts[i];
+            accounts[i] = accounts[j];
+            accounts[j] = t;
+        }
+    }
+
+    /**
+     * Returns random account index.
+     */
+    int next() {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        if (accounts == null)
+            return rnd.nextInt(n);
+        if (cdf == null) {
+            boolean hotChoice = hot == n || rnd.nextDouble() < HOT_CHOICES;
+            return accounts[hotChoice ? rnd.nextInt(hot) : hot + rnd.nextInt(n - hot)];
+        }
+        int rank = Arrays.binarySearch(cdf, rnd.nextDouble());
+        if (rank < 0)
+            rank = -rank - 1;
+        return accounts[Math.min(rank, n - 1)];
+    }
+
+    /**
+     * Returns random account index that differs from the specified one.
+     */
+    int nextOther(int index) {
+        while (true) {
+            int result = next();
+            if (result != index)
+                return result;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package ru.ifmo.pp.fgb;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Meter of memory that operations of bank implementations allocate. Every operation of the {@link Bank}
+ * interface is run on its successful path many times, first to warm it up and then to measure it. Bytes are
+ * counted with per-thread allocation counters of the JVM, so only allocations of the threads that invoke
+ * operations are counted, not those of the JIT compiler or of the threads of the bank itself.
+ * <p/>
+ * <p>Operations are measured in {@link #MEASURED_ROUNDS} rounds and the least count of bytes is reported.
+ * A thread may take a contended path for the first time only in a measured round, especially on a single
+ * processor, and then it creates its reusable per-thread objects there. Allocation on every operation shows
+ * up in every round.
+ * <p/>
+ * <p>All threads work with the same two accounts, so with more than one thread the contended paths
+ * of operations are measured too.
+ * <p/>
+ * <p>Run it with test classes on the class path, for example:
+ * <pre>
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes ru.ifmo.pp.fgb.AllocationMeter --threads=4
+ * </pre>
+ *
+ * @author Markina Margarita
+ */
+public class AllocationMeter {
+    /**
+     * Measured operations.
+     */
+    enum Op {
+        GET_AMOUNT, GET_TOTAL_AMOUNT, DEPOSIT, WITHDRAW, TRANSFER
+    }
+
+    /**
+     * Amount deposited to both accounts before measurement, so that no withdrawal or transfer underflows.
+     */
+    private static final long RESERVE = 1_000_000_000_000L;
+
+    private static final int MEASURED_ROUNDS = 2;
+
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private int threads = 1;
+    private long operations = 1_000_000;
+
+    /**
+     * Runs meter with options of the form {@code --name=value}.
+     *
+     * @param args options: bank (all of {@link Banks} by default), threads and operations per thread.
+     */
+    public static void main(String[] args) throws Exception {
+        AllocationMeter meter = new AllocationMeter();
+        String[] implementations = Banks.ALL;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0)
+                throw new IllegalArgumentException("Invalid option: " + arg);
+            String value = arg.substring(eq + 1);
+            switch (arg.substring(2, eq)) {
+                case "bank":
+                    implementations = new String[]{value};
+                    break;
+                case "threads":
+                    meter.threads(Integer.parseInt(value));
+                    break;
+                case "operations":
+                    meter.operations(Long.parseLong(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        for (String implementation : implementations)
+            System.out.println(meter.run(implementation));
+    }
+
+    AllocationMeter threads(int threads) {
+        if (threads <= 0)
+            throw new IllegalArgumentException("Invalid number of threads: " + threads);
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Sets the number of measured operations of every kind per thread. The same number is run before
+     * to warm up.
+     */
+    AllocationMeter operations(long operations) {
+        if (operations <= 0)
+            throw new IllegalArgumentException("Invalid number of operations: " + operations);
+        this.operations = operations;
+        return this;
+    }
+
+    /**
+     * Measures allocations of a new bank of the implementation, see {@link Banks}.
+     *
+     * @return report.
+     */
+    Report run(String implementation) throws InterruptedException, IOException {
+        Bank bank = Banks.create(implementation, 2);
+        try {
+            return run(implementation, bank);
+        } finally {
+            Banks.close(bank);
+        }
+    }
+
+    /**
+     * Measures allocations of the bank. It must have at least two empty accounts,
+     * and must be thread-safe when there are several threads.
+     *
+     * @param name name of the bank for the report.
+     * @return report.
+     */
+    Report run(String name, Bank bank) throws InterruptedException {
+        if (!THREAD_BEAN.isThreadAllocatedMemorySupported())
+            throw new UnsupportedOperationException("Thread allocated memory is not supported by this JVM");
+        THREAD_BEAN.setThreadAllocatedMemoryEnabled(true);
+        bank.deposit(0, RESERVE);
+        bank.deposit(1, RESERVE);
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+        Worker[] workers = new Worker[threads];
+        Thread[] ts = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Worker(bank, barrier, t);
+            ts[t] = new Thread(workers[t], "AllocationMeter-" + t);
+            ts[t].start();
+        }
+        for (Thread t : ts)
+            t.join();
+        long[] bytes = new long[Op.values().length];
+        for (Worker worker : workers) {
+            if (worker.failure != null)
+                throw new AssertionError("Worker failed", worker.failure);
+            for (int i = 0; i < bytes.length; i++)
+                bytes[i] += worker.bytes[i];
+        }
+        if (bank.getAmount(0) + bank.getAmount(1) != 2 * RESERVE || bank.getTotalAmount() != 2 * RESERVE)
+            throw new AssertionError("Amounts have changed: " + bank.getAmount(0) + ", " + bank.getAmount(1) +
+                    ", total " + bank.getTotalAmount());
+        return new Report(name, bytes);
+    }
+
+    /**
+     * Bytes allocated by operations of every kind.
+     */
+    class Report {
+        final String name;
+        final long[] bytes;
+
+        Report(String name, long[] bytes) {
+            this.name = name;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Returns the number of bytes allocated per operation on average.
+         */
+        double getBytesPerOperation(Op op) {
+            return (double) bytes[op.ordinal()] / (threads * operations);
+        }
+
+        /**
+         * Returns operations that have allocated anything.
+         */
+        List<Op> getOffenders() {
+            List<Op> offenders = new ArrayList<>();
+            for (Op op : Op.values()) {
+                if (bytes[op.ordinal()] > 0)
+                    offenders.add(op);
+            }
+            return offenders;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format("%s, %d threads, %d operations per thread:",
+                    name, threads, operations));
+            for (Op op : Op.values())
+                sb.append(String.format(" %s %.3f (%d)", op, getBytesPerOperation(op), bytes[op.ordinal()]));
+            return sb.append(" bytes per operation (in total)").toString();
+        }
+    }
+
+    /**
+     * Operations of one thread.
+     */
+    private class Worker implements Runnable {
+        private final Bank bank;
+        private final CyclicBarrier barrier;
+        /**
+         * Account of the first operation, so that threads start on different accounts.
+         */
+        private final int first;
+        private final long[] bytes = new long[Op.values().length];
+        private volatile Throwable failure;
+
+        Worker(Bank bank, CyclicBarrier barrier, int first) {
+            this.bank = bank;
+            this.barrier = barrier;
+            this.first = first & 1;
+        }
+
+        @Override
+        public void run() {
+            try {
+                // the counter itself does not allocate, but calibrate it anyway
+                long calibration = THREAD_BEAN.getCurrentThreadAllocatedBytes();
+                calibration = THREAD_BEAN.getCurrentThreadAllocatedBytes() - calibration;
+                for (Op op : Op.values()) {
+                    barrier.await();
+                    runOperations(op);
+                    long least = Long.MAX_VALUE;
+                    for (int round = 0; round < MEASURED_ROUNDS; round++) {
+                        barrier.await();
+                        long start = THREAD_BEAN.getCurrentThreadAllocatedBytes();
+                        runOperations(op);
+                        least = Math.min(least, THREAD_BEAN.getCurrentThreadAllocatedBytes() - start - calibration);
+                    }
+                    bytes[op.ordinal()] = least;
+                }
+            } catch (InterruptedException | BrokenBarrierException e) {
+                failure = e;
+            } catch (Throwable t) {
+                failure = t;
+                barrier.reset(); // other workers fail too instead of waiting forever
+            }
+        }
+
+        /**
+         * Runs operations of the kind on alternating accounts. Deposits are withdrawn by the same number
+         * of withdrawals, and transfers alternate their direction, so amounts end up as they were.
+         */
+        private void runOperations(Op op) {
+            long sum = 0;
+            switch (op) {
+                case GET_AMOUNT:
+                    for (long k = 0; k < operations; k++)
+                        sum += bank.getAmount((int) (k + first) & 1);
+                    break;
+                case GET_TOTAL_AMOUNT:
+                    for (long k = 0; k < operations; k++)
+                        sum += bank.getTotalAmount();
+                    break;
+                case DEPOSIT:
+                    for (long k = 0; k < operations; k++)
+                        sum += bank.deposit((int) (k + first) & 1, 1);
+                    break;
+                case WITHDRAW:
+                    for (long k = 0; k < operations; k++)
+                        sum += bank.withdraw((int) (k + first) & 1, 1);
+                    break;
+                case TRANSFER:
+                    for (long k = 0; k < operations; k++) {
+                        int from = (int) (k + first) & 1;
+                        bank.transfer(from, 1 - from, 1);
+                    }
+                    break;
+                default:
+                    throw new AssertionError();
+            }
+            if (sum < 0)
+                throw new AssertionError("Negative amount");
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package ru.ifmo.pp.fgb;
+
+import junit.framework.TestCase;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Test that operations of bank implementations do not allocate on their successful paths in steady state,
+ * see {@link AllocationMeter}.
+ *
+ * @author Markina Margarita
+ */
+public class AllocationTest extends TestCase {
+    private static final long OPERATIONS = 200_000;
+    private static final long REMOTE_OPERATIONS = 20_000;
+    private static final int CONTENDED_THREADS = 4;
+
+    public void testUncontended() throws Exception {
+        List<String> offenders = new ArrayList<>();
+        for (String implementation : Banks.ALL)
+            check(new AllocationMeter().operations(OPERATIONS).run(implementation), offenders);
+        assertTrue("Operations allocate: " + offenders, offenders.isEmpty());
+    }
+
+    public void testBankClient() throws Exception {
+        try (BankServer server = new BankServer(new BankImpl(2), new InetSocketAddress("localhost", 0));
+             BankClient client = new BankClient(server.getAddress())) {
+            List<String> offenders = new ArrayList<>();
+            check(new AllocationMeter().operations(REMOTE_OPERATIONS).run("BankClient", client), offenders);
+            assertTrue("Operations allocate: " + offenders, offenders.isEmpty());
+        }
+    }
+
+    /**
+     * Publishing to the change feed reuses its preallocated slots, while a consumer drains it.
+     */
+    public void testChangeFeed() throws Exception {
+        BankImpl bank = new BankImpl(2);
+        ChangeFeed feed = new ChangeFeed(1024, ChangeFeed.OverrunPolicy.BLOCK);
+        bank.setChangeFeed(feed);
+        ChangeFeed.Consumer consumer = feed.subscribe();
+        AtomicBoolean done = new AtomicBoolean();
+        Thread drainer = new Thread(() -> {
+            ChangeFeed.Handler handler = (sequence, type, index1, index2, amount) -> {};
+            while (!done.get()) {
+                if (consumer.poll(handler, 1024) == 0)
+                    Thread.yield();
+            }
+        });
+        drainer.start();
+        try {
+            List<String> offenders = new ArrayList<>();
+            check(new AllocationMeter().operations(OPERATIONS).run("BankImpl with change feed", bank), offenders);
+            assertTrue("Operations allocate: " + offenders, offenders.isEmpty());
+        } finally {
+            done.set(true);
+            drainer.join();
+        }
+    }
+
+    /**
+     * Contended deposits and withdrawals of {@link BankImpl} are applied by the holder of the lock and reuse
+     * the request of their thread. Contended transfers may block on the account lock, which allocates its
+     * queue node, so they are only reported.
+     */
+    public void testContended() throws Exception {
+        AllocationMeter.Report report = new AllocationMeter().threads(CONTENDED_THREADS).operations(OPERATIONS)
+                .run(Banks.BANK_IMPL);
+        System.out.println(report);
+        List<AllocationMeter.Op> offenders = report.getOffenders();
+        offenders.remove(AllocationMeter.Op.TRANSFER);
+        assertTrue("Contended operations of " + report.name + " allocate: " + offenders, offenders.isEmpty());
+    }
+
+    private static void check(AllocationMeter.Report report, List<String> offenders) {
+        System.out.println(report);
+        for (AllocationMeter.Op op : report.getOffenders())
+            offenders.add(report.name + "." + op);
+    }
+}
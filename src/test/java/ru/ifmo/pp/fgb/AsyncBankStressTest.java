@@ -0,0 +1,22 @@
+package ru.ifmo.pp.fgb;
+
+/**
+ * Multi-threaded stress test for {@link AsyncBank}, whose threads wait for every operation.
+ *
+ * @author Markina Margarita
+ */
+public class AsyncBankStressTest extends MTStressTest {
+    private AsyncBank asyncBank; // assigned from the super class constructor, so no initializer here
+
+    @Override
+    protected Bank createBank(int n) {
+        asyncBank = new AsyncBank(n, 4);
+        return new BlockingBank(asyncBank);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        asyncBank.close();
+        super.tearDown();
+    }
+}
@@ -0,0 +1,41 @@
+package ru.ifmo.pp.fgb;
+
+/**
+ * Functional single-threaded test-suite for {@link AsyncBank} with accounts in different shards.
+ *
+ * @author Markina Margarita
+ */
+public class AsyncBankTest extends FunctionalTest {
+    private AsyncBank asyncBank; // assigned from the super class constructor, so no initializer here
+
+    @Override
+    protected Bank createBank(int n) {
+        asyncBank = new AsyncBank(n, 3);
+        return new BlockingBank(asyncBank);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        asyncBank.close();
+        super.tearDown();
+    }
+
+    public void testFailedFutures() {
+        AsyncBank bank = new AsyncBank(4, 2);
+        try {
+            assertTrue(bank.getAmount(4).isCompletedExceptionally());
+            assertTrue(bank.deposit(-1, 10).isCompletedExceptionally());
+            assertEquals(Bank.INVALID_ARGUMENT, (int) bank.tryTransfer(1, 1, 10).join());
+            bank.deposit(0, 100).join();
+            assertTrue(bank.transfer(0, 1, 200).handle((r, t) -> t != null).join());
+            bank.transfer(0, 1, 30).join(); // across shards
+            bank.transfer(0, 2, 20).join(); // within a shard
+            assertEquals(50, (long) bank.getAmount(0).join());
+            assertEquals(30, (long) bank.getAmount(1).join());
+            assertEquals(20, (long) bank.getAmount(2).join());
+            assertEquals(100, (long) bank.getTotalAmount().join());
+        } finally {
+            bank.close();
+        }
+    }
+}
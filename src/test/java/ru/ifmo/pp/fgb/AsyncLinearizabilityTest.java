@@ -0,0 +1,63 @@
+package ru.ifmo.pp.fgb;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Automated test of linearizability of {@link AsyncBank}. Operations of every "thread" of an execution
+ * are chained one after another, and chains of all threads are submitted at once from a single thread,
+ * so that they are in flight concurrently.
+ * <p/>
+ * <p>The bank is reused between executions: run accounts are emptied after every one of them.
+ *
+ * @author Markina Margarita
+ */
+public class AsyncLinearizabilityTest extends LinearizabilityTest {
+    private static final int SHARDS = 3;
+
+    private AsyncBank bank;
+
+    @Override
+    protected void setUp() {
+        bank = new AsyncBank(N, SHARDS);
+    }
+
+    @Override
+    protected void tearDown() {
+        bank.close();
+    }
+
+    @Override
+    protected void startThreads() {
+        // operations are invoked asynchronously from the main thread
+    }
+
+    @Override
+    protected void execute() {
+        for (int i = 0; i < RUN_ACCOUNTS; i++)
+            bank.deposit(runAccounts[i], baseAmount[i]).join();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[THREADS];
+        for (int threadNo = 0; threadNo < THREADS; threadNo++)
+            futures[threadNo] = invoke(calls[threadNo], 0);
+        CompletableFuture.allOf(futures).join();
+        for (int i = 0; i < RUN_ACCOUNTS; i++) {
+            long amount = bank.getAmount(runAccounts[i]).join();
+            if (amount > 0)
+                bank.withdraw(runAccounts[i], amount).join();
+        }
+    }
+
+    /**
+     * Invokes calls of a thread one after another, starting from the specified one.
+     */
+    private CompletableFuture<?> invoke(LinearizabilityChecker.Call[] calls, int k) {
+        if (k == calls.length)
+            return CompletableFuture.completedFuture(null);
+        LinearizabilityChecker.Call call = calls[k];
+        call.invoked = System.nanoTime();
+        return call.operation.invoke(bank).thenCompose(result -> {
+            call.responded = System.nanoTime();
+            call.result = result;
+            return invoke(calls, k + 1);
+        });
+    }
+}
@@ -0,0 +1,137 @@
+package ru.ifmo.pp.fgb;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loopback load test for {@link BankServer}. Clients send a mix of deposits, withdrawals and transfers
+ * with a fixed number of pipelined requests in flight and report requests per second and latency percentiles.
+ *
+ * @author Markina Margarita
+ */
+public class BankServerLoadTest extends TestCase {
+    private static final int N = 1000;
+    private static final long MEAN = 1_000_000_000;
+    private static final int AMT = 1_000;
+    private static final int CLIENTS = 4;
+    private static final long DURATION_MILLIS = 2000;
+    private static final int MAX_SAMPLES = 1 << 20; // latencies of later requests are not recorded
+
+    public void testWithoutPipelining() throws Exception {
+        runLoad(1, null);
+    }
+
+    public void testPipelining() throws Exception {
+        runLoad(64, null);
+    }
+
+    public void testPipeliningWithExecutor() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            runLoad(64, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void runLoad(int window, ExecutorService executor) throws Exception {
+        BankImpl bank = new BankImpl(N);
+        for (int i = 0; i < N; i++)
+            bank.deposit(i, MEAN);
+        AtomicLong deposited = new AtomicLong(N * MEAN);
+        AtomicLong requests = new AtomicLong();
+        AtomicBoolean failed = new AtomicBoolean();
+        long[][] latencies = new long[CLIENTS][];
+        try (BankServer server = new BankServer(bank, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                executor)) {
+            InetSocketAddress address = server.getAddress();
+            Thread[] threads = new Thread[CLIENTS];
+            for (int c = 0; c < CLIENTS; c++) {
+                int client = c;
+                threads[c] = new Thread(() -> {
+                    try (BankClient bankClient = new BankClient(address)) {
+                        latencies[client] = runClient(bankClient, window, deposited, requests);
+                    } catch (Throwable e) {
+                        e.printStackTrace();
+                        failed.set(true);
+                    }
+                }, "LoadClient-" + c);
+                threads[c].start();
+            }
+            for (Thread thread : threads)
+                thread.join();
+        }
+        assertFalse(failed.get());
+        assertEquals(deposited.get(), bank.getTotalAmount());
+        long[] all = new long[0];
+        for (long[] l : latencies) {
+            int from = all.length;
+            all = Arrays.copyOf(all, from + l.length);
+            System.arraycopy(l, 0, all, from, l.length);
+        }
+        Arrays.sort(all);
+        System.out.printf("Window %d%s: %d requests/s, latency p50 %d us, p99 %d us%n", window,
+                executor == null ? "" : " with executor",
+                requests.get() * 1000 / DURATION_MILLIS,
+                all[all.length / 2] / 1000, all[(int) (all.length * 0.99)] / 1000);
+    }
+
+    /**
+     * Sends requests keeping the specified number of them in flight.
+     *
+     * @return latencies of requests in nanoseconds.
+     */
+    private static long[] runClient(BankClient client, int window, AtomicLong deposited, AtomicLong requests)
+            throws IOException {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        long[] sendTimes = new long[window];
+        byte[] operations = new byte[window];
+        long[] amounts = new long[window];
+        long[] latencies = new long[MAX_SAMPLES];
+        int samples = 0;
+        long sent = 0;
+        long received = 0;
+        long tillTimeMillis = System.currentTimeMillis() + DURATION_MILLIS;
+        while (true) {
+            boolean sending = System.currentTimeMillis() < tillTimeMillis;
+            if (sending && sent - received < window) {
+                int slot = (int) (sent % window);
+                int i = rnd.nextInt(N);
+                long amount = rnd.nextInt(AMT) + 1;
+                byte operation = (byte) (BankServer.DEPOSIT + rnd.nextInt(3));
+                int j = operation == BankServer.TRANSFER ? (i + 1 + rnd.nextInt(N - 1)) % N : 0;
+                operations[slot] = operation;
+                amounts[slot] = amount;
+                sendTimes[slot] = System.nanoTime();
+                client.send(operation, i, j, amount);
+                sent++;
+                if (sent - received < window)
+                    continue; // fill the window before waiting for responses
+            }
+            if (received == sent)
+                break;
+            long result = client.receive();
+            int slot = (int) (received % window);
+            received++;
+            if (samples < MAX_SAMPLES)
+                latencies[samples++] = System.nanoTime() - sendTimes[slot];
+            if (result < 0 && result != Bank.UNDERFLOW && result != Bank.OVERFLOW)
+                throw new AssertionError("Unexpected status " + result);
+            if (result >= 0 && operations[slot] == BankServer.DEPOSIT)
+                deposited.addAndGet(amounts[slot]);
+            else if (result >= 0 && operations[slot] == BankServer.WITHDRAW)
+                deposited.addAndGet(-amounts[slot]);
+        }
+        requests.addAndGet(received);
+        return Arrays.copyOf(latencies, samples);
+    }
+}
@@ -0,0 +1,106 @@
+package ru.ifmo.pp.fgb;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Functional single-threaded test-suite for {@link BankImpl} served by {@link BankServer}
+ * and used through {@link BankClient}.
+ *
+ * @author Markina Margarita
+ */
+public class BankServerTest extends FunctionalTest {
+    @Override
+    protected Bank createBank(int n) {
+        try {
+            return new BankClient(startServer(new BankImpl(n)).getAddress());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void testPipelining() throws IOException {
+        try (BankServer server = startServer(new BankImpl(3))) {
+            checkPipelining(server);
+        }
+    }
+
+    public void testPipeliningWithExecutor() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (BankServer server = new BankServer(new BankImpl(3),
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), executor)) {
+            checkPipelining(server);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * An unexpected exception of the bank fails only the operation, the connection and the server stay usable.
+     */
+    public void testFailure() throws IOException {
+        BankImpl bank = new BankImpl(3) {
+            @Override
+            public long tryDeposit(int index, long amount) {
+                if (index == 2)
+                    throw new UncheckedIOException(new IOException("Disk is full"));
+                return super.tryDeposit(index, amount);
+            }
+        };
+        try (BankServer server = startServer(bank);
+             BankClient client = new BankClient(server.getAddress())) {
+            client.send(BankServer.DEPOSIT, 2, 0, 1);
+            assertEquals(BankServer.FAILURE, client.receive());
+            try {
+                client.deposit(2, 1);
+                fail();
+            } catch (IllegalStateException e) {
+                // ok
+            }
+            assertEquals(5, client.deposit(0, 5));
+            try (BankClient other = new BankClient(server.getAddress())) {
+                assertEquals(5, other.getAmount(0));
+            }
+        }
+    }
+
+    public void testTransferInvalidIndex() throws IOException {
+        try (BankServer server = startServer(new BankImpl(3));
+             BankClient client = new BankClient(server.getAddress())) {
+            try {
+                client.tryTransfer(0, 3, 1);
+                fail();
+            } catch (IndexOutOfBoundsException e) {
+                assertEquals("Invalid account index: 3", e.getMessage());
+            }
+        }
+    }
+
+    private static void checkPipelining(BankServer server) throws IOException {
+        try (BankClient client = new BankClient(server.getAddress())) {
+            for (int k = 0; k < BankClient.MAX_PIPELINED; k++)
+                client.send(BankServer.DEPOSIT, 0, 0, 1);
+            client.send(BankServer.TRANSFER, 0, 1, 10);
+            client.send(BankServer.WITHDRAW, 5, 0, 1);
+            for (int k = 1; k <= BankClient.MAX_PIPELINED; k++)
+                assertEquals(k, client.receive());
+            assertEquals(Bank.OK, client.receive());
+            assertEquals(Bank.INVALID_INDEX, client.receive());
+            assertEquals(BankClient.MAX_PIPELINED - 10, client.getAmount(0));
+            try {
+                client.getAmount(3);
+                fail();
+            } catch (IndexOutOfBoundsException e) {
+                // ok
+            }
+        }
+    }
+
+    private static BankServer startServer(Bank bank) throws IOException {
+        return new BankServer(bank, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+}
@@ -0,0 +1,61 @@
+package ru.ifmo.pp.fgb;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Bank implementations that benchmarks and {@link LoadGenerator} are parameterized with.
+ *
+ * @author Markina Margarita
+ */
+class Banks {
+    static final String BANK_IMPL = "BankImpl";
+    static final String PACKED = "PackedBankImpl";
+    static final String PADDED = "PaddedPackedBankImpl";
+    static final String OFF_HEAP = "OffHeapBankImpl";
+    static final String STRIPED = "StripedBankImpl";
+    static final String GLOBAL_LOCK = "GlobalLockSequentialBank";
+
+    /**
+     * Names of all implementations.
+     */
+    static final String[] ALL = {BANK_IMPL, PACKED, PADDED, OFF_HEAP, STRIPED, GLOBAL_LOCK};
+
+    private static final int STRIPES = 8;
+
+    private Banks() {}
+
+    /**
+     * Creates bank by its benchmark name.
+     *
+     * @param name name of the implementation.
+     * @param n    the number of accounts.
+     * @return new bank.
+     */
+    static Bank create(String name, int n) {
+        switch (name) {
+            case BANK_IMPL:
+                return new BankImpl(n);
+            case PACKED:
+                return new PackedBankImpl(n);
+            case PADDED:
+                return new PackedBankImpl(n, true);
+            case OFF_HEAP:
+                return new OffHeapBankImpl(n);
+            case STRIPED:
+                return new StripedBankImpl(n, STRIPES);
+            case GLOBAL_LOCK:
+                return new GlobalLockBank(new SequentialBank(n));
+            default:
+                throw new IllegalArgumentException("Unknown bank: " + name);
+        }
+    }
+
+    /**
+     * Releases resources of the bank, if any.
+     */
+    static void close(Bank bank) throws IOException {
+        if (bank instanceof Closeable)
+            ((Closeable) bank).close();
+    }
+}
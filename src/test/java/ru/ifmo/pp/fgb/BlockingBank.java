@@ -0,0 +1,94 @@
+package ru.ifmo.pp.fgb;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Blocking {@link Bank} view of {@link AsyncBank} that waits for the result of every operation,
+ * so that bank tests can be run against it.
+ *
+ * @author Markina Margarita
+ */
+class BlockingBank implements Bank {
+    private final AsyncBank bank;
+
+    BlockingBank(AsyncBank bank) {
+        this.bank = bank;
+    }
+
+    @Override
+    public int getNumberOfAccounts() {
+        return bank.getNumberOfAccounts();
+    }
+
+    @Override
+    public long getAmount(int index) {
+        return join(bank.getAmount(index));
+    }
+
+    @Override
+    public long getTotalAmount() {
+        return join(bank.getTotalAmount());
+    }
+
+    @Override
+    public long deposit(int index, long amount) {
+        return join(bank.deposit(index, amount));
+    }
+
+    @Override
+    public long withdraw(int index, long amount) {
+        return join(bank.withdraw(index, amount));
+    }
+
+    @Override
+    public void transfer(int fromIndex, int toIndex, long amount) {
+        join(bank.transfer(fromIndex, toIndex, amount));
+    }
+
+    @Override
+    public long tryDeposit(int index, long amount) {
+        return join(bank.tryDeposit(index, amount));
+    }
+
+    @Override
+    public long tryWithdraw(int index, long amount) {
+        return join(bank.tryWithdraw(index, amount));
+    }
+
+    @Override
+    public int tryTransfer(int fromIndex, int toIndex, long amount) {
+        return join(bank.tryTransfer(fromIndex, toIndex, amount));
+    }
+
+    /**
+     * Transfers one by one, which is allowed by {@link Bank#transferBatch(int[], int[], long[])},
+     * since it does not require the batch to be atomic.
+     */
+    @Override
+    public int[] transferBatch(int[] fromIndices, int[] toIndices, long[] amounts) {
+        int size = fromIndices.length;
+        if (toIndices.length != size || amounts.length != size)
+            throw new IllegalArgumentException("Batch arrays have different lengths");
+        for (int i = 0; i < size; i++) {
+            if (fromIndices[i] < 0 || fromIndices[i] >= getNumberOfAccounts())
+                throw new IndexOutOfBoundsException("Invalid account index: " + fromIndices[i]);
+            if (toIndices[i] < 0 || toIndices[i] >= getNumberOfAccounts())
+                throw new IndexOutOfBoundsException("Invalid account index: " + toIndices[i]);
+        }
+        int[] status = new int[size];
+        for (int i = 0; i < size; i++)
+            status[i] = tryTransfer(fromIndices[i], toIndices[i], amounts[i]);
+        return status;
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+}
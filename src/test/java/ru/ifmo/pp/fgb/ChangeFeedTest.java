@@ -0,0 +1,139 @@
+package ru.ifmo.pp.fgb;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test-suite for {@link ChangeFeed} and {@link BankImpl#setChangeFeed(ChangeFeed)}.
+ *
+ * @author Markina Margarita
+ */
+public class ChangeFeedTest extends TestCase {
+    private static final int N = 10;
+    private static final int THREADS = 4;
+    private static final int OPERATIONS = 20_000;
+    private static final int CAPACITY = 1024;
+
+    public void testEvents() {
+        BankImpl bank = new BankImpl(N);
+        ChangeFeed feed = new ChangeFeed(CAPACITY, ChangeFeed.OverrunPolicy.BLOCK);
+        bank.setChangeFeed(feed);
+        ChangeFeed.Consumer consumer = feed.subscribe();
+        bank.deposit(0, 100);
+        bank.tryWithdraw(1, 1); // fails, not published
+        bank.withdraw(0, 10);
+        bank.transfer(0, 2, 20);
+        bank.transferBatch(new int[]{2, 3, 0}, new int[]{3, 4, 5}, new long[]{5, 1000, 7});
+        bank.atomically(new int[]{0, 6}, tx -> {
+            tx.transfer(0, 6, 3);
+            tx.deposit(6, 1);
+        });
+        List<String> events = new ArrayList<>();
+        assertEquals(7, consumer.poll((sequence, type, index1, index2, amount) ->
+                events.add(sequence + ":" + type + ":" + index1 + ":" + index2 + ":" + amount), 100));
+        assertEquals(List.of("0:DEPOSIT:0:-1:100", "1:WITHDRAW:0:-1:10", "2:TRANSFER:0:2:20",
+                "3:TRANSFER:2:3:5", "4:TRANSFER:0:5:7", "5:WITHDRAW:0:-1:3", "6:DEPOSIT:6:-1:4"), events);
+        assertEquals(0, consumer.poll((sequence, type, index1, index2, amount) -> fail(), 100));
+        assertEquals(7, consumer.getSequence());
+        assertEquals(0, consumer.getLost());
+    }
+
+    public void testOverwrite() {
+        BankImpl bank = new BankImpl(N);
+        ChangeFeed feed = new ChangeFeed(16, ChangeFeed.OverrunPolicy.OVERWRITE);
+        bank.setChangeFeed(feed);
+        ChangeFeed.Consumer consumer = feed.subscribe();
+        for (int i = 0; i < 100; i++)
+            bank.deposit(0, i + 1);
+        AtomicInteger next = new AtomicInteger(84);
+        assertEquals(16, consumer.poll((sequence, type, index1, index2, amount) -> {
+            assertEquals(next.get(), sequence);
+            assertEquals(next.incrementAndGet(), amount);
+        }, 100));
+        assertEquals(84, consumer.getLost());
+    }
+
+    public void testBlock() throws Exception {
+        BankImpl bank = new BankImpl(N);
+        ChangeFeed feed = new ChangeFeed(4, ChangeFeed.OverrunPolicy.BLOCK);
+        bank.setChangeFeed(feed);
+        ChangeFeed.Consumer consumer = feed.subscribe();
+        AtomicInteger completed = new AtomicInteger();
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < 6; i++) {
+                bank.deposit(i, 1);
+                completed.incrementAndGet();
+            }
+        });
+        producer.start();
+        while (feed.getSequence() < 5)
+            Thread.yield(); // until the fifth deposit has claimed its event, it waits for the consumer then
+        assertEquals(4, completed.get());
+        assertEquals(2, consumer.poll((sequence, type, index1, index2, amount) -> {}, 2));
+        producer.join();
+        assertEquals(6, completed.get());
+        consumer.close();
+        for (int i = 0; i < 10; i++)
+            bank.deposit(0, 1); // nobody to wait for
+    }
+
+    /**
+     * Consumers apply events to sequential banks while threads run operations concurrently. Events must come
+     * in the order of linearization, or the sequential banks would fail or end up in another state.
+     */
+    public void testLinearizationOrder() throws Exception {
+        BankImpl bank = new BankImpl(N);
+        ChangeFeed feed = new ChangeFeed(CAPACITY, ChangeFeed.OverrunPolicy.BLOCK);
+        bank.setChangeFeed(feed);
+        SequentialBank[] replicas = {new SequentialBank(N), new SequentialBank(N)};
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicBoolean failed = new AtomicBoolean();
+        Thread[] consumers = new Thread[replicas.length];
+        for (int c = 0; c < replicas.length; c++) {
+            SequentialBank replica = replicas[c];
+            ChangeFeed.Consumer consumer = feed.subscribe();
+            ChangeFeed.Handler handler = (sequence, type, index1, index2, amount) -> {
+                switch (type) {
+                    case DEPOSIT:
+                        replica.deposit(index1, amount);
+                        break;
+                    case WITHDRAW:
+                        replica.withdraw(index1, amount);
+                        break;
+                    case TRANSFER:
+                        replica.transfer(index1, index2, amount);
+                        break;
+                }
+            };
+            consumers[c] = new Thread(() -> {
+                try {
+                    while (true) {
+                        boolean last = done.get();
+                        if (consumer.poll(handler, 100) == 0) {
+                            if (last)
+                                break;
+                            Thread.yield();
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    failed.set(true);
+                    consumer.close();
+                }
+            });
+            consumers[c].start();
+        }
+        new RandomOperations(bank, RandomOperations.ALL).run(THREADS, OPERATIONS);
+        done.set(true);
+        for (Thread t : consumers)
+            t.join();
+        assertFalse("Events are not in the order of linearization", failed.get());
+        for (SequentialBank replica : replicas) {
+            for (int i = 0; i < N; i++)
+                assertEquals(bank.getAmount(i), replica.getAmount(i));
+        }
+    }
+}
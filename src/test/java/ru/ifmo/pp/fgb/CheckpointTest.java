@@ -0,0 +1,105 @@
+package ru.ifmo.pp.fgb;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Test-suite for {@link BankImpl#checkpoint(Path)} and {@link BankImpl#restore(Path, Path)}.
+ *
+ * @author Markina Margarita
+ */
+public class CheckpointTest extends TestCase {
+    private static final int N = 3 * Checkpoint.BLOCK_SIZE + 100; // last block is partial
+    private static final int THREADS = 4;
+
+    private Path directory;
+    private Path checkpointFile;
+    private Path logFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("fgb");
+        checkpointFile = directory.resolve("bank.checkpoint");
+        logFile = directory.resolve("bank.wal");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(checkpointFile);
+        Files.deleteIfExists(logFile);
+        Files.delete(directory);
+    }
+
+    public void testWithoutLog() throws Exception {
+        BankImpl bank = new BankImpl(N);
+        for (int i = 0; i < N; i += 7)
+            bank.deposit(i, i + 1);
+        bank.checkpoint(checkpointFile);
+        bank.deposit(0, 1000); // not in checkpoint
+        BankImpl restored = BankImpl.restore(checkpointFile, null);
+        assertEquals(N, restored.getNumberOfAccounts());
+        assertEquals(1, restored.getAmount(0));
+        for (int i = 1; i < N; i++)
+            assertEquals(i % 7 == 0 ? i + 1 : 0, restored.getAmount(i));
+        assertEquals(bank.getTotalAmount() - 1000, restored.getTotalAmount());
+        assertEquals(restored.getTotalAmount(), restored.getTotalAmount(0, N));
+        assertEquals(bank.getTotalAmount(1, N), restored.getTotalAmount(1, N));
+        assertFalse(Files.exists(directory.resolve("bank.checkpoint.tmp")));
+    }
+
+    public void testEmptyBank() throws Exception {
+        new BankImpl(0).checkpoint(checkpointFile);
+        assertEquals(0, BankImpl.restore(checkpointFile, null).getNumberOfAccounts());
+    }
+
+    public void testInvalidCheckpoint() throws Exception {
+        Files.write(checkpointFile, new byte[100]);
+        try {
+            BankImpl.restore(checkpointFile, null);
+            fail("IOException expected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testConcurrentCheckpointWithLog() throws Exception {
+        BankImpl bank = new BankImpl(N);
+        try (WriteAheadLog wal = new WriteAheadLog(logFile, WriteAheadLog.SyncPolicy.async())) {
+            bank.setWriteAheadLog(wal);
+            for (int i = 0; i < N; i++)
+                bank.deposit(i, 1000);
+            // transfers between random accounts often cross checkpoint blocks
+            RandomOperations operations = new RandomOperations(bank, RandomOperations.ALL);
+            operations.start(THREADS);
+            Thread.sleep(200);
+            bank.checkpoint(checkpointFile);
+            Thread.sleep(200);
+            operations.stop();
+        }
+        BankImpl restored = BankImpl.restore(checkpointFile, logFile);
+        for (int i = 0; i < N; i++)
+            assertEquals(bank.getAmount(i), restored.getAmount(i));
+        assertEquals(bank.getTotalAmount(), restored.getTotalAmount());
+    }
+
+    public void testOpenAccountDuringCheckpoint() throws Exception {
+        BankImpl bank = new BankImpl(N);
+        try (WriteAheadLog wal = new WriteAheadLog(logFile, WriteAheadLog.SyncPolicy.async())) {
+            bank.setWriteAheadLog(wal);
+            // the first opened accounts fall into the partial last block
+            RandomOperations opener = new RandomOperations(bank,
+                    (b, i, j, amount) -> b.deposit(b.openAccount(), amount));
+            opener.start(1);
+            for (int i = 0; i < 10; i++)
+                bank.checkpoint(checkpointFile);
+            opener.stop();
+        }
+        BankImpl restored = BankImpl.restore(checkpointFile, logFile);
+        assertEquals(bank.getNumberOfAccounts(), restored.getNumberOfAccounts());
+        for (int i = 0; i < bank.getNumberOfAccounts(); i++)
+            assertEquals(bank.getAmount(i), restored.getAmount(i));
+    }
+}
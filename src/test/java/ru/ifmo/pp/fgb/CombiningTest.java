@@ -0,0 +1,118 @@
+package ru.ifmo.pp.fgb;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Test-suite for deposits and withdrawals of {@link BankImpl} that are combined on a hot account.
+ *
+ * @author Markina Margarita
+ */
+public class CombiningTest extends TestCase {
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 20_000;
+
+    public void testHotDeposits() throws Exception {
+        BankImpl bank = new BankImpl(2);
+        long[][] results = new long[THREADS][OPERATIONS];
+        runThreads(t -> {
+            for (int k = 0; k < OPERATIONS; k++)
+                results[t][k] = bank.deposit(0, 1);
+        });
+        checkResults(results, 1);
+        assertEquals(THREADS * OPERATIONS, bank.getAmount(0));
+        assertEquals(THREADS * OPERATIONS, bank.getTotalAmount());
+    }
+
+    public void testHotWithdrawals() throws Exception {
+        BankImpl bank = new BankImpl(2);
+        bank.deposit(0, THREADS * OPERATIONS);
+        long[][] results = new long[THREADS][OPERATIONS];
+        runThreads(t -> {
+            for (int k = 0; k < OPERATIONS; k++)
+                results[t][k] = bank.withdraw(0, 1);
+        });
+        checkResults(results, 0);
+        assertEquals(0, bank.getTotalAmount());
+        assertEquals(Bank.UNDERFLOW, bank.tryWithdraw(0, 1));
+    }
+
+    public void testHotMixed() throws Exception {
+        int n = 4;
+        BankImpl bank = new BankImpl(n);
+        long[] deposited = new long[THREADS];
+        runThreads(t -> {
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            for (int k = 0; k < OPERATIONS; k++) {
+                int other = 1 + rnd.nextInt(n - 1);
+                long amount = rnd.nextInt(10) + 1;
+                switch (rnd.nextInt(4)) {
+                    case 0:
+                        if (bank.tryDeposit(0, amount) >= 0)
+                            deposited[t] += amount;
+                        break;
+                    case 1:
+                        if (bank.tryWithdraw(0, amount) >= 0)
+                            deposited[t] -= amount;
+                        break;
+                    case 2:
+                        bank.tryTransfer(0, other, amount);
+                        break;
+                    case 3:
+                        bank.tryTransfer(other, 0, amount);
+                        break;
+                }
+            }
+        });
+        long total = 0;
+        for (long d : deposited)
+            total += d;
+        long sum = 0;
+        for (int i = 0; i < n; i++) {
+            assertTrue(bank.getAmount(i) >= 0);
+            sum += bank.getAmount(i);
+        }
+        assertEquals(total, sum);
+        assertEquals(total, bank.getTotalAmount());
+    }
+
+    /**
+     * Checks that every operation got its own result, that is results are consecutive amounts
+     * starting from the specified one.
+     */
+    private static void checkResults(long[][] results, long from) {
+        long[] all = new long[THREADS * OPERATIONS];
+        for (int t = 0; t < THREADS; t++)
+            System.arraycopy(results[t], 0, all, t * OPERATIONS, OPERATIONS);
+        Arrays.sort(all);
+        for (int i = 0; i < all.length; i++)
+            assertEquals(from + i, all[i]);
+    }
+
+    private interface Body {
+        void run(int thread);
+    }
+
+    private static void runThreads(Body body) throws InterruptedException {
+        AtomicBoolean failed = new AtomicBoolean();
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    body.run(thread);
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                    failed.set(true);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertFalse(failed.get());
+    }
+}
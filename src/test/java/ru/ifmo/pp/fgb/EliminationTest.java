@@ -0,0 +1,102 @@
+package ru.ifmo.pp.fgb;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Test-suite for opposing transfers of {@link BankImpl} that are applied in pairs.
+ *
+ * @author Markina Margarita
+ */
+public class EliminationTest extends TestCase {
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 50_000;
+
+    /**
+     * Offered transfer is taken by the opposing one, which then fails only if it fails in both orders.
+     */
+    public void testOpposingTransfersWhileLocked() throws Exception {
+        BankImpl bank = new BankImpl(3);
+        bank.deposit(1, 100);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> bank.atomically(new int[]{0}, tx -> {
+            locked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+        holder.start();
+        locked.await();
+        int[] status = new int[2];
+        // account 0 is empty, so the payment from it succeeds only after the refund to it
+        Thread payment = new Thread(() -> status[0] = bank.tryTransfer(0, 1, 30));
+        Thread refund = new Thread(() -> status[1] = bank.tryTransfer(1, 0, 50));
+        payment.start();
+        refund.start();
+        Thread.sleep(100);
+        release.countDown();
+        holder.join();
+        payment.join();
+        refund.join();
+        assertEquals(Bank.OK, status[0]);
+        assertEquals(Bank.OK, status[1]);
+        assertEquals(20, bank.getAmount(0));
+        assertEquals(80, bank.getAmount(1));
+    }
+
+    /**
+     * Every transfer reports its own status: amounts are exactly those implied by successful transfers.
+     */
+    public void testPairs() throws Exception {
+        int pairs = 2;
+        long initial = 1000;
+        BankImpl bank = new BankImpl(2 * pairs);
+        for (int i = 0; i < 2 * pairs; i++)
+            bank.deposit(i, initial);
+        long[][] flow = new long[THREADS][2 * pairs];
+        AtomicBoolean failed = new AtomicBoolean();
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            long[] own = flow[t];
+            threads[t] = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                try {
+                    for (int k = 0; k < OPERATIONS; k++) {
+                        int pair = 2 * rnd.nextInt(pairs);
+                        int direction = rnd.nextInt(2);
+                        int from = pair + direction;
+                        int to = pair + 1 - direction;
+                        long amount = rnd.nextInt(500) + 1; // underflows are frequent
+                        int status = bank.tryTransfer(from, to, amount);
+                        if (status == Bank.OK) {
+                            own[from] -= amount;
+                            own[to] += amount;
+                        } else if (status != Bank.UNDERFLOW) {
+                            throw new AssertionError("Unexpected status " + status);
+                        }
+                    }
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                    failed.set(true);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertFalse(failed.get());
+        for (int i = 0; i < 2 * pairs; i++) {
+            long expected = initial;
+            for (long[] own : flow)
+                expected += own[i];
+            assertEquals(expected, bank.getAmount(i));
+        }
+        assertEquals(2 * pairs * initial, bank.getTotalAmount());
+    }
+}
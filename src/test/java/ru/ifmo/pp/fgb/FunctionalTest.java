@@ -10,7 +10,17 @@ import junit.framework.TestCase;
 public class FunctionalTest extends TestCase {
     private static final int N = 10;
 
-    private final Bank bank = new BankImpl(N);
+    private final Bank bank = createBank(N);
+
+    /**
+     * Creates bank implementation under test.
+     *
+     * @param n the number of accounts.
+     * @return new bank.
+     */
+    protected Bank createBank(int n) {
+        return new BankImpl(n);
+    }
 
     public void testEmptyBank() {
         long start = System.currentTimeMillis();
@@ -80,4 +90,35 @@ public class FunctionalTest extends TestCase {
         long finish = System.currentTimeMillis();
         System.out.println("TIME_Transfer = " + (finish - start));
     }
+
+    public void testTransferToSameAccount() {
+        bank.deposit(1, 1000);
+        try {
+            bank.transfer(1, 1, 100);
+            fail("transfer to the same account must fail");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(1000, bank.getAmount(1));
+        assertEquals(1000, bank.getTotalAmount());
+    }
+
+    public void testTryOperations() {
+        assertEquals(Bank.INVALID_ARGUMENT, bank.tryDeposit(1, 0));
+        assertEquals(100, bank.tryDeposit(1, 100));
+        assertEquals(Bank.OVERFLOW, bank.tryDeposit(1, Bank.MAX_AMOUNT));
+        assertEquals(Bank.INVALID_ARGUMENT, bank.tryWithdraw(1, -1));
+        assertEquals(Bank.UNDERFLOW, bank.tryWithdraw(1, 101));
+        assertEquals(60, bank.tryWithdraw(1, 40));
+        assertEquals(Bank.INVALID_ARGUMENT, bank.tryTransfer(1, 1, 10));
+        assertEquals(Bank.INVALID_ARGUMENT, bank.tryTransfer(1, 2, 0));
+        assertEquals(Bank.UNDERFLOW, bank.tryTransfer(1, 2, 61));
+        assertEquals(Bank.OK, bank.tryTransfer(1, 2, 50));
+        bank.deposit(3, Bank.MAX_AMOUNT);
+        assertEquals(Bank.OVERFLOW, bank.tryTransfer(1, 3, 10));
+        assertEquals(10, bank.getAmount(1));
+        assertEquals(50, bank.getAmount(2));
+        assertEquals(Bank.MAX_AMOUNT, bank.getAmount(3));
+        assertEquals(Bank.MAX_AMOUNT + 60, bank.getTotalAmount());
+    }
 }
@@ -0,0 +1,114 @@
+package ru.ifmo.pp.fgb;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bank that makes any non-thread-safe bank thread-safe with a single global lock.
+ * It is a coarse-grained baseline for benchmarks.
+ *
+ * @author Markina Margarita
+ */
+class GlobalLockBank implements Bank {
+    private final Lock lock = new ReentrantLock();
+    private final Bank bank;
+
+    GlobalLockBank(Bank bank) {
+        this.bank = bank;
+    }
+
+    @Override
+    public int getNumberOfAccounts() {
+        return bank.getNumberOfAccounts();
+    }
+
+    @Override
+    public long getAmount(int index) {
+        lock.lock();
+        try {
+            return bank.getAmount(index);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getTotalAmount() {
+        lock.lock();
+        try {
+            return bank.getTotalAmount();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long deposit(int index, long amount) {
+        lock.lock();
+        try {
+            return bank.deposit(index, amount);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long withdraw(int index, long amount) {
+        lock.lock();
+        try {
+            return bank.withdraw(index, amount);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void transfer(int fromIndex, int toIndex, long amount) {
+        lock.lock();
+        try {
+            bank.transfer(fromIndex, toIndex, amount);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long tryDeposit(int index, long amount) {
+        lock.lock();
+        try {
+            return bank.tryDeposit(index, amount);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long tryWithdraw(int index, long amount) {
+        lock.lock();
+        try {
+            return bank.tryWithdraw(index, amount);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int tryTransfer(int fromIndex, int toIndex, long amount) {
+        lock.lock();
+        try {
+            return bank.tryTransfer(fromIndex, toIndex, amount);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int[] transferBatch(int[] fromIndices, int[] toIndices, long[] amounts) {
+        lock.lock();
+        try {
+            return bank.transferBatch(fromIndices, toIndices, amounts);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
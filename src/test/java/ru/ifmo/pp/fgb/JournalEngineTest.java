@@ -0,0 +1,172 @@
+package ru.ifmo.pp.fgb;
+
+import junit.framework.TestCase;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Test-suite for {@link JournalEngine}.
+ *
+ * @author Markina Margarita
+ */
+public class JournalEngineTest extends TestCase {
+    private static final int N = 10;
+    private static final int OPERATIONS = 10_000;
+    private static final int THREADS = 4;
+    private static final int CAPACITY = 256;
+
+    private Path journal;
+
+    @Override
+    protected void setUp() throws Exception {
+        journal = Files.createTempFile("fgb", ".journal");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(journal);
+    }
+
+    /**
+     * Results of commands are the same as results of the corresponding operations of a sequential bank,
+     * including failures.
+     */
+    public void testResults() throws Exception {
+        SequentialBank expected = new SequentialBank(N);
+        JournalEngine.Command[] commands = JournalEngine.Command.values();
+        Random rnd = new Random(1);
+        long[] result = new long[1];
+        JournalEngine engine = new JournalEngine(N, CAPACITY, null);
+        for (int op = 0; op < OPERATIONS; op++) {
+            JournalEngine.Command command = commands[rnd.nextInt(commands.length)];
+            int i = rnd.nextInt(N + 1) - 1; // sometimes invalid
+            int j = rnd.nextInt(N);
+            long amount = rnd.nextInt(1000);
+            assertEquals(op, engine.submit(command, i, j, amount));
+            while (engine.poll((sequence, c, index1, index2, a, r) -> result[0] = r, 1) == 0)
+                Thread.yield();
+            assertEquals(command + " " + i + " " + j + " " + amount, expected(expected, command, i, j, amount),
+                    result[0]);
+        }
+        engine.close();
+        long[] amounts = engine.getAmounts();
+        for (int i = 0; i < N; i++)
+            assertEquals(expected.getAmount(i), amounts[i]);
+    }
+
+    /**
+     * Replicas that replay the journal of an engine, to which threads submit commands concurrently,
+     * end up with the same results and amounts as the engine.
+     */
+    public void testReplay() throws Exception {
+        long[] results = new long[THREADS * OPERATIONS];
+        JournalEngine engine = new JournalEngine(N, CAPACITY, journal);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                for (int op = 0; op < OPERATIONS; op++) {
+                    JournalEngine.Command command = rnd.nextBoolean() ? JournalEngine.Command.DEPOSIT :
+                            rnd.nextBoolean() ? JournalEngine.Command.WITHDRAW : JournalEngine.Command.TRANSFER;
+                    engine.submit(command, rnd.nextInt(N), rnd.nextInt(N), 1 + rnd.nextInt(1000));
+                }
+            });
+            threads[t].start();
+        }
+        for (int read = 0; read < results.length; ) {
+            int count = engine.poll((sequence, command, index1, index2, amount, result) ->
+                    results[(int) sequence] = result, CAPACITY);
+            if (count == 0)
+                Thread.yield();
+            read += count;
+        }
+        for (Thread t : threads)
+            t.join();
+        engine.close();
+        long[] amounts = engine.getAmounts();
+        for (int replica = 0; replica < 2; replica++) {
+            long[] replayed = new long[results.length];
+            long[] replicaAmounts = new long[N];
+            assertEquals(results.length, JournalEngine.replay(journal, replicaAmounts,
+                    (sequence, command, index1, index2, amount, result) -> replayed[(int) sequence] = result));
+            assertTrue("Replayed results differ", Arrays.equals(results, replayed));
+            assertTrue("Replayed amounts differ", Arrays.equals(amounts, replicaAmounts));
+        }
+    }
+
+    /**
+     * Replay stops at the last valid record when the journal ends with a torn record or with garbage.
+     */
+    public void testReplayInvalidTail() throws Exception {
+        JournalEngine engine = new JournalEngine(N, CAPACITY, journal);
+        engine.submit(JournalEngine.Command.DEPOSIT, 1, 0, 100);
+        engine.submit(JournalEngine.Command.WITHDRAW, 1, 0, 30);
+        engine.close();
+        byte[] valid = Files.readAllBytes(journal);
+        byte[] torn = {(byte) JournalEngine.Command.DEPOSIT.ordinal(), 0, 0};
+        byte[] unknown = new byte[17];
+        unknown[0] = 100;
+        byte[] negative = new byte[17];
+        negative[0] = -1;
+        for (byte[] tail : new byte[][]{torn, unknown, negative}) {
+            byte[] bytes = Arrays.copyOf(valid, valid.length + tail.length);
+            System.arraycopy(tail, 0, bytes, valid.length, tail.length);
+            Files.write(journal, bytes);
+            long[] amounts = new long[N];
+            assertEquals(2, JournalEngine.replay(journal, amounts, null));
+            assertEquals(70, amounts[1]);
+        }
+    }
+
+    /**
+     * Closing does not wait for a command that waits while the ring is full, and the command fails instead.
+     */
+    public void testCloseWithFullRing() throws Exception {
+        JournalEngine engine = new JournalEngine(N, 2, null);
+        engine.submit(JournalEngine.Command.DEPOSIT, 0, 0, 1);
+        engine.submit(JournalEngine.Command.DEPOSIT, 0, 0, 1);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        Thread submitter = new Thread(() -> {
+            try {
+                engine.submit(JournalEngine.Command.DEPOSIT, 0, 0, 1);
+            } catch (IllegalStateException e) {
+                failure.set(e);
+            }
+        });
+        submitter.start();
+        while (engine.getAppliedSequence() < 2)
+            Thread.yield();
+        Thread.sleep(100); // the submitter usually waits for the ring by now, it fails either way
+        engine.close();
+        submitter.join();
+        assertNotNull(failure.get());
+        assertEquals(2, engine.getAmounts()[0]);
+        assertEquals(2, engine.poll((sequence, command, index1, index2, amount, result) -> {}, 10));
+    }
+
+    private static long expected(SequentialBank bank, JournalEngine.Command command, int i, int j, long amount) {
+        try {
+            switch (command) {
+                case GET_AMOUNT:
+                    return bank.getAmount(i);
+                case GET_TOTAL_AMOUNT:
+                    return bank.getTotalAmount();
+                case DEPOSIT:
+                    return bank.tryDeposit(i, amount);
+                case WITHDRAW:
+                    return bank.tryWithdraw(i, amount);
+                case TRANSFER:
+                    return bank.tryTransfer(i, j, amount);
+                default:
+                    throw new AssertionError();
+            }
+        } catch (IndexOutOfBoundsException e) {
+            return Bank.INVALID_INDEX;
+        }
+    }
+}
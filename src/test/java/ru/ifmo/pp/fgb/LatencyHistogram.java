@@ -0,0 +1,88 @@
+package ru.ifmo.pp.fgb;
+
+/**
+ * Histogram of latencies with log-linear buckets. Values are grouped by their highest bit and every group
+ * is split into {@link #SUB_BUCKETS} buckets, so a percentile is within 1/32 of the true value
+ * for any magnitude, and the histogram takes a fixed amount of memory.
+ * <p/>
+ * <p>Recording does not allocate. The histogram is not thread-safe: every thread should record to
+ * a histogram of its own and they should be {@link #add(LatencyHistogram) merged} afterwards.
+ *
+ * @author Markina Margarita
+ */
+class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final long[] counts = new long[(64 - SUB_BITS + 1) * SUB_BUCKETS];
+    private long count;
+    private long max;
+
+    /**
+     * Records value, negative values are recorded as zero.
+     */
+    void record(long value) {
+        if (value < 0)
+            value = 0;
+        counts[indexOf(value)]++;
+        count++;
+        if (value > max)
+            max = value;
+    }
+
+    /**
+     * Adds all values recorded by another histogram to this one.
+     */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++)
+            counts[i] += other.counts[i];
+        count += other.count;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Returns the number of recorded values.
+     */
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the maximal recorded value.
+     */
+    long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns value at the specified percentile, that is the upper bound of the bucket that contains it.
+     *
+     * @param percentile percentile from 0 to 100.
+     * @return value, or 0 when the histogram is empty.
+     */
+    long getPercentile(double percentile) {
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(upperBound(i), max);
+        }
+        return 0;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,220 @@
+package ru.ifmo.pp.fgb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Checker of linearizability of concurrent histories of operations on a bank.
+ * <p/>
+ * <p>A history is a sequence of completed calls for every thread. The checker searches for a sequential
+ * order of all calls that respects the order of every thread and the real-time order of calls and gives
+ * the same results on {@link SequentialBank} (Wing and Gong). A call can be linearized next when it was
+ * invoked before every other not yet linearized call responded. Explored configurations, that is
+ * the numbers of linearized calls of threads together with the amounts of the bank, are memoized (Lowe),
+ * so that different orders of commuting calls that lead to the same configuration are explored once.
+ * <p/>
+ * <p>Histories are checked in parallel in a fork-join pool, and so are the first levels of the search
+ * in every history.
+ *
+ * @author Markina Margarita
+ */
+class LinearizabilityChecker {
+    /**
+     * Levels of the search whose branches are explored by separate tasks.
+     */
+    private static final int PARALLEL_DEPTH = 2;
+
+    private final ForkJoinPool pool;
+    private final LongAdder explored = new LongAdder();
+
+    LinearizabilityChecker() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    LinearizabilityChecker(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Returns the total number of configurations explored by this checker.
+     */
+    long getExplored() {
+        return explored.sum();
+    }
+
+    /**
+     * Checks that history is linearizable.
+     *
+     * @param initial initial state of the bank, it is not modified.
+     * @param history calls of every thread in program order.
+     * @return true when history is linearizable.
+     */
+    boolean isLinearizable(SequentialBank initial, Call[][] history) {
+        return findNonLinearizable(initial, Arrays.<Call[][]>asList(history)) < 0;
+    }
+
+    /**
+     * Finds a history that is not linearizable.
+     *
+     * @param initial   initial state of the bank for every history, it is not modified.
+     * @param histories histories to check.
+     * @return index of the first history that is not linearizable, or -1 when all of them are linearizable.
+     */
+    int findNonLinearizable(SequentialBank initial, List<Call[][]> histories) {
+        return pool.invoke(new RecursiveTask<Integer>() {
+            @Override
+            protected Integer compute() {
+                List<Search> searches = new ArrayList<>(histories.size());
+                for (Call[][] history : histories) {
+                    searches.add(new Search(new History(history), new int[history.length],
+                            new SequentialBank(initial), 0));
+                }
+                invokeAll(searches);
+                for (int i = 0; i < searches.size(); i++) {
+                    if (!searches.get(i).history.found.get())
+                        return i;
+                }
+                return -1;
+            }
+        });
+    }
+
+    /**
+     * Completed call of an operation.
+     */
+    static class Call {
+        final Operation operation;
+        /**
+         * Result of the operation as returned by {@link Operation#invoke(Bank)}.
+         */
+        Object result;
+        /**
+         * {@link System#nanoTime()} before the operation was invoked.
+         */
+        long invoked;
+        /**
+         * {@link System#nanoTime()} after the operation has responded.
+         */
+        long responded;
+
+        Call(Operation operation) {
+            this.operation = operation;
+        }
+
+        @Override
+        public String toString() {
+            return operation + " -> " + result + " [" + invoked + ", " + responded + "]";
+        }
+    }
+
+    /**
+     * History that is being checked together with the state of its search.
+     */
+    private static class History {
+        final Call[][] calls;
+        final Set<Configuration> visited = ConcurrentHashMap.newKeySet();
+        final AtomicBoolean found = new AtomicBoolean();
+
+        History(Call[][] calls) {
+            this.calls = calls;
+        }
+    }
+
+    /**
+     * Numbers of linearized calls of every thread together with the state of the bank after them.
+     * Neither of them is modified after the configuration is created.
+     */
+    private static class Configuration {
+        final int[] progress;
+        final SequentialBank bank;
+
+        Configuration(int[] progress, SequentialBank bank) {
+            this.progress = progress;
+            this.bank = bank;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Configuration other = (Configuration) o;
+            return Arrays.equals(progress, other.progress) && bank.equals(other.bank);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(progress) + bank.hashCode();
+        }
+    }
+
+    /**
+     * Search of a linearization that continues from the configuration. Configurations that were explored
+     * before, possibly by another task, are skipped: they are either failed or still being explored.
+     */
+    @SuppressWarnings("serial") // tasks are never serialized
+    private class Search extends RecursiveAction {
+        final History history;
+        final int[] progress;
+        final SequentialBank bank;
+        final int depth;
+
+        Search(History history, int[] progress, SequentialBank bank, int depth) {
+            this.history = history;
+            this.progress = progress;
+            this.bank = bank;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            if (history.found.get() || !history.visited.add(new Configuration(progress, bank)))
+                return;
+            explored.increment();
+            Call[][] calls = history.calls;
+            long minResponded = Long.MAX_VALUE;
+            boolean completed = true;
+            for (int t = 0; t < calls.length; t++) {
+                if (progress[t] < calls[t].length) {
+                    completed = false;
+                    minResponded = Math.min(minResponded, calls[t][progress[t]].responded);
+                }
+            }
+            if (completed) {
+                history.found.set(true);
+                return;
+            }
+            List<Search> children = depth < PARALLEL_DEPTH ? new ArrayList<>() : null;
+            for (int t = 0; t < calls.length; t++) {
+                if (progress[t] == calls[t].length)
+                    continue;
+                Call call = calls[t][progress[t]];
+                if (call.invoked > minResponded)
+                    continue; // some other call has responded before this one was invoked
+                SequentialBank next = new SequentialBank(bank);
+                if (!Objects.equals(call.operation.invoke(next), call.result))
+                    continue;
+                int[] nextProgress = progress.clone();
+                nextProgress[t]++;
+                Search child = new Search(history, nextProgress, next, depth + 1);
+                if (children != null) {
+                    children.add(child);
+                } else {
+                    child.compute();
+                    if (history.found.get())
+                        return;
+                }
+            }
+            if (children != null)
+                invokeAll(children);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package ru.ifmo.pp.fgb;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link LinearizabilityChecker} on hand-made histories.
+ *
+ * @author Markina Margarita
+ */
+public class LinearizabilityCheckerTest extends TestCase {
+    private static final int N = 2;
+    private static final int THREADS = 16;
+    private static final int OPERATIONS = 8;
+
+    private final LinearizabilityChecker checker = new LinearizabilityChecker();
+
+    public void testOverlappingCalls() {
+        // deposit of 2 overlaps both reads, which saw it in different order
+        LinearizabilityChecker.Call[][] history = {
+                {call(new Operation.Deposit(0, 2), 3L, 0, 10)},
+                {call(new Operation.GetAmount(0), 1L, 1, 4), call(new Operation.GetAmount(0), 3L, 5, 6)},
+        };
+        assertTrue(checker.isLinearizable(initial(), history));
+    }
+
+    public void testStaleRead() {
+        // the read was invoked after the deposit has responded, but did not see it
+        LinearizabilityChecker.Call[][] history = {
+                {call(new Operation.Deposit(0, 2), 3L, 0, 1)},
+                {call(new Operation.GetAmount(0), 1L, 2, 3)},
+        };
+        assertFalse(checker.isLinearizable(initial(), history));
+    }
+
+    public void testLostTotal() {
+        // total amount cannot be observed between two sides of the transfer
+        LinearizabilityChecker.Call[][] history = {
+                {call(new Operation.Transfer(0, 1, 1), null, 0, 10)},
+                {call(new Operation.GetTotalAmount(), 0L, 1, 2)},
+        };
+        assertFalse(checker.isLinearizable(initial(), history));
+    }
+
+    public void testManyConcurrentThreads() {
+        // all calls overlap, and results of deposits are only consistent with the round-robin order
+        LinearizabilityChecker.Call[][] history = new LinearizabilityChecker.Call[THREADS][OPERATIONS];
+        for (int t = 0; t < THREADS; t++)
+            for (int k = 0; k < OPERATIONS; k++)
+                history[t][k] = call(new Operation.Deposit(1, 1), (long) (k * THREADS + t + 1), 0, 1);
+        assertTrue(checker.isLinearizable(new SequentialBank(N), history));
+        history[THREADS - 1][OPERATIONS - 1].result = 1L;
+        assertFalse(checker.isLinearizable(new SequentialBank(N), history));
+    }
+
+    private static SequentialBank initial() {
+        SequentialBank bank = new SequentialBank(N);
+        bank.deposit(0, 1);
+        return bank;
+    }
+
+    private static LinearizabilityChecker.Call call(Operation operation, Object result,
+                                                    long invoked, long responded) {
+        LinearizabilityChecker.Call call = new LinearizabilityChecker.Call(operation);
+        call.result = result;
+        call.invoked = invoked;
+        call.responded = responded;
+        return call;
+    }
+}
@@ -2,39 +2,55 @@ package ru.ifmo.pp.fgb;
 
 import junit.framework.TestCase;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Phaser;
 import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Automated test of linearizability of multi-threaded bank implementation.
+ * Every thread invokes a few operations in every execution, and histories of executions are checked
+ * by {@link LinearizabilityChecker}.
  *
  * @author Roman Elizarov
  */
 public class LinearizabilityTest extends TestCase {
-    private static final int N = 10;
-    private static final int RUN_ACCOUNTS = 3;
-    private static final int THREADS = 4;
-    private static final int RUNS = 2000;
-    private static final int EXECUTIONS = 1000; // executions per run
-    private static final int RESULTS_HASH_SIZE = 1024; // must be 2^N;
+    static final int N = 10;
+    static final int RUN_ACCOUNTS = 3;
+    static final int THREADS = 8;
+    static final int OPERATIONS = 4; // operations per thread in every execution
+    private static final int RUNS = 200;
+    private static final int EXECUTIONS = 500; // executions per run
 
     private final Random rnd = new Random(20141101);
     private final Phaser phaser = new Phaser(THREADS + 1);
+    private final LinearizabilityChecker checker = new LinearizabilityChecker();
 
-    private final int[] runAccounts = new int[RUN_ACCOUNTS];
-    private final long[] baseAmount = new long[RUN_ACCOUNTS];
-    private final Operation[] runOps = new Operation[THREADS];
-    private final Results results = new Results(THREADS);
-    private final Results[] resultsHash = new Results[RESULTS_HASH_SIZE];
+    final int[] runAccounts = new int[RUN_ACCOUNTS];
+    final long[] baseAmount = new long[RUN_ACCOUNTS];
+    final Operation[][] runOps = new Operation[THREADS][OPERATIONS];
+    /**
+     * Calls of the current execution by thread.
+     */
+    LinearizabilityChecker.Call[][] calls;
 
     private Bank bank;
 
+    /**
+     * Creates bank implementation under test, a new one for every execution.
+     *
+     * @param n number of accounts in the bank.
+     * @return bank implementation.
+     */
+    protected Bank createBank(int n) {
+        return new BankImpl(n);
+    }
+
     public void testLinearizability() {
         long start = System.currentTimeMillis();
-        for (int threadNo = 0; threadNo < THREADS; threadNo++)
-            new TestThread(threadNo).start();
+        startThreads();
         for (int runNo = 1; runNo <= RUNS; runNo++)
             doOneRun(runNo);
         long finish = System.currentTimeMillis();
@@ -53,88 +69,82 @@ public class LinearizabilityTest extends TestCase {
             } while (!ok);
             baseAmount[i] = nextRndAmount();
         }
-        for (int threadNo = 0; threadNo < THREADS; threadNo++) {
-            Operation op;
-            switch (rnd.nextInt(5)) {
-                case 0:
-                    op = new Operation.GetAmount(nextRndRunAccount());
-                    break;
-                case 1:
-                    op = new Operation.GetTotalAmount();
-                    break;
-                case 2:
-                    op = new Operation.Deposit(nextRndRunAccount(), nextRndAmountOrInvalid());
-                    break;
-                case 3:
-                    op = new Operation.Withdraw(nextRndRunAccount(), nextRndAmountOrInvalid());
-                    break;
-                case 4:
-                    int i;
-                    int j;
-                    do {
-                        i = nextRndRunAccount();
-                        j = nextRndRunAccount();
-                    } while (i == j);
-                    op = new Operation.Transfer(i, j, nextRndAmountOrInvalid());
-                    break;
-                default:
-                    throw new AssertionError();
-            }
-            runOps[threadNo] = op;
-        }
-        Arrays.fill(resultsHash, null);
-        serialScan(0, 0, new int[THREADS]);
+        for (int threadNo = 0; threadNo < THREADS; threadNo++)
+            for (int k = 0; k < OPERATIONS; k++)
+                runOps[threadNo][k] = nextRndOperation();
+        List<LinearizabilityChecker.Call[][]> histories = new ArrayList<>(EXECUTIONS);
         for (int i = 0; i < EXECUTIONS; i++) {
-            doOneExecution();
+            histories.add(doOneExecution());
         }
-        int totalResult = 0;
-        int seenResult = 0;
-        for (Results results : resultsHash) {
-            if (results != null) {
-                totalResult++;
-                if (results.getCount() > 0)
-                    seenResult++;
-            }
+        SequentialBank initial = new SequentialBank(N);
+        for (int i = 0; i < RUN_ACCOUNTS; i++)
+            initial.deposit(runAccounts[i], baseAmount[i]);
+        long exploredBefore = checker.getExplored();
+        int failed = checker.findNonLinearizable(initial, histories);
+        if (failed >= 0) {
+            System.out.println("Non-linearizable execution:");
+            dumpRun(histories.get(failed));
+            throw new AssertionError();
+        }
+        System.out.printf("Run #%d (%d%%) completed, explored %d configurations %n",
+                runNo, (runNo * 100 / RUNS), checker.getExplored() - exploredBefore);
+    }
+
+    private Operation nextRndOperation() {
+        switch (rnd.nextInt(5)) {
+            case 0:
+                return new Operation.GetAmount(nextRndRunAccount());
+            case 1:
+                return new Operation.GetTotalAmount();
+            case 2:
+                return new Operation.Deposit(nextRndRunAccount(), nextRndAmountOrInvalid());
+            case 3:
+                return new Operation.Withdraw(nextRndRunAccount(), nextRndAmountOrInvalid());
+            case 4:
+                int i;
+                int j;
+                do {
+                    i = nextRndRunAccount();
+                    j = nextRndRunAccount();
+                } while (i == j);
+                return new Operation.Transfer(i, j, nextRndAmountOrInvalid());
+            default:
+                throw new AssertionError();
         }
-        System.out.printf("Run #%d (%d%%) completed, seen %d out of %d results %n",
-                runNo, (runNo * 100 / RUNS), seenResult, totalResult);
     }
 
-    private void dumpRun() {
+    private void dumpRun(LinearizabilityChecker.Call[][] history) {
         System.out.println(Arrays.toString(runAccounts));
         System.out.println(Arrays.toString(baseAmount));
-        System.out.println(Arrays.toString(runOps));
-        for (Results results : resultsHash)
-            if (results != null)
-                System.out.println(results);
+        for (int threadNo = 0; threadNo < THREADS; threadNo++)
+            System.out.println(threadNo + ": " + Arrays.toString(history[threadNo]));
     }
 
-    private void serialScan(int i, int used, int[] order) {
-        if (i >= THREADS) {
-            initBank(new SequentialBank(N));
-            for (int k = 0; k < THREADS; k++)
-                results.set(order[k], runOps[order[k]].invoke(bank));
-            findOrCreateResults();
-            return;
-        }
-        for (int j = 0; j < THREADS; j++)
-            if ((used & (1 << j)) == 0) {
-                order[i] = j;
-                serialScan(i + 1, used | (1 << j), order);
-            }
+    /**
+     * Starts threads that invoke operations of every execution.
+     */
+    protected void startThreads() {
+        for (int threadNo = 0; threadNo < THREADS; threadNo++)
+            new TestThread(threadNo).start();
     }
 
-    private void doOneExecution() {
-        initBank(new BankImpl(N));
+    /**
+     * Invokes operations of the run concurrently on a new bank with base amounts in run accounts
+     * and stores their results and times in {@link #calls}.
+     */
+    protected void execute() {
+        initBank(createBank(N));
         phaser.arriveAndAwaitAdvance();
         phaser.arriveAndAwaitAdvance();
-        Results hRes = findResults();
-        if (hRes == null) {
-            System.out.println("Non-linearizable execution: " + results);
-            dumpRun();
-            throw new AssertionError();
-        }
-        hRes.incCount();
+    }
+
+    private LinearizabilityChecker.Call[][] doOneExecution() {
+        calls = new LinearizabilityChecker.Call[THREADS][OPERATIONS];
+        for (int threadNo = 0; threadNo < THREADS; threadNo++)
+            for (int k = 0; k < OPERATIONS; k++)
+                calls[threadNo][k] = new LinearizabilityChecker.Call(runOps[threadNo][k]);
+        execute();
+        return calls;
     }
 
     private void initBank(Bank bank) {
@@ -143,39 +153,6 @@ public class LinearizabilityTest extends TestCase {
             this.bank.deposit(runAccounts[i], baseAmount[i]);
     }
 
-    private Results findOrCreateResults() {
-        int hIndex = results.hashCode() & (RESULTS_HASH_SIZE - 1);
-        Results hRes;
-        while (true) {
-            hRes = resultsHash[hIndex];
-            if (hRes == null) {
-                hRes = new Results(results);
-                resultsHash[hIndex] = hRes;
-                break;
-            }
-            if (hRes.equals(results))
-                break;
-            if (hIndex == 0)
-                hIndex = RESULTS_HASH_SIZE;
-            hIndex--;
-        }
-        return hRes;
-    }
-
-    private Results findResults() {
-        int hIndex = results.hashCode() & (RESULTS_HASH_SIZE - 1);
-        Results hRes;
-        while (true) {
-            hRes = resultsHash[hIndex];
-            if (hRes == null || hRes.equals(results))
-                break;
-            if (hIndex == 0)
-                hIndex = RESULTS_HASH_SIZE;
-            hIndex--;
-        }
-        return hRes;
-    }
-
     private int nextRndRunAccount() {
         return runAccounts[rnd.nextInt(RUN_ACCOUNTS)];
     }
@@ -222,7 +199,11 @@ public class LinearizabilityTest extends TestCase {
 
         private void doOneExecution() {
             phaser.arriveAndAwaitAdvance();
-            results.set(threadNo, runOps[threadNo].invoke(bank));
+            for (LinearizabilityChecker.Call call : calls[threadNo]) {
+                call.invoked = System.nanoTime();
+                call.result = call.operation.invoke(bank);
+                call.responded = System.nanoTime();
+            }
             phaser.arriveAndAwaitAdvance();
         }
     }
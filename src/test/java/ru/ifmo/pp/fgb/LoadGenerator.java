@@ -0,0 +1,311 @@
+package ru.ifmo.pp.fgb;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator for bank implementations. Like {@link MTStressTest}, it runs a mix of {@link StressOperations}
+ * from many threads and checks the bank against the expected amounts of accounts at the end, but
+ * the number of accounts, threads, operation mix, account skew, arrival rate and duration are configurable,
+ * and it reports throughput and latency percentiles.
+ * <p/>
+ * <p>Without arrival rate every thread runs the next operation as soon as the previous one completes (closed
+ * loop). With arrival rate, operations are scheduled at fixed intervals and their latency is measured from the
+ * scheduled time (open loop), so a stalled bank is not hidden by threads that stop sending operations.
+ * <p/>
+ * <p>Run it with test classes on the class path, for example:
+ * <pre>
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes ru.ifmo.pp.fgb.LoadGenerator --threads=64 --skew=zipfian --rate=100000
+ * </pre>
+ *
+ * @author Markina Margarita
+ */
+public class LoadGenerator {
+    private static final long SPIN_NANOS = 100_000; // operations that are due sooner are waited for by spinning
+
+    private String implementation = Banks.BANK_IMPL;
+    private int accounts = 100;
+    private int threads = 16;
+    private String mix = "0/33/33/33/1";
+    private String skew = AccountChooser.UNIFORM;
+    private long rate;
+    private long durationMillis = 10_000;
+
+    /**
+     * Runs load generator with options of the form {@code --name=value}.
+     *
+     * @param args options: bank, accounts, threads, mix, skew, rate and duration (in seconds).
+     */
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0)
+                throw new IllegalArgumentException("Invalid option: " + arg);
+            String value = arg.substring(eq + 1);
+            switch (arg.substring(2, eq)) {
+                case "bank":
+                    generator.implementation(value);
+                    break;
+                case "accounts":
+                    generator.accounts(Integer.parseInt(value));
+                    break;
+                case "threads":
+                    generator.threads(Integer.parseInt(value));
+                    break;
+                case "mix":
+                    generator.mix(value);
+                    break;
+                case "skew":
+                    generator.skew(value);
+                    break;
+                case "rate":
+                    generator.rate(Long.parseLong(value));
+                    break;
+                case "duration":
+                    generator.durationMillis(Long.parseLong(value) * 1000);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        System.out.println(generator.run());
+    }
+
+    /**
+     * Sets bank implementation, see {@link Banks}.
+     */
+    LoadGenerator implementation(String implementation) {
+        this.implementation = implementation;
+        return this;
+    }
+
+    LoadGenerator accounts(int accounts) {
+        if (accounts < 2)
+            throw new IllegalArgumentException("Invalid number of accounts: " + accounts);
+        this.accounts = accounts;
+        return this;
+    }
+
+    LoadGenerator threads(int threads) {
+        if (threads <= 0)
+            throw new IllegalArgumentException("Invalid number of threads: " + threads);
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Sets operation mix as percentages of getAmount/deposit/withdraw/transfer/getTotalAmount,
+     * like in {@code BankMixBenchmark}.
+     */
+    LoadGenerator mix(String mix) {
+        parseMix(mix);
+        this.mix = mix;
+        return this;
+    }
+
+    /**
+     * Sets skew of accounts, see {@link AccountChooser}.
+     */
+    LoadGenerator skew(String skew) {
+        new AccountChooser(2, skew);
+        this.skew = skew;
+        return this;
+    }
+
+    /**
+     * Sets arrival rate of operations of all threads together per second, 0 for closed loop.
+     */
+    LoadGenerator rate(long rate) {
+        if (rate < 0)
+            throw new IllegalArgumentException("Invalid rate: " + rate);
+        this.rate = rate;
+        return this;
+    }
+
+    LoadGenerator durationMillis(long durationMillis) {
+        this.durationMillis = durationMillis;
+        return this;
+    }
+
+    /**
+     * Runs load and checks that the bank is in the expected state afterwards.
+     *
+     * @return report.
+     * @throws junit.framework.AssertionFailedError when the bank is not in the expected state.
+     */
+    Report run() throws InterruptedException, IOException {
+        Bank bank = Banks.create(implementation, accounts);
+        try {
+            StressOperations operations = new StressOperations(bank);
+            int[] thresholds = parseMix(mix);
+            AccountChooser chooser = new AccountChooser(accounts, skew);
+            long interval = rate == 0 ? 0 : Math.max(1, threads * 1_000_000_000L / rate);
+            CountDownLatch started = new CountDownLatch(1);
+            Worker[] workers = new Worker[threads];
+            Thread[] ts = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Worker(operations, thresholds, chooser, interval, started);
+                ts[t] = new Thread(workers[t], "LoadGenerator-" + t);
+                ts[t].start();
+            }
+            long start = System.nanoTime();
+            long deadline = start + durationMillis * 1_000_000;
+            for (Worker worker : workers)
+                worker.setSchedule(start, deadline);
+            started.countDown();
+            for (Thread t : ts)
+                t.join();
+            long elapsed = System.nanoTime() - start;
+            LatencyHistogram histogram = new LatencyHistogram();
+            for (Worker worker : workers) {
+                if (worker.failure != null)
+                    throw new AssertionError("Worker failed", worker.failure);
+                histogram.add(worker.histogram);
+            }
+            operations.verify();
+            return new Report(histogram, elapsed);
+        } finally {
+            Banks.close(bank);
+        }
+    }
+
+    /**
+     * Parses operation mix.
+     *
+     * @return cumulative percentages of getAmount, deposit, withdraw and transfer.
+     */
+    private static int[] parseMix(String mix) {
+        String[] parts = mix.split("/");
+        if (parts.length != 5)
+            throw new IllegalArgumentException("Invalid mix: " + mix);
+        int[] thresholds = new int[4];
+        int sum = 0;
+        for (int i = 0; i < 5; i++) {
+            sum += Integer.parseInt(parts[i]);
+            if (i < 4)
+                thresholds[i] = sum;
+        }
+        if (sum != 100)
+            throw new IllegalArgumentException("Mix percentages must add up to 100: " + mix);
+        return thresholds;
+    }
+
+    /**
+     * Throughput and latencies of a run.
+     */
+    class Report {
+        final LatencyHistogram histogram;
+        final long elapsedNanos;
+
+        Report(LatencyHistogram histogram, long elapsedNanos) {
+            this.histogram = histogram;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * Returns the number of operations per second.
+         */
+        long getThroughput() {
+            return histogram.getCount() * 1_000_000_000L / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s, %d accounts, %s skew, mix %s, %d threads, %s: %d ops/s, " +
+                            "latency p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us",
+                    implementation, accounts, skew, mix, threads,
+                    rate == 0 ? "closed loop" : rate + " ops/s offered", getThroughput(),
+                    histogram.getPercentile(50) / 1e3, histogram.getPercentile(99) / 1e3,
+                    histogram.getPercentile(99.9) / 1e3, histogram.getMax() / 1e3);
+        }
+    }
+
+    /**
+     * Operations of one thread.
+     */
+    private static class Worker implements Runnable {
+        private final StressOperations operations;
+        private final int[] thresholds;
+        private final AccountChooser chooser;
+        private final long interval;
+        private final CountDownLatch started;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private long start;
+        private long deadline;
+        private volatile Throwable failure;
+
+        Worker(StressOperations operations, int[] thresholds, AccountChooser chooser, long interval,
+               CountDownLatch started) {
+            this.operations = operations;
+            this.thresholds = thresholds;
+            this.chooser = chooser;
+            this.interval = interval;
+            this.started = started;
+        }
+
+        /**
+         * Sets time of the first operation and time after which no operation is started,
+         * before the worker is {@link #started}.
+         */
+        void setSchedule(long start, long deadline) {
+            this.start = start;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            try {
+                started.await();
+                // threads of open loop are evenly shifted, so that operations arrive at a steady rate
+                long next = start + (interval == 0 ? 0 : ThreadLocalRandom.current().nextLong(interval));
+                while (true) {
+                    long now = System.nanoTime();
+                    long scheduled = now;
+                    if (interval != 0) {
+                        scheduled = next;
+                        next += interval;
+                        if (scheduled >= deadline)
+                            break;
+                        awaitUntil(scheduled);
+                    } else if (now >= deadline)
+                        break;
+                    runOperation();
+                    histogram.record(System.nanoTime() - scheduled);
+                }
+            } catch (Throwable t) {
+                failure = t;
+            }
+        }
+
+        private static void awaitUntil(long time) {
+            long remaining;
+            while ((remaining = time - System.nanoTime()) > 0) {
+                if (remaining > SPIN_NANOS)
+                    LockSupport.parkNanos(remaining - SPIN_NANOS);
+                else
+                    Thread.onSpinWait();
+            }
+        }
+
+        private void runOperation() {
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            int op = rnd.nextInt(100);
+            if (op < thresholds[0]) {
+                operations.getAmount(chooser.next());
+            } else if (op < thresholds[1]) {
+                operations.deposit(chooser.next(), rnd);
+            } else if (op < thresholds[2]) {
+                operations.withdraw(chooser.next(), rnd);
+            } else if (op < thresholds[3]) {
+                int i = chooser.next();
+                operations.transfer(i, chooser.nextOther(i), rnd);
+            } else {
+                operations.getTotalAmount();
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package ru.ifmo.pp.fgb;
+
+import junit.framework.TestCase;
+
+/**
+ * Test-suite for {@link LoadGenerator} and {@link LatencyHistogram}.
+ *
+ * @author Markina Margarita
+ */
+public class LoadGeneratorTest extends TestCase {
+    public void testHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 1_000_000; value++)
+            histogram.record(value);
+        assertEquals(1_000_000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(1, histogram.getPercentile(0));
+        checkPercentile(500_000, histogram.getPercentile(50));
+        checkPercentile(990_000, histogram.getPercentile(99));
+        checkPercentile(999_000, histogram.getPercentile(99.9));
+        assertEquals(1_000_000, histogram.getPercentile(100));
+        LatencyHistogram other = new LatencyHistogram();
+        other.record(5_000_000);
+        histogram.add(other);
+        assertEquals(5_000_000, histogram.getPercentile(100));
+    }
+
+    public void testClosedLoop() throws Exception {
+        LoadGenerator.Report report = new LoadGenerator().threads(4).skew(AccountChooser.ZIPFIAN)
+                .durationMillis(1000).run();
+        System.out.println(report);
+        assertTrue(report.getThroughput() > 0);
+    }
+
+    public void testOpenLoop() throws Exception {
+        LoadGenerator.Report report = new LoadGenerator().threads(4).accounts(1000).skew(AccountChooser.HOTSPOT)
+                .mix("50/10/10/29/1").rate(20_000).durationMillis(1000).run();
+        System.out.println(report);
+        assertTrue(report.histogram.getCount() > 0); // run() has checked the amounts of accounts
+    }
+
+    private static void checkPercentile(long expected, long actual) {
+        assertTrue("Expected about " + expected + ", actual " + actual,
+                actual >= expected && actual <= expected + expected / 32);
+    }
+}
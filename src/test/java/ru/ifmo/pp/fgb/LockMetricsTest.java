@@ -0,0 +1,97 @@
+package ru.ifmo.pp.fgb;
+
+import junit.framework.TestCase;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Test-suite for lock metrics of {@link BankImpl}.
+ *
+ * @author Markina Margarita
+ */
+public class LockMetricsTest extends TestCase {
+    private static final int N = 10;
+
+    private final BankImpl bank = new BankImpl(N);
+    private final LockMetrics metrics = new LockMetrics(N, 3);
+
+    @Override
+    protected void setUp() throws Exception {
+        bank.setLockMetrics(metrics);
+    }
+
+    public void testUncontended() {
+        bank.deposit(1, 100);
+        bank.deposit(2, 100);
+        bank.tryWithdraw(1, 1000);
+        bank.transfer(1, 2, 50);
+        bank.transferBatch(new int[]{1, 2, 3}, new int[]{2, 3, 1}, new long[]{1, 1, 1});
+        bank.atomically(new int[]{4, 5}, tx -> tx.deposit(4, 10));
+        bank.getAmount(1);
+        LockMetrics.Snapshot snapshot = metrics.getSnapshot();
+        assertEquals(2, snapshot.stats(LockMetrics.Op.DEPOSIT).getOperations());
+        assertEquals(2, snapshot.stats(LockMetrics.Op.DEPOSIT).getAcquisitions());
+        assertEquals(1, snapshot.stats(LockMetrics.Op.WITHDRAW).getAcquisitions());
+        assertEquals(2, snapshot.stats(LockMetrics.Op.TRANSFER).getAcquisitions());
+        assertEquals(3, snapshot.stats(LockMetrics.Op.TRANSFER_BATCH).getAcquisitions());
+        assertEquals(2, snapshot.stats(LockMetrics.Op.TRANSACTION).getAcquisitions());
+        for (LockMetrics.OperationStats stats : snapshot.getOperations())
+            assertEquals(0, stats.getContended());
+        assertTrue(snapshot.getHottestAccounts().isEmpty());
+    }
+
+    public void testContended() throws InterruptedException {
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> bank.atomically(new int[]{7}, tx -> {
+            locked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+        holder.start();
+        locked.await();
+        Thread depositor = new Thread(() -> bank.deposit(7, 100));
+        depositor.start();
+        // the deposit is published to the locked account and its thread parks until it is applied
+        while (depositor.getState() != Thread.State.WAITING && depositor.getState() != Thread.State.TIMED_WAITING)
+            Thread.yield();
+        release.countDown();
+        holder.join();
+        depositor.join();
+        LockMetrics.Snapshot snapshot = metrics.getSnapshot();
+        assertEquals(1, snapshot.stats(LockMetrics.Op.DEPOSIT).getContended());
+        assertEquals(1, snapshot.getHottestAccounts().size());
+        assertEquals(7, snapshot.getHottestAccounts().get(0).getIndex());
+        assertTrue(snapshot.stats(LockMetrics.Op.DEPOSIT).getWaitNanos() > 0);
+        assertTrue(snapshot.stats(LockMetrics.Op.TRANSACTION).getHoldNanos() > 0);
+    }
+
+    public void testMBean() throws Exception {
+        bank.deposit(1, 100);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("ru.ifmo.pp.fgb:type=LockMetrics,name=LockMetricsTest");
+        server.registerMBean(metrics, name);
+        try {
+            CompositeData snapshot = (CompositeData) server.getAttribute(name, "Snapshot");
+            CompositeData[] operations = (CompositeData[]) snapshot.get("operations");
+            assertEquals("DEPOSIT", operations[0].get("name"));
+            assertEquals(1L, operations[0].get("operations"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    public void testDisabled() {
+        bank.setLockMetrics(null);
+        bank.deposit(1, 100);
+        assertNull(bank.getLockMetrics());
+        assertEquals(0, metrics.getSnapshot().stats(LockMetrics.Op.DEPOSIT).getOperations());
+    }
+}
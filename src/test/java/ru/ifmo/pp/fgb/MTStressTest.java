@@ -16,50 +16,96 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class MTStressTest extends TestCase {
     private static final int N = 100;
-    private static final long MEAN = 1_000_000_000;
-    private static final int AMT = 1_000; // AMT << MEAN, so that probability of over/under flow is negligible
-    private static final int MOD = 100; // all deposits / withdrawals are divisible by MOD
     private static final int THREADS = 16;
     private static final int PHASES = 10;
     private static final long PHASE_DURATION_MILLIS = 1000;
+    private static final int PHASER_PARTIES = 1000; // a phaser supports at most 65535 parties
+    private static final int VERBOSE_THREADS = 64; // progress of every thread is printed up to this many threads
 
-    private final Phaser phaser = new Phaser(THREADS);
-    private final Bank bank = new BankImpl(N);
-    private final AtomicLong[] expected = new AtomicLong[N];
+    private final int threads = getNumberOfThreads();
+    private final Phaser[] phasers = createPhasers(threads);
+    private final Bank bank = createBank(N);
+    private StressOperations operations;
     private final AtomicLong totalOps = new AtomicLong();
     private volatile boolean failed;
 
+    /**
+     * Creates bank implementation under test.
+     *
+     * @param n the number of accounts.
+     * @return new bank.
+     */
+    protected Bank createBank(int n) {
+        return new BankImpl(n);
+    }
+
+    /**
+     * Returns the number of concurrent test threads.
+     */
+    protected int getNumberOfThreads() {
+        return THREADS;
+    }
+
+    /**
+     * Creates test thread.
+     *
+     * @param task test task of the thread.
+     * @param name name of the thread.
+     * @return new unstarted thread.
+     */
+    protected Thread newThread(Runnable task, String name) {
+        return new Thread(task, name);
+    }
+
+    /**
+     * Returns true when test threads yield after every operation. Threads that are not time-sliced,
+     * like virtual ones, need it to make progress together when there are much more of them than processors.
+     */
+    protected boolean isYielding() {
+        return false;
+    }
+
+    /**
+     * Creates tiered phasers for the specified number of threads, thread number i arriving at phaser i / 1000.
+     */
+    private static Phaser[] createPhasers(int threads) {
+        Phaser root = new Phaser();
+        Phaser[] phasers = new Phaser[(threads + PHASER_PARTIES - 1) / PHASER_PARTIES];
+        for (int k = 0; k < phasers.length; k++)
+            phasers[k] = new Phaser(root, Math.min(PHASER_PARTIES, threads - k * PHASER_PARTIES));
+        return phasers;
+    }
+
     public void testStress() throws InterruptedException {
         long start = System.currentTimeMillis();
         assertEquals(N, bank.getNumberOfAccounts());
+        operations = new StressOperations(bank);
         for (int i = 0; i < N; i++)
-            bank.deposit(i, MEAN);
-        for (int i = 0; i < N; i++)
-            assertEquals(MEAN, bank.getAmount(i));
-        for (int i = 0; i < N; i++)
-            expected[i] = new AtomicLong(MEAN);
-        TestThread[] ts = new TestThread[N];
-        for (int threadNo = 0; threadNo < THREADS; threadNo++) {
-            TestThread t = new TestThread(threadNo);
+            assertEquals(StressOperations.MEAN, bank.getAmount(i));
+        Thread[] ts = new Thread[threads];
+        for (int threadNo = 0; threadNo < threads; threadNo++) {
+            Thread t = newThread(new TestTask(threadNo), "TestThread-" + threadNo);
             ts[threadNo] = t;
             t.start();
         }
-        for (int threadNo = 0; threadNo < THREADS; threadNo++)
+        for (int threadNo = 0; threadNo < threads; threadNo++)
             ts[threadNo].join();
-        for (int threadNo = 0; threadNo < THREADS; threadNo++)
-            assertFalse(failed);
-        System.out.println("Total average " + (totalOps.get() / PHASES) + " ops per phase");
+        assertFalse(failed);
+        System.out.println("Total average " + (totalOps.get() / PHASES) + " ops per phase with " +
+                threads + " threads");
         long finish = System.currentTimeMillis();
         System.out.println("TIME_MTStressTest = " + (finish - start));
     }
 
-    private class TestThread extends Thread {
+    private class TestTask implements Runnable {
         private final int threadNo;
+        private final Phaser phaser;
+        private final boolean yielding = isYielding();
         private ThreadLocalRandom rnd;
 
-        public TestThread(int threadNo) {
-            super("TestThread-" + threadNo);
+        public TestTask(int threadNo) {
             this.threadNo = threadNo;
+            phaser = phasers[threadNo / PHASER_PARTIES];
         }
 
         @Override
@@ -79,8 +125,9 @@ public class MTStressTest extends TestCase {
         private void runPhase(int phase) {
             if (phaser.arriveAndAwaitAdvance() < 0)
                 return;
-            System.out.println("Thread " + threadNo + ", phase " + phase + ": start");
-            verifyState();
+            if (threads <= VERBOSE_THREADS)
+                System.out.println("Thread " + threadNo + ", phase " + phase + ": start");
+            operations.verify();
             if (phaser.arriveAndAwaitAdvance() < 0)
                 return;
             int ops = 0;
@@ -88,50 +135,34 @@ public class MTStressTest extends TestCase {
             do {
                 runOperation();
                 ops++;
+                if (yielding)
+                    Thread.yield();
             } while (System.currentTimeMillis() < tillTimeMillis);
-            System.out.println("Thread " + threadNo + ", phase " + phase + ": done " + ops + " ops");
+            if (threads <= VERBOSE_THREADS)
+                System.out.println("Thread " + threadNo + ", phase " + phase + ": done " + ops + " ops");
             totalOps.addAndGet(ops);
         }
 
-        private void verifyState() {
-            long expectedTotal = 0;
-            for (int i = 0; i < N; i++) {
-                long ei = expected[i].get();
-                assertEquals(ei, bank.getAmount(i));
-                expectedTotal += ei;
-            }
-            assertEquals(expectedTotal, bank.getTotalAmount());
-        }
-
         private void runOperation() {
             int op = rnd.nextInt(100);
             if (op == 0) {
                 // every 100th operation on average is getTotalAmount
-                long totalAmount = bank.getTotalAmount();
-                assertEquals(0, totalAmount % MOD); // the result must be divisible to MOD
+                operations.getTotalAmount();
                 return;
             }
             int i = rnd.nextInt(N);
-            long amount = rnd.nextInt(AMT) + 1;
             switch (op % 3) {
                 case 0:
-                    amount = (amount + MOD - 1) / MOD * MOD; // round to mod up
-                    bank.deposit(i, amount);
-                    expected[i].addAndGet(amount);
+                    operations.deposit(i, rnd);
                     break;
                 case 1:
-                    amount = (amount + MOD - 1) / MOD * MOD; // round to mod up
-                    bank.withdraw(i, amount);
-                    expected[i].addAndGet(-amount);
+                    operations.withdraw(i, rnd);
                     break;
                 case 2:
-                    // arbitrary amount is transferred between accounts
                     int j = rnd.nextInt(N - 1);
                     if (j >= i)
                         j++;
-                    bank.transfer(i, j, amount);
-                    expected[i].addAndGet(-amount);
-                    expected[j].addAndGet(amount);
+                    operations.transfer(i, j, rnd);
             }
         }
     }
@@ -0,0 +1,26 @@
+package ru.ifmo.pp.fgb;
+
+/**
+ * Automated test of linearizability of {@link OffHeapBankImpl}. The bank of every execution is closed
+ * when the next one is created, after all operations on it are done.
+ *
+ * @author Markina Margarita
+ */
+public class OffHeapBankImplLinearizabilityTest extends LinearizabilityTest {
+    private OffHeapBankImpl offHeapBank;
+
+    @Override
+    protected Bank createBank(int n) {
+        if (offHeapBank != null)
+            offHeapBank.close();
+        offHeapBank = new OffHeapBankImpl(n);
+        return offHeapBank;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (offHeapBank != null)
+            offHeapBank.close();
+        super.tearDown();
+    }
+}
@@ -0,0 +1,63 @@
+package ru.ifmo.pp.fgb;
+
+/**
+ * Functional single-threaded test-suite for {@link OffHeapBankImpl}.
+ *
+ * @author Markina Margarita
+ */
+public class OffHeapBankImplTest extends FunctionalTest {
+    private OffHeapBankImpl offHeapBank; // assigned from the super class constructor, so no initializer here
+
+    @Override
+    protected Bank createBank(int n) {
+        offHeapBank = new OffHeapBankImpl(n);
+        return offHeapBank;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        offHeapBank.close();
+        super.tearDown();
+    }
+
+    public void testClosed() {
+        offHeapBank.close();
+        try {
+            offHeapBank.getAmount(0);
+            fail("closed bank must not be accessible");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Operations that run concurrently with {@link OffHeapBankImpl#close()} either complete
+     * or fail with {@link IllegalStateException}.
+     */
+    public void testCloseConcurrently() throws Exception {
+        Thread[] threads = new Thread[4];
+        Throwable[] failures = new Throwable[threads.length];
+        for (int t = 0; t < threads.length; t++) {
+            int index = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    while (true) {
+                        offHeapBank.deposit(index, 1);
+                        offHeapBank.transfer(index, index + 1, 1);
+                    }
+                } catch (IllegalStateException e) {
+                    // closed
+                } catch (Throwable e) {
+                    failures[index] = e;
+                }
+            });
+            threads[t].start();
+        }
+        Thread.sleep(50);
+        offHeapBank.close();
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+            assertNull(failures[t]);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package ru.ifmo.pp.fgb;
+
+import junit.framework.TestCase;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Test-suite for {@link BankImpl#openAccount()}.
+ *
+ * @author Markina Margarita
+ */
+public class OpenAccountTest extends TestCase {
+    private static final int N = 10;
+    private static final int OPENED = 1000; // several segments
+    private static final int THREADS = 4;
+    private static final long AMOUNT = 1_000_000;
+
+    private Path directory;
+    private Path checkpointFile;
+    private Path logFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("fgb");
+        checkpointFile = directory.resolve("bank.checkpoint");
+        logFile = directory.resolve("bank.wal");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(checkpointFile);
+        Files.deleteIfExists(logFile);
+        Files.delete(directory);
+    }
+
+    public void testOpenAccounts() {
+        BankImpl bank = new BankImpl(0);
+        for (int i = 0; i < OPENED; i++) {
+            assertEquals(i, bank.openAccount());
+            assertEquals(i + 1, bank.getNumberOfAccounts());
+            assertEquals(0, bank.getAmount(i));
+            bank.deposit(i, i + 1);
+        }
+        for (int i = 0; i < OPENED; i++)
+            assertEquals(i + 1, bank.getAmount(i));
+        assertEquals(OPENED * (OPENED + 1) / 2, bank.getTotalAmount());
+        assertEquals(bank.getTotalAmount(), bank.getTotalAmount(0, OPENED));
+        assertEquals(OPENED + (OPENED - 1), bank.getTotalAmount(OPENED - 2, OPENED));
+        bank.transfer(OPENED - 1, 0, OPENED);
+        assertEquals(OPENED + 1, bank.getAmount(0));
+        assertEquals(OPENED * (OPENED + 1) / 2, bank.getTotalAmount(0, OPENED));
+        try {
+            bank.getAmount(OPENED);
+            fail("IndexOutOfBoundsException expected");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        try {
+            bank.getTotalAmount(0, OPENED + 1);
+            fail("IndexOutOfBoundsException expected");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    public void testSnapshotDoesNotSeeNewAccounts() {
+        BankImpl bank = new BankImpl(N);
+        bank.deposit(0, 10);
+        try (BankImpl.Snapshot snapshot = bank.snapshot()) {
+            int index = bank.openAccount();
+            bank.transfer(0, index, 5);
+            assertEquals(N, snapshot.getNumberOfAccounts());
+            assertEquals(10, snapshot.getAmount(0));
+            assertEquals(10, snapshot.getTotalAmount());
+            try {
+                snapshot.getAmount(index);
+                fail("IndexOutOfBoundsException expected");
+            } catch (IndexOutOfBoundsException e) {
+                // expected
+            }
+            try (BankImpl.Snapshot next = bank.snapshot()) {
+                assertEquals(N + 1, next.getNumberOfAccounts());
+                assertEquals(5, next.getAmount(index));
+            }
+        }
+    }
+
+    public void testRestoreFromLog() throws Exception {
+        BankImpl bank = new BankImpl(N);
+        try (WriteAheadLog wal = new WriteAheadLog(logFile, WriteAheadLog.SyncPolicy.everyOperation())) {
+            bank.setWriteAheadLog(wal);
+            bank.deposit(0, AMOUNT);
+            for (int i = 0; i < OPENED; i++)
+                bank.transfer(0, bank.openAccount(), 1 + i % 100);
+            bank.checkpoint(checkpointFile);
+            for (int i = 0; i < OPENED; i++)
+                bank.transfer(0, bank.openAccount(), 1 + i % 100);
+        }
+        int n = N + 2 * OPENED;
+        BankImpl replayed = new BankImpl(N);
+        WriteAheadLog.replay(logFile, replayed);
+        BankImpl restored = BankImpl.restore(checkpointFile, logFile);
+        for (BankImpl other : new BankImpl[]{replayed, restored}) {
+            assertEquals(n, other.getNumberOfAccounts());
+            for (int i = 0; i < n; i++)
+                assertEquals(bank.getAmount(i), other.getAmount(i));
+            assertEquals(AMOUNT, other.getTotalAmount(0, n));
+        }
+    }
+
+    /**
+     * Transfers move money from the initial accounts to the accounts that are opened concurrently,
+     * so the total is kept, and every account that is counted must be accessible.
+     */
+    public void testConcurrentOpen() throws Exception {
+        BankImpl bank = new BankImpl(N);
+        for (int i = 0; i < N; i++)
+            bank.deposit(i, AMOUNT);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicBoolean failed = new AtomicBoolean();
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                for (int k = 0; k < OPENED; k++) {
+                    int index = bank.openAccount();
+                    bank.transfer(rnd.nextInt(N), index, 1 + rnd.nextInt(100));
+                    int n = bank.getNumberOfAccounts();
+                    bank.tryTransfer(rnd.nextInt(n), rnd.nextInt(n), 1 + rnd.nextInt(100));
+                }
+            });
+            threads[t].start();
+        }
+        Thread reader = new Thread(() -> {
+            int last = 0;
+            while (!done.get()) {
+                int n = bank.getNumberOfAccounts();
+                if (n < last || bank.getAmount(n - 1) < 0)
+                    failed.set(true);
+                long total = bank.getTotalAmount(0, n);
+                if (total != N * AMOUNT && bank.getNumberOfAccounts() == n) // no account was opened and funded meanwhile
+                    failed.set(true);
+                last = n;
+            }
+        });
+        reader.start();
+        for (Thread t : threads)
+            t.join();
+        done.set(true);
+        reader.join();
+        assertFalse("Inconsistent number of accounts or total", failed.get());
+        int n = N + THREADS * OPENED;
+        assertEquals(n, bank.getNumberOfAccounts());
+        assertEquals(N * AMOUNT, bank.getTotalAmount());
+        assertEquals(N * AMOUNT, bank.getTotalAmount(0, n));
+        long sum = 0;
+        for (int i = 0; i < n; i++)
+            sum += bank.getAmount(i);
+        assertEquals(N * AMOUNT, sum);
+    }
+}
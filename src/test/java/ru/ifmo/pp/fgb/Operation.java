@@ -1,5 +1,8 @@
 package ru.ifmo.pp.fgb;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 /**
  * Operation on a bank.
  *
@@ -14,8 +17,24 @@ abstract class Operation {
         }
     }
 
+    CompletableFuture<Object> invoke(AsyncBank bank) {
+        CompletableFuture<?> future;
+        try {
+            future = invokeImpl(bank);
+        } catch (Throwable t) {
+            return CompletableFuture.completedFuture(t.getClass());
+        }
+        return future.handle((result, t) -> {
+            if (t == null)
+                return result;
+            return (t instanceof CompletionException ? t.getCause() : t).getClass();
+        });
+    }
+
     abstract Object invokeImpl(Bank bank);
 
+    abstract CompletableFuture<?> invokeImpl(AsyncBank bank);
+
     static class GetAmount extends Operation {
         final int index;
 
@@ -28,6 +47,11 @@ abstract class Operation {
             return bank.getAmount(index);
         }
 
+        @Override
+        CompletableFuture<?> invokeImpl(AsyncBank bank) {
+            return bank.getAmount(index);
+        }
+
         @Override
         public String toString() {
             return "GetAmount{" +
@@ -42,6 +66,11 @@ abstract class Operation {
             return bank.getTotalAmount();
         }
 
+        @Override
+        CompletableFuture<?> invokeImpl(AsyncBank bank) {
+            return bank.getTotalAmount();
+        }
+
         @Override
         public String toString() {
             return "GetTotalAmount{}";
@@ -62,6 +91,11 @@ abstract class Operation {
             return bank.deposit(index, amount);
         }
 
+        @Override
+        CompletableFuture<?> invokeImpl(AsyncBank bank) {
+            return bank.deposit(index, amount);
+        }
+
         @Override
         public String toString() {
             return "Deposit{" +
@@ -85,6 +119,11 @@ abstract class Operation {
             return bank.withdraw(index, amount);
         }
 
+        @Override
+        CompletableFuture<?> invokeImpl(AsyncBank bank) {
+            return bank.withdraw(index, amount);
+        }
+
         @Override
         public String toString() {
             return "Withdraw{" +
@@ -111,6 +150,11 @@ abstract class Operation {
             return null;
         }
 
+        @Override
+        CompletableFuture<?> invokeImpl(AsyncBank bank) {
+            return bank.transfer(fromIndex, toIndex, amount);
+        }
+
         @Override
         public String toString() {
             return "Transfer{" +
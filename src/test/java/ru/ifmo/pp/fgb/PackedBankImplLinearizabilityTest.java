@@ -0,0 +1,13 @@
+package ru.ifmo.pp.fgb;
+
+/**
+ * Automated test of linearizability of {@link PackedBankImpl}.
+ *
+ * @author Markina Margarita
+ */
+public class PackedBankImplLinearizabilityTest extends LinearizabilityTest {
+    @Override
+    protected Bank createBank(int n) {
+        return new PackedBankImpl(n);
+    }
+}
@@ -0,0 +1,13 @@
+package ru.ifmo.pp.fgb;
+
+/**
+ * Multi-threaded stress test for {@link PackedBankImpl} in padded mode.
+ *
+ * @author Markina Margarita
+ */
+public class PackedBankImplStressTest extends MTStressTest {
+    @Override
+    protected Bank createBank(int n) {
+        return new PackedBankImpl(n, true);
+    }
+}
@@ -0,0 +1,24 @@
+package ru.ifmo.pp.fgb;
+
+/**
+ * Functional single-threaded test-suite for {@link PackedBankImpl} in compact mode.
+ *
+ * @author Markina Margarita
+ */
+public class PackedBankImplTest extends FunctionalTest {
+    @Override
+    protected Bank createBank(int n) {
+        return new PackedBankImpl(n);
+    }
+
+    public void testTooManyAccounts() {
+        for (boolean padded : new boolean[]{false, true}) {
+            try {
+                new PackedBankImpl(padded ? 1 << 28 : 1 << 30, padded);
+                fail("IllegalArgumentException expected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package ru.ifmo.pp.fgb;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Threads that run random operations on a bank, for tests that check the bank while it is modified concurrently.
+ * Every operation is chosen from the specified actions at random, and is given two random accounts
+ * (that may be the same) and a random amount from 1 to 100. When an operation throws, the threads keep running,
+ * and the test fails when they are joined.
+ *
+ * @author Markina Margarita
+ */
+class RandomOperations {
+    /**
+     * Action of an operation.
+     */
+    @FunctionalInterface
+    interface Action {
+        void run(BankImpl bank, int i, int j, long amount);
+    }
+
+    static final Action DEPOSIT = (bank, i, j, amount) -> bank.tryDeposit(i, amount);
+    static final Action WITHDRAW = (bank, i, j, amount) -> bank.tryWithdraw(i, amount);
+    static final Action TRANSFER = (bank, i, j, amount) -> bank.tryTransfer(i, j, amount);
+    static final Action BATCH = (bank, i, j, amount) ->
+            bank.transferBatch(new int[]{i, j}, new int[]{j, i}, new long[]{amount, amount / 2});
+
+    /**
+     * Withdraws the amount from account i and deposits half of it to account j in a transaction,
+     * that is rolled back when account i has less.
+     */
+    static final Action TRANSACTION = (bank, i, j, amount) -> {
+        try {
+            bank.atomically(new int[]{i, j}, tx -> {
+                tx.withdraw(i, amount);
+                tx.deposit(j, amount / 2 + 1);
+            });
+        } catch (IllegalStateException e) {
+            // rolled back
+        }
+    };
+
+    /**
+     * All kinds of operations.
+     */
+    static final Action[] ALL = {DEPOSIT, WITHDRAW, TRANSFER, BATCH, TRANSACTION};
+
+    /**
+     * Operations that keep the total amount.
+     */
+    static final Action[] TRANSFERS = {TRANSFER, BATCH};
+
+    private final BankImpl bank;
+    private final int n;
+    private final Action[] actions;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private volatile boolean stopped;
+    private Thread[] threads = new Thread[0];
+
+    /**
+     * Creates operations on the accounts that the bank has now.
+     */
+    RandomOperations(BankImpl bank, Action... actions) {
+        this.bank = bank;
+        this.n = bank.getNumberOfAccounts();
+        this.actions = actions;
+    }
+
+    /**
+     * Runs the number of operations in each of the threads and waits until they are done.
+     *
+     * @throws AssertionError when an operation has failed.
+     */
+    void run(int threads, int operations) throws InterruptedException {
+        start(threads, operations);
+        join();
+    }
+
+    /**
+     * Starts threads that run operations until {@link #stop()}.
+     */
+    void start(int threads) {
+        start(threads, Long.MAX_VALUE);
+    }
+
+    /**
+     * Stops the threads and waits until they are done.
+     *
+     * @throws AssertionError when an operation has failed.
+     */
+    void stop() throws InterruptedException {
+        stopped = true;
+        join();
+    }
+
+    private void start(int count, long operations) {
+        threads = new Thread[count];
+        for (int t = 0; t < count; t++) {
+            threads[t] = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                for (long op = 0; op < operations && !stopped; op++) {
+                    Action action = actions[rnd.nextInt(actions.length)];
+                    try {
+                        action.run(bank, rnd.nextInt(n), rnd.nextInt(n), 1 + rnd.nextInt(100));
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+    }
+
+    private void join() throws InterruptedException {
+        for (Thread thread : threads)
+            thread.join();
+        Throwable e = failure.get();
+        if (e != null)
+            throw new AssertionError("Operation has failed", e);
+    }
+}
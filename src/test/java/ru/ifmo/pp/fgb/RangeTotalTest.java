@@ -0,0 +1,121 @@
+package ru.ifmo.pp.fgb;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Test-suite for {@link BankImpl#getTotalAmount(int, int)}.
+ *
+ * @author Markina Margarita
+ */
+public class RangeTotalTest extends TestCase {
+    private static final int N = 37;
+    private static final int OPERATIONS = 10_000;
+    private static final int THREADS = 4;
+    private static final int BATCH = 16;
+    private static final long AMOUNT = 1_000_000;
+
+    public void testRanges() {
+        BankImpl bank = new BankImpl(N);
+        SequentialBank expected = new SequentialBank(N);
+        Random rnd = new Random(1);
+        for (int op = 0; op < OPERATIONS; op++) {
+            int i = rnd.nextInt(N);
+            int j = rnd.nextInt(N);
+            long amount = 1 + rnd.nextInt(1000);
+            switch (rnd.nextInt(4)) {
+                case 0:
+                    assertEquals(expected.tryDeposit(i, amount), bank.tryDeposit(i, amount));
+                    break;
+                case 1:
+                    assertEquals(expected.tryWithdraw(i, amount), bank.tryWithdraw(i, amount));
+                    break;
+                case 2:
+                    assertEquals(expected.tryTransfer(i, j, amount), bank.tryTransfer(i, j, amount));
+                    break;
+                case 3:
+                    bank.atomically(new int[]{i, j}, tx -> tx.tryDeposit(j, amount));
+                    expected.tryDeposit(j, amount);
+                    break;
+                default:
+                    throw new AssertionError();
+            }
+            int from = rnd.nextInt(N + 1);
+            int to = from + rnd.nextInt(N + 1 - from);
+            long sum = 0;
+            for (int k = from; k < to; k++)
+                sum += expected.getAmount(k);
+            assertEquals(sum, bank.getTotalAmount(from, to));
+        }
+        assertEquals(bank.getTotalAmount(), bank.getTotalAmount(0, N));
+    }
+
+    public void testInvalidRanges() {
+        BankImpl bank = new BankImpl(N);
+        assertEquals(0, bank.getTotalAmount(N, N));
+        int[][] ranges = {{-1, 1}, {0, N + 1}, {2, 1}};
+        for (int[] range : ranges) {
+            try {
+                bank.getTotalAmount(range[0], range[1]);
+                fail("IndexOutOfBoundsException expected");
+            } catch (IndexOutOfBoundsException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Transfers inside the left and the right halves of the bank keep totals of the halves,
+     * while transfers between them keep only the total of the whole bank. Every range total
+     * of a half must observe the transfers inside it atomically.
+     */
+    public void testConcurrentTransfers() throws Exception {
+        int half = N / 2;
+        BankImpl bank = new BankImpl(N);
+        for (int i = 0; i < N; i++)
+            bank.deposit(i, AMOUNT);
+        // transfers inside the half of account i
+        RandomOperations operations = new RandomOperations(bank, (b, i, j, amount) -> {
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            int base = i < half ? 0 : half;
+            int size = base == 0 ? half : N - half;
+            int[] from = new int[rnd.nextBoolean() ? 1 : BATCH];
+            int[] to = new int[from.length];
+            long[] amounts = new long[from.length];
+            for (int k = 0; k < from.length; k++) {
+                from[k] = base + rnd.nextInt(size);
+                to[k] = base + rnd.nextInt(size);
+                amounts[k] = 1 + rnd.nextInt(1000);
+            }
+            if (from.length == 1)
+                b.tryTransfer(from[0], to[0], amounts[0]);
+            else
+                b.transferBatch(from, to, amounts);
+        });
+        operations.start(THREADS);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicBoolean failed = new AtomicBoolean();
+        Thread reader = new Thread(() -> {
+            while (!done.get()) {
+                if (bank.getTotalAmount(0, half) != half * AMOUNT ||
+                        bank.getTotalAmount(half, N) != (N - half) * AMOUNT)
+                    failed.set(true);
+            }
+        });
+        reader.start();
+        for (int op = 0; op < 100 * OPERATIONS; op++) {
+            assertEquals(N * AMOUNT, bank.getTotalAmount(0, N));
+        }
+        done.set(true);
+        reader.join();
+        operations.stop();
+        assertFalse("Range total has observed a part of a transfer", failed.get());
+        long sum = 0;
+        for (int i = 0; i < half; i++)
+            sum += bank.getAmount(i);
+        assertEquals(half * AMOUNT, sum);
+    }
+}
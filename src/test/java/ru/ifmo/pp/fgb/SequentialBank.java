@@ -24,6 +24,18 @@ class SequentialBank implements Bank {
         }
     }
 
+    /**
+     * Creates a copy of bank.
+     *
+     * @param other bank to copy.
+     */
+    public SequentialBank(SequentialBank other) {
+        this(other.accounts.length);
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i].amount = other.accounts[i].amount;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -99,6 +111,110 @@ class SequentialBank implements Bank {
         to.amount += amount;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long tryDeposit(int index, long amount) {
+        Account account = accounts[index];
+        if (amount <= 0)
+            return INVALID_ARGUMENT;
+        if (amount > MAX_AMOUNT || account.amount + amount > MAX_AMOUNT)
+            return OVERFLOW;
+        account.amount += amount;
+        return account.amount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long tryWithdraw(int index, long amount) {
+        Account account = accounts[index];
+        if (amount <= 0)
+            return INVALID_ARGUMENT;
+        if (account.amount - amount < 0)
+            return UNDERFLOW;
+        account.amount -= amount;
+        return account.amount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int tryTransfer(int fromIndex, int toIndex, long amount) {
+        Account from = accounts[fromIndex];
+        Account to = accounts[toIndex];
+        if (amount <= 0 || fromIndex == toIndex)
+            return INVALID_ARGUMENT;
+        if (amount > from.amount)
+            return UNDERFLOW;
+        if (amount > MAX_AMOUNT || to.amount + amount > MAX_AMOUNT)
+            return OVERFLOW;
+        from.amount -= amount;
+        to.amount += amount;
+        return OK;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int[] transferBatch(int[] fromIndices, int[] toIndices, long[] amounts) {
+        int size = fromIndices.length;
+        if (toIndices.length != size || amounts.length != size)
+            throw new IllegalArgumentException("Batch arrays have different lengths");
+        for (int i = 0; i < size; i++) {
+            if (fromIndices[i] < 0 || fromIndices[i] >= accounts.length)
+                throw new IndexOutOfBoundsException("Invalid account index: " + fromIndices[i]);
+            if (toIndices[i] < 0 || toIndices[i] >= accounts.length)
+                throw new IndexOutOfBoundsException("Invalid account index: " + toIndices[i]);
+        }
+        int[] status = new int[size];
+        for (int i = 0; i < size; i++) {
+            Account from = accounts[fromIndices[i]];
+            Account to = accounts[toIndices[i]];
+            long amount = amounts[i];
+            if (amount <= 0 || from == to)
+                status[i] = INVALID_ARGUMENT;
+            else if (amount > from.amount)
+                status[i] = UNDERFLOW;
+            else if (amount > MAX_AMOUNT || to.amount + amount > MAX_AMOUNT)
+                status[i] = OVERFLOW;
+            else {
+                from.amount -= amount;
+                to.amount += amount;
+                status[i] = OK;
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Banks are equal when they have the same amounts in all accounts.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SequentialBank other = (SequentialBank) o;
+        if (accounts.length != other.accounts.length) return false;
+        for (int i = 0; i < accounts.length; i++) {
+            if (accounts[i].amount != other.accounts[i].amount) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 0;
+        for (Account account : accounts) {
+            result = 31 * result + Long.hashCode(account.amount);
+        }
+        return result;
+    }
+
     /**
      * Private account data structure.
      */
@@ -0,0 +1,112 @@
+package ru.ifmo.pp.fgb;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Test-suite for {@link BankImpl#snapshot()}.
+ *
+ * @author Markina Margarita
+ */
+public class SnapshotTest extends TestCase {
+    private static final int N = 10;
+    private static final int THREADS = 4;
+    private static final int SNAPSHOTS = 2_000;
+    private static final long AMOUNT = 1_000_000;
+
+    public void testPointInTime() {
+        BankImpl bank = new BankImpl(N);
+        for (int i = 0; i < N; i++)
+            bank.deposit(i, i + 1);
+        try (BankImpl.Snapshot snapshot = bank.snapshot()) {
+            bank.deposit(0, 100);
+            bank.withdraw(1, 2);
+            bank.transfer(2, 3, 3);
+            bank.transferBatch(new int[]{4}, new int[]{5}, new long[]{1});
+            bank.atomically(new int[]{6, 7}, tx -> tx.transfer(6, 7, 7));
+            assertEquals(N, snapshot.getNumberOfAccounts());
+            for (int i = 0; i < N; i++)
+                assertEquals(i + 1, snapshot.getAmount(i));
+            assertEquals(N * (N + 1) / 2, snapshot.getTotalAmount());
+            assertEquals(N * (N + 1) / 2 + 98, bank.getTotalAmount());
+            long[] amounts = snapshot.amounts().toArray();
+            for (int i = 0; i < N; i++)
+                assertEquals(i + 1, amounts[i]);
+        }
+    }
+
+    public void testSnapshotsOfDifferentEpochs() {
+        BankImpl bank = new BankImpl(N);
+        bank.deposit(0, 1);
+        BankImpl.Snapshot first = bank.snapshot();
+        bank.deposit(0, 10);
+        BankImpl.Snapshot second = bank.snapshot();
+        bank.deposit(0, 100);
+        BankImpl.Snapshot third = bank.snapshot();
+        assertEquals(1, first.getAmount(0));
+        assertEquals(11, second.getAmount(0));
+        assertEquals(111, third.getAmount(0));
+        first.close();
+        bank.deposit(0, 1000); // drops the version of the first snapshot
+        assertEquals(11, second.getAmount(0));
+        assertEquals(111, third.getAmount(0));
+        second.close();
+        third.close();
+        bank.deposit(0, 10000);
+        assertEquals(11111, bank.getAmount(0));
+        try {
+            first.getAmount(0);
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    public void testRolledBackTransaction() {
+        BankImpl bank = new BankImpl(N);
+        bank.deposit(0, 10);
+        try (BankImpl.Snapshot snapshot = bank.snapshot()) {
+            try {
+                bank.atomically(new int[]{0, 1}, tx -> {
+                    tx.transfer(0, 1, 5);
+                    tx.withdraw(1, 100); // fails
+                });
+                fail("IllegalStateException expected");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            assertEquals(10, snapshot.getAmount(0));
+            assertEquals(0, snapshot.getAmount(1));
+            assertEquals(10, bank.getAmount(0));
+        }
+    }
+
+    /**
+     * Transfers between accounts keep the total, and every snapshot must observe them atomically,
+     * while writers are never blocked by snapshots.
+     */
+    public void testConcurrentTransfers() throws Exception {
+        BankImpl bank = new BankImpl(N);
+        for (int i = 0; i < N; i++)
+            bank.deposit(i, AMOUNT);
+        RandomOperations operations = new RandomOperations(bank, RandomOperations.TRANSFERS);
+        operations.start(THREADS);
+        try {
+            for (int k = 0; k < SNAPSHOTS; k++) {
+                try (BankImpl.Snapshot snapshot = bank.snapshot()) {
+                    long[] amounts = snapshot.amounts().toArray();
+                    long total = 0;
+                    for (long amount : amounts)
+                        total += amount;
+                    assertEquals(N * AMOUNT, total);
+                    Thread.yield(); // let writers modify accounts while the snapshot is open
+                    for (int i = 0; i < N; i++)
+                        assertEquals(amounts[i], snapshot.getAmount(i));
+                }
+            }
+        } finally {
+            operations.stop();
+        }
+        assertEquals(N * AMOUNT, bank.getTotalAmount());
+    }
+}
@@ -0,0 +1,85 @@
+package ru.ifmo.pp.fgb;
+
+import junit.framework.Assert;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Operations of {@link MTStressTest} and {@link LoadGenerator} with the expected amounts of accounts.
+ * <p/>
+ * <p>Every account starts with {@link #MEAN}, deposits and withdrawals are divisible by {@link #MOD} and
+ * transfers are of arbitrary amounts up to {@link #AMT}, so the total amount is always divisible
+ * by {@link #MOD} and no operation overflows or underflows in practice. Operations may be run concurrently,
+ * the bank is verified against the expected amounts when none of them runs.
+ *
+ * @author Markina Margarita
+ */
+class StressOperations {
+    static final long MEAN = 1_000_000_000;
+    static final int AMT = 1_000; // AMT << MEAN, so that probability of over/under flow is negligible
+    static final int MOD = 100; // all deposits / withdrawals are divisible by MOD
+
+    private final Bank bank;
+    private final AtomicLongArray expected;
+
+    /**
+     * Deposits {@link #MEAN} to every account of the bank.
+     */
+    StressOperations(Bank bank) {
+        this.bank = bank;
+        int n = bank.getNumberOfAccounts();
+        expected = new AtomicLongArray(n);
+        for (int i = 0; i < n; i++) {
+            bank.deposit(i, MEAN);
+            expected.set(i, MEAN);
+        }
+    }
+
+    void getAmount(int index) {
+        bank.getAmount(index);
+    }
+
+    void deposit(int index, ThreadLocalRandom rnd) {
+        long amount = roundToMod(rnd.nextInt(AMT) + 1);
+        bank.deposit(index, amount);
+        expected.addAndGet(index, amount);
+    }
+
+    void withdraw(int index, ThreadLocalRandom rnd) {
+        long amount = roundToMod(rnd.nextInt(AMT) + 1);
+        bank.withdraw(index, amount);
+        expected.addAndGet(index, -amount);
+    }
+
+    void transfer(int fromIndex, int toIndex, ThreadLocalRandom rnd) {
+        // arbitrary amount is transferred between accounts
+        long amount = rnd.nextInt(AMT) + 1;
+        bank.transfer(fromIndex, toIndex, amount);
+        expected.addAndGet(fromIndex, -amount);
+        expected.addAndGet(toIndex, amount);
+    }
+
+    void getTotalAmount() {
+        long totalAmount = bank.getTotalAmount();
+        Assert.assertEquals(0, totalAmount % MOD); // the result must be divisible to MOD
+    }
+
+    /**
+     * Checks that amounts of all accounts and the total amount are as expected.
+     * It must not be called concurrently with operations.
+     */
+    void verify() {
+        long expectedTotal = 0;
+        for (int i = 0; i < expected.length(); i++) {
+            long ei = expected.get(i);
+            Assert.assertEquals("Account " + i, ei, bank.getAmount(i));
+            expectedTotal += ei;
+        }
+        Assert.assertEquals("Total amount", expectedTotal, bank.getTotalAmount());
+    }
+
+    private static long roundToMod(long amount) {
+        return (amount + MOD - 1) / MOD * MOD;
+    }
+}
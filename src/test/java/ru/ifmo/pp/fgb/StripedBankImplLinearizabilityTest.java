@@ -0,0 +1,13 @@
+package ru.ifmo.pp.fgb;
+
+/**
+ * Automated test of linearizability of {@link StripedBankImpl} with accounts sharing stripes.
+ *
+ * @author Markina Margarita
+ */
+public class StripedBankImplLinearizabilityTest extends LinearizabilityTest {
+    @Override
+    protected Bank createBank(int n) {
+        return new StripedBankImpl(n, 3);
+    }
+}
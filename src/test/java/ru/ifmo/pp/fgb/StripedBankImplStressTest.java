@@ -0,0 +1,13 @@
+package ru.ifmo.pp.fgb;
+
+/**
+ * Multi-threaded stress test for {@link StripedBankImpl} with fewer stripes than accounts.
+ *
+ * @author Markina Margarita
+ */
+public class StripedBankImplStressTest extends MTStressTest {
+    @Override
+    protected Bank createBank(int n) {
+        return new StripedBankImpl(n, 8);
+    }
+}
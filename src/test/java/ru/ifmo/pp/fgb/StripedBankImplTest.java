@@ -0,0 +1,27 @@
+package ru.ifmo.pp.fgb;
+
+/**
+ * Functional single-threaded test-suite for {@link StripedBankImpl} with accounts sharing stripes.
+ *
+ * @author Markina Margarita
+ */
+public class StripedBankImplTest extends FunctionalTest {
+    @Override
+    protected Bank createBank(int n) {
+        return new StripedBankImpl(n, 3);
+    }
+
+    public void testTransferWithinStripe() {
+        StripedBankImpl bank = new StripedBankImpl(10, 3);
+        bank.deposit(1, 100);
+        bank.transfer(1, 4, 30); // both in stripe 1
+        assertEquals(70, bank.getAmount(1));
+        assertEquals(30, bank.getAmount(4));
+        int[] status = bank.transferBatch(new int[]{4, 1, 2}, new int[]{7, 7, 1}, new long[]{10, 20, 5});
+        assertEquals(Bank.OK, status[0]);
+        assertEquals(Bank.OK, status[1]);
+        assertEquals(Bank.UNDERFLOW, status[2]);
+        assertEquals(30, bank.getAmount(7));
+        assertEquals(100, bank.getTotalAmount());
+    }
+}
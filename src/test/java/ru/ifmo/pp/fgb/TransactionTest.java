@@ -0,0 +1,125 @@
+package ru.ifmo.pp.fgb;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Test-suite for multi-account transactions of {@link BankImpl}.
+ *
+ * @author Markina Margarita
+ */
+public class TransactionTest extends TestCase {
+    private static final int N = 10;
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 100_000;
+
+    private final BankImpl bank = new BankImpl(N);
+
+    public void testCommit() {
+        bank.deposit(0, 1000);
+        bank.atomically(new int[]{0, 1, 2}, tx -> {
+            long fee = tx.withdraw(0, 100) / 100; // 1% of the rest
+            tx.transfer(0, 1, 500);
+            tx.withdraw(0, fee);
+            tx.deposit(2, fee);
+        });
+        assertEquals(391, bank.getAmount(0));
+        assertEquals(500, bank.getAmount(1));
+        assertEquals(9, bank.getAmount(2));
+        assertEquals(900, bank.getTotalAmount());
+    }
+
+    public void testRollback() {
+        bank.deposit(0, 1000);
+        bank.deposit(1, 10);
+        try {
+            bank.atomically(new int[]{1, 0, 1}, tx -> {
+                tx.transfer(0, 1, 600);
+                tx.deposit(0, 50);
+                tx.withdraw(0, 600); // fails with underflow
+            });
+            fail("transaction must fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(1000, bank.getAmount(0));
+        assertEquals(10, bank.getAmount(1));
+        assertEquals(1010, bank.getTotalAmount());
+    }
+
+    public void testTotalAmount() {
+        bank.deposit(0, 1000);
+        bank.deposit(5, 10);
+        bank.atomically(new int[]{0, 1}, tx -> {
+            assertEquals(1010, tx.getTotalAmount());
+            tx.transfer(0, 1, 300);
+            assertEquals(1010, tx.getTotalAmount());
+            tx.withdraw(1, 100);
+            tx.deposit(0, 40);
+            assertEquals(950, tx.getTotalAmount());
+            assertEquals(1010, bank.getTotalAmount()); // not committed yet
+        });
+        assertEquals(950, bank.getTotalAmount());
+    }
+
+    public void testAccountOutsideOfTransaction() {
+        bank.deposit(0, 1000);
+        try {
+            bank.atomically(new int[]{0}, tx -> tx.transfer(0, 1, 100));
+            fail("transaction must not access accounts that it has not locked");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(1000, bank.getAmount(0));
+        assertEquals(0, bank.getAmount(1));
+    }
+
+    public void testConcurrentTransactions() throws InterruptedException {
+        for (int i = 0; i < N; i++)
+            bank.deposit(i, 1000);
+        AtomicBoolean failed = new AtomicBoolean();
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                try {
+                    for (int k = 0; k < OPERATIONS; k++) {
+                        int a = rnd.nextInt(N);
+                        int b = rnd.nextInt(N);
+                        int c = rnd.nextInt(N);
+                        if (a == b || b == c || a == c)
+                            continue;
+                        try {
+                            // move everything from a to b and c in equal halves, or fail on odd amounts
+                            bank.atomically(new int[]{a, b, c}, tx -> {
+                                long amount = tx.getAmount(a);
+                                tx.transfer(a, b, amount / 2);
+                                if (amount % 2 != 0)
+                                    throw new IllegalStateException("Odd amount");
+                                tx.transfer(a, c, amount / 2);
+                            });
+                        } catch (IllegalArgumentException | IllegalStateException e) {
+                            // aborted
+                        }
+                        if (rnd.nextInt(10) == 0)
+                            assertEquals(10 * 1000, bank.getTotalAmount());
+                    }
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                    failed.set(true);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertFalse(failed.get());
+        long total = 0;
+        for (int i = 0; i < N; i++)
+            total += bank.getAmount(i);
+        assertEquals(10 * 1000, total);
+        assertEquals(10 * 1000, bank.getTotalAmount());
+    }
+}
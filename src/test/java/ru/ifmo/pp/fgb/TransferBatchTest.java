@@ -0,0 +1,126 @@
+package ru.ifmo.pp.fgb;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Test-suite for batch transfers. It checks batch results against {@link SequentialBank} and compares
+ * the time of batch transfers with the time of the same transfers made one by one.
+ *
+ * @author Markina Margarita
+ */
+public class TransferBatchTest extends TestCase {
+    private static final int N = 1000;
+    private static final int BATCH = 1000;
+    private static final int BATCHES = 1000;
+    private static final long MEAN = 1_000_000;
+
+    private final Random rnd = new Random(20141101);
+
+    /**
+     * Creates bank implementation under test.
+     *
+     * @param n the number of accounts.
+     * @return new bank.
+     */
+    protected Bank createBank(int n) {
+        return new BankImpl(n);
+    }
+
+    public void testStatuses() {
+        Bank bank = createBank(N);
+        bank.deposit(0, 100);
+        bank.deposit(1, Bank.MAX_AMOUNT);
+        int[] status = bank.transferBatch(
+                new int[]{0, 0, 0, 2, 0},
+                new int[]{2, 2, 0, 1, 1},
+                new long[]{60, 60, 10, 10, 0});
+        assertTrue(Arrays.equals(new int[]{Bank.OK, Bank.UNDERFLOW, Bank.INVALID_ARGUMENT, Bank.OVERFLOW,
+                Bank.INVALID_ARGUMENT}, status));
+        assertEquals(40, bank.getAmount(0));
+        assertEquals(60, bank.getAmount(2));
+        assertEquals(Bank.MAX_AMOUNT + 100, bank.getTotalAmount());
+    }
+
+    public void testInvalidIndex() {
+        Bank bank = createBank(N);
+        bank.deposit(0, 100);
+        try {
+            bank.transferBatch(new int[]{0, 0}, new int[]{1, N}, new long[]{10, 10});
+            fail("invalid index must fail");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        assertEquals(100, bank.getAmount(0));
+        assertEquals(0, bank.getAmount(1));
+        // nothing must stay locked
+        bank.transfer(0, 1, 10);
+        assertEquals(10, bank.getAmount(1));
+    }
+
+    public void testAgainstSequential() {
+        Bank bank = createBank(N);
+        Bank expected = new SequentialBank(N);
+        for (int i = 0; i < N; i++) {
+            bank.deposit(i, MEAN);
+            expected.deposit(i, MEAN);
+        }
+        for (int k = 0; k < 100; k++) {
+            int[] from = new int[BATCH];
+            int[] to = new int[BATCH];
+            long[] amounts = new long[BATCH];
+            fillBatch(from, to, amounts, 2 * MEAN);
+            assertTrue(Arrays.equals(expected.transferBatch(from, to, amounts), bank.transferBatch(from, to, amounts)));
+        }
+        for (int i = 0; i < N; i++)
+            assertEquals(expected.getAmount(i), bank.getAmount(i));
+        assertEquals(expected.getTotalAmount(), bank.getTotalAmount());
+    }
+
+    public void testBatchVersusPerCallTime() {
+        int[][] from = new int[BATCHES][BATCH];
+        int[][] to = new int[BATCHES][BATCH];
+        long[][] amounts = new long[BATCHES][BATCH];
+        for (int k = 0; k < BATCHES; k++)
+            fillBatch(from[k], to[k], amounts[k], MEAN / 10);
+        for (int round = 0; round < 2; round++) { // the first round warms up
+            Bank perCallBank = createBank(N);
+            Bank batchBank = createBank(N);
+            for (int i = 0; i < N; i++) {
+                perCallBank.deposit(i, MEAN);
+                batchBank.deposit(i, MEAN);
+            }
+            long start = System.currentTimeMillis();
+            for (int k = 0; k < BATCHES; k++) {
+                for (int i = 0; i < BATCH; i++) {
+                    try {
+                        perCallBank.transfer(from[k][i], to[k][i], amounts[k][i]);
+                    } catch (IllegalArgumentException | IllegalStateException e) {
+                        // counted as failed transfer
+                    }
+                }
+            }
+            long finish = System.currentTimeMillis();
+            if (round > 0)
+                System.out.println("TIME_TransferPerCall = " + (finish - start));
+            start = System.currentTimeMillis();
+            for (int k = 0; k < BATCHES; k++)
+                batchBank.transferBatch(from[k], to[k], amounts[k]);
+            finish = System.currentTimeMillis();
+            if (round > 0)
+                System.out.println("TIME_TransferBatch = " + (finish - start));
+            for (int i = 0; i < N; i++)
+                assertEquals(perCallBank.getAmount(i), batchBank.getAmount(i));
+        }
+    }
+
+    private void fillBatch(int[] from, int[] to, long[] amounts, long maxAmount) {
+        for (int i = 0; i < from.length; i++) {
+            from[i] = rnd.nextInt(N);
+            to[i] = rnd.nextInt(N);
+            amounts[i] = 1 + (long) (rnd.nextDouble() * maxAmount);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package ru.ifmo.pp.fgb;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test-suite for write-ahead log of {@link BankImpl} and recovery from it.
+ *
+ * @author Markina Margarita
+ */
+public class WriteAheadLogTest extends TestCase {
+    private static final int N = 10;
+    private static final int THREADS = 4;
+    private static final int OPERATIONS = 10_000;
+
+    private Path file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = Files.createTempFile("fgb", ".wal");
+        Files.delete(file);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    public void testEveryOperation() throws Exception {
+        checkRecovery(WriteAheadLog.SyncPolicy.everyOperation());
+    }
+
+    public void testBatched() throws Exception {
+        checkRecovery(WriteAheadLog.SyncPolicy.batched(5, TimeUnit.MILLISECONDS, 4096));
+    }
+
+    public void testAsync() throws Exception {
+        checkRecovery(WriteAheadLog.SyncPolicy.async());
+    }
+
+    public void testTornTail() throws Exception {
+        BankImpl bank = new BankImpl(N);
+        try (WriteAheadLog wal = new WriteAheadLog(file, WriteAheadLog.SyncPolicy.everyOperation())) {
+            bank.setWriteAheadLog(wal);
+            bank.deposit(1, 100);
+            bank.deposit(2, 100);
+            bank.atomically(new int[]{1, 2, 3}, tx -> {
+                tx.transfer(1, 3, 10);
+                tx.transfer(2, 3, 20);
+            });
+        }
+        long length = Files.size(file);
+        assertEquals(6 * WriteAheadLog.RECORD_SIZE, length); // two deposits and a group of three changes
+        // crash in the middle of the transaction group leaves only the deposits
+        truncate(length - WriteAheadLog.RECORD_SIZE / 2);
+        BankImpl recovered = new BankImpl(N);
+        assertEquals(2 * WriteAheadLog.RECORD_SIZE, WriteAheadLog.replay(file, recovered));
+        assertEquals(100, recovered.getAmount(1));
+        assertEquals(100, recovered.getAmount(2));
+        assertEquals(0, recovered.getAmount(3));
+        // reopened log continues after the last complete record
+        try (WriteAheadLog wal = new WriteAheadLog(file, WriteAheadLog.SyncPolicy.everyOperation())) {
+            recovered.setWriteAheadLog(wal);
+            recovered.withdraw(1, 30);
+        }
+        BankImpl again = new BankImpl(N);
+        WriteAheadLog.replay(file, again);
+        assertEquals(70, again.getAmount(1));
+        assertEquals(170, again.getTotalAmount());
+    }
+
+    private void checkRecovery(WriteAheadLog.SyncPolicy policy) throws Exception {
+        BankImpl bank = new BankImpl(N);
+        try (WriteAheadLog wal = new WriteAheadLog(file, policy)) {
+            bank.setWriteAheadLog(wal);
+            for (int i = 0; i < N; i++)
+                bank.deposit(i, 1000);
+            new RandomOperations(bank, RandomOperations.ALL).run(THREADS, OPERATIONS);
+        }
+        BankImpl recovered = new BankImpl(N);
+        assertEquals(Files.size(file), WriteAheadLog.replay(file, recovered));
+        for (int i = 0; i < N; i++)
+            assertEquals(bank.getAmount(i), recovered.getAmount(i));
+        assertEquals(bank.getTotalAmount(), recovered.getTotalAmount());
+    }
+
+    /**
+     * A garbage group header at the tail must not make replay allocate memory for the group.
+     */
+    public void testGarbageGroupCount() throws Exception {
+        BankImpl bank = new BankImpl(N);
+        try (WriteAheadLog wal = new WriteAheadLog(file, WriteAheadLog.SyncPolicy.everyOperation())) {
+            bank.setWriteAheadLog(wal);
+            bank.deposit(1, 100);
+        }
+        long length = Files.size(file);
+        for (int count : new int[]{Integer.MAX_VALUE, 200_000_000, 2}) {
+            ByteBuffer header = ByteBuffer.allocate(WriteAheadLog.RECORD_SIZE);
+            header.put(WriteAheadLog.GROUP).putInt(count).putInt(0).putLong(0).flip();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.write(header, length);
+            }
+            BankImpl recovered = new BankImpl(N);
+            assertEquals(length, WriteAheadLog.replay(file, recovered));
+            assertEquals(100, recovered.getAmount(1));
+            truncate(length);
+        }
+    }
+
+    private void truncate(long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+        }
+    }
+}